@@ -0,0 +1,175 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs queries of a database in the background, so several
+ * reports can wait on the server at once instead of one after another.
+ *
+ * At most one query per connection of the pool runs at a time; more are
+ * queued, up to a bound past which submit() refuses them.  Cancelling a
+ * running query with mayInterruptIfRunning also cancels the statement on
+ * the server, so its connection is not held until the query completes.
+ *
+ * Settings:
+ *   -Ddbproject.async.threads=<pool max size>   queries running at once
+ *   -Ddbproject.async.queueSize=64              queries waiting to run
+ *
+ */
+public class AsyncQueries {
+
+   static final int THREADS = Integer.getInteger("dbproject.async.threads", DBProject.POOL_MAX_SIZE);
+   static final int QUEUE_SIZE = Integer.getInteger("dbproject.async.queueSize", 64);
+
+   /**
+    * A query that cancels its statement on the server when it is cancelled
+    * while running.
+    */
+   private class Query<T> extends FutureTask<T> {
+      // the thread running the query, or null when it is not running.
+      private Thread _runner = null;
+
+      Query (Callable<T> query) {
+         super (query);
+      }//end Query
+
+      public void run () {
+         synchronized (this) {
+            this._runner = Thread.currentThread ();
+         }//end synchronized
+         _running.add (this);
+         try{
+            super.run ();
+         }finally{
+            _running.remove (this);
+            synchronized (this) {
+               this._runner = null;
+            }//end synchronized
+            // a cancel may have interrupted the thread after the query completed.
+            Thread.interrupted ();
+         }//end try
+      }//end run
+
+      public boolean cancel (boolean mayInterruptIfRunning) {
+         boolean cancelled = super.cancel (mayInterruptIfRunning);
+         if (cancelled && mayInterruptIfRunning) {
+            synchronized (this) {
+               if (this._runner != null) _esql.cancelStatement (this._runner);
+            }//end synchronized
+         }//end if
+         return cancelled;
+      }//end cancel
+   }//end Query
+
+   private final DBProject _esql;
+   private final ThreadPoolExecutor _executor;
+   // queries being run, cancelled by close().
+   private final Set<Query<?>> _running = Collections.newSetFromMap (new ConcurrentHashMap<Query<?>, Boolean> ());
+
+   /**
+    * Creates the background threads of a database
+    *
+    * @param esql the database the queries run on
+    * @param threads the most queries running at once
+    * @param queueSize the most queries waiting to run
+    */
+   public AsyncQueries (DBProject esql, int threads, int queueSize) {
+      this._esql = esql;
+      final AtomicInteger created = new AtomicInteger ();
+      this._executor = new ThreadPoolExecutor (Math.max (1, threads), Math.max (1, threads), 60L, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<Runnable> (Math.max (1, queueSize)),
+                                               new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread thread = new Thread (r, "DBProject-async-" + created.incrementAndGet ());
+            // never keeps the program alive after the menu exits.
+            thread.setDaemon (true);
+            return thread;
+         }
+      });
+      this._executor.allowCoreThreadTimeOut (true);
+   }//end AsyncQueries
+
+   /**
+    * Starts running a query in the background
+    *
+    * @param query the query, e.g. a call of one of the operations
+    * @return the result of the query, once it is done
+    * @throws java.util.concurrent.RejectedExecutionException when too many
+    *         queries are waiting or the database is closed
+    */
+   public <T> Future<T> submit (Callable<T> query) {
+      Query<T> task = new Query<T> (query);
+      this._executor.execute (task);
+      return task;
+   }//end submit
+
+   /**
+    * Waits for queries until a common deadline and cancels those not done
+    * by then, e.g. to join the reports of a dashboard.
+    *
+    * @param queries the queries to wait for
+    * @param timeoutMs how long to wait for all of them together
+    * @return for every query its result, or the exception it failed with
+    * @throws java.lang.InterruptedException when the caller is interrupted;
+    *         the queries are cancelled
+    */
+   public static List<Object> join (List<? extends Future<?>> queries, long timeoutMs) throws InterruptedException {
+      long deadline = System.nanoTime () + timeoutMs * 1000000L;
+      List<Object> results = new ArrayList<Object> (queries.size ());
+      try{
+         for (Future<?> query : queries) {
+            try{
+               results.add (query.get (Math.max (0, deadline - System.nanoTime ()), TimeUnit.NANOSECONDS));
+            }catch (ExecutionException e){
+               results.add (e.getCause ());
+            }catch (TimeoutException e){
+               query.cancel (true);
+               results.add (new TimeoutException ("Cancelled after " + timeoutMs + " ms"));
+            }catch (CancellationException e){
+               results.add (e);
+            }//end try
+         }//end for
+      }catch (InterruptedException e){
+         for (Future<?> query : queries) query.cancel (true);
+         throw e;
+      }//end try
+      return results;
+   }//end join
+
+   /**
+    * Cancels the queued and running queries and stops the threads.
+    */
+   public void close () {
+      for (Runnable task : this._executor.shutdownNow ()) {
+         ((Future<?>) task).cancel (false);
+      }//end for
+      for (Query<?> query : this._running) query.cancel (true);
+   }//end close
+
+}//end AsyncQueries
@@ -0,0 +1,441 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class imports files of new Customer, Booking or Repair rows, e.g.
+ * group bookings or the feeds of booking sites, far faster than entering
+ * them one at a time through the menu.
+ *
+ * The files have the columns of the table in create.sql order, like the
+ * data/*.csv files and Exporter's output, in COPY text format: \N is NULL
+ * and a backslash escapes a comma within a field.  An empty id column gets a new id from the table's
+ * sequence (migration 006).  Every row is checked on the client first;
+ * the rows that pass are sent as multi-row INSERTs of
+ * dbproject.import.batchRows rows, committed every dbproject.import.chunkRows
+ * rows.  When a chunk fails, e.g. on a booked room or a missing customer,
+ * it is rolled back and sent again one row at a time behind savepoints, so
+ * only the offending rows are rejected.  Rejected rows are written to
+ * <file>.rejected with their line number and reason.
+ *
+ * The rows are written to the database the importer is given, so it
+ * refuses to run once ShardMap puts hotels on other shards.
+ *
+ * Settings:
+ *   -Ddbproject.import.batchRows=500    rows per INSERT statement
+ *   -Ddbproject.import.chunkRows=5000   rows per transaction
+ *
+ */
+public class BatchImporter {
+
+   static final int BATCH_ROWS = Integer.getInteger("dbproject.import.batchRows", 500);
+   static final int CHUNK_ROWS = Integer.getInteger("dbproject.import.chunkRows", 5000);
+
+   /**
+    * The checks and the binding of one column.
+    */
+   enum Kind { ID, NUMBER, PHONE, NAME, TEXT, DATE, GENDER, PRICE, REPAIR_TYPE }
+
+   /**
+    * A table that can be imported.
+    */
+   static class Target {
+      final String table;
+      final String sequence;
+      final Kind[] columns;
+      // the placeholders of one row of the VALUES list.
+      final String row;
+
+      Target (String table, String sequence, String row, Kind... columns) {
+         this.table = table;
+         this.sequence = sequence;
+         this.row = row;
+         this.columns = columns;
+      }//end Target
+   }//end Target
+
+   static final Target CUSTOMER = new Target ("Customer", DBProject.CUSTOMER_IDS,
+      "(?, ?, ?, ?, CAST(? AS NUMERIC), CAST(? AS DATE), CAST(? AS GenderType))",
+      Kind.ID, Kind.NAME, Kind.NAME, Kind.TEXT, Kind.PHONE, Kind.DATE, Kind.GENDER);
+   static final Target BOOKING = new Target ("Booking", DBProject.BOOKING_IDS,
+      "(?, ?, ?, ?, CAST(? AS DATE), ?, ?)",
+      Kind.ID, Kind.NUMBER, Kind.NUMBER, Kind.NUMBER, Kind.DATE, Kind.NUMBER, Kind.PRICE);
+   static final Target REPAIR = new Target ("Repair", DBProject.REPAIR_IDS,
+      "(?, ?, ?, ?, CAST(? AS DATE), ?, ?)",
+      Kind.ID, Kind.NUMBER, Kind.NUMBER, Kind.NUMBER, Kind.DATE, Kind.TEXT, Kind.REPAIR_TYPE);
+
+   private static final List<String> GENDERS = Arrays.asList ("Male", "Female", "Other");
+   // Booking.price is Numeric(6,2).
+   private static final BigDecimal MAX_PRICE = new BigDecimal ("9999.99");
+
+   /**
+    * A row that passed the client side checks.
+    */
+   static class Row {
+      final int line;
+      final String text;
+      final Object[] values;
+      // whether the id was reserved from the sequence rather than given.
+      final boolean allocated;
+
+      Row (int line, String text, Object[] values, boolean allocated) {
+         this.line = line;
+         this.text = text;
+         this.values = values;
+         this.allocated = allocated;
+      }//end Row
+   }//end Row
+
+   /**
+    * The counts of one import.
+    */
+   public static class Result {
+      public long rows = 0;
+      public long inserted = 0;
+      public long rejected = 0;
+      public long nanos = 0;
+
+      public String toString () {
+         return String.format ("%d rows, %d inserted, %d rejected in %.1f ms (%.0f rows/s)", this.rows,
+                               this.inserted, this.rejected, this.nanos / 1e6,
+                               this.nanos == 0 ? 0.0 : this.inserted * 1e9 / this.nanos);
+      }//end toString
+   }//end Result
+
+   private final DBProject _esql;
+   private final Connection _conn;
+   private final SimpleDateFormat _dates = new SimpleDateFormat ("yyyy-MM-dd");
+
+   /**
+    * Creates an importer
+    *
+    * @param esql the database new ids are reserved from
+    * @param conn a connection of its own the rows are inserted through
+    */
+   public BatchImporter (DBProject esql, Connection conn) {
+      this._esql = esql;
+      this._conn = conn;
+      this._dates.setLenient (false);
+   }//end BatchImporter
+
+   /**
+    * Returns the target of a table name, or null if it cannot be imported.
+    */
+   static Target target (String table) {
+      for (Target target : new Target[] {CUSTOMER, BOOKING, REPAIR}) {
+         if (target.table.equalsIgnoreCase (table)) return target;
+      }//end for
+      return null;
+   }//end target
+
+   /**
+    * Imports a file into a table
+    *
+    * @param target the table
+    * @param csv the rows, one per line
+    * @param rejected where the rejected rows are written
+    * @return the counts of the import
+    * @throws java.sql.SQLException when the database fails other than on a row,
+    *         or has hotels on other shards
+    * @throws java.io.IOException when a file cannot be read or written
+    */
+   public Result importFile (Target target, File csv, File rejected) throws SQLException, IOException {
+      ShardMap.refuseSharded (this._conn, "import");
+      Result result = new Result ();
+      long start = System.nanoTime ();
+      BufferedReader in = new BufferedReader (new InputStreamReader (new FileInputStream (csv), "UTF-8"), 1 << 16);
+      PrintWriter rejects = new PrintWriter (new FileWriter (rejected));
+      boolean autoCommit = this._conn.getAutoCommit ();
+      this._conn.setAutoCommit (false);
+      try{
+         List<Row> chunk = new ArrayList<Row> (Math.max (1, CHUNK_ROWS));
+         long maxID = -1;
+         int chunkNo = 0;
+         int lineNo = 0;
+         String line;
+         while (true) {
+            line = in.readLine ();
+            if (line != null) {
+               ++lineNo;
+               if (line.trim ().isEmpty ()) continue;
+               ++result.rows;
+               try{
+                  Row row = parse (target, lineNo, line);
+                  if (!row.allocated) maxID = Math.max (maxID, (Long) row.values[0]);
+                  chunk.add (row);
+               }catch (IllegalArgumentException e){
+                  reject (rejects, lineNo, line, e.getMessage ());
+                  ++result.rejected;
+               }//end try
+            }//end if
+            if (chunk.size () >= Math.max (1, CHUNK_ROWS) || (line == null && !chunk.isEmpty ())) {
+               long t = System.nanoTime ();
+               int inserted = insertChunk (target, chunk, rejects);
+               result.inserted += inserted;
+               result.rejected += chunk.size () - inserted;
+               System.out.printf ("   chunk %5d %8d rows %8d inserted %6d rejected in %8.1f ms%n", ++chunkNo,
+                                  chunk.size (), inserted, chunk.size () - inserted, (System.nanoTime () - t) / 1e6);
+               chunk.clear ();
+            }//end if
+            if (line == null) break;
+         }//end while
+         if (maxID >= 0) skipPast (target, maxID);
+      }finally{
+         this._conn.setAutoCommit (autoCommit);
+         rejects.close ();
+         in.close ();
+      }//end try
+      result.nanos = System.nanoTime () - start;
+      return result;
+   }//end importFile
+
+   /**
+    * Checks a line and converts its fields to the values bound to the
+    * INSERT.
+    *
+    * @throws java.lang.IllegalArgumentException naming the first bad field
+    */
+   Row parse (Target target, int lineNo, String line) throws SQLException {
+      String[] fields = BulkLoader.fields (line);
+      if (fields.length != target.columns.length) {
+         throw new IllegalArgumentException ("expected " + target.columns.length + " fields, found " + fields.length);
+      }//end if
+      Object[] values = new Object[fields.length];
+      for (int i = 0; i < fields.length; ++i) {
+         String field = fields[i] == null ? null : BulkLoader.normalize (fields[i].trim ());
+         try{
+            values[i] = value (target.columns[i], field);
+         }catch (IllegalArgumentException e){
+            throw new IllegalArgumentException ("field " + (i + 1) + " '" + field + "' " + e.getMessage ());
+         }//end try
+      }//end for
+      // reserved last, so rows failing the checks use up no ids.
+      boolean allocated = values[0] == null;
+      if (allocated) values[0] = this._esql.ids (target.sequence).next ();
+      return new Row (lineNo, line, values, allocated);
+   }//end parse
+
+   private Object value (Kind kind, String field) {
+      if (field == null) {
+         // \N; a NULL id is reserved from the sequence like an empty one.
+         if (kind == Kind.ID || kind == Kind.TEXT) return null;
+         throw new IllegalArgumentException ("may not be NULL");
+      }//end if
+      switch (kind) {
+         case ID:
+            // an empty id is reserved from the sequence by parse.
+            if (field.isEmpty ()) return null;
+            return nonNegative (field);
+         case NUMBER:
+         case PHONE:
+            return nonNegative (field);
+         case NAME:
+            if (field.isEmpty () || field.length () > 30) throw new IllegalArgumentException ("is not a name of 1 to 30 characters");
+            return field;
+         case TEXT:
+            return field;
+         case DATE:
+            try{
+               this._dates.parse (field);
+            }catch (ParseException e){
+               throw new IllegalArgumentException ("is not a date");
+            }//end try
+            return field;
+         case GENDER:
+            if (!GENDERS.contains (field)) throw new IllegalArgumentException ("is not one of " + GENDERS);
+            return field;
+         case PRICE:
+            BigDecimal price;
+            try{
+               price = new BigDecimal (field);
+            }catch (NumberFormatException e){
+               throw new IllegalArgumentException ("is not a price");
+            }//end try
+            if (price.signum () < 0 || price.compareTo (MAX_PRICE) > 0) throw new IllegalArgumentException ("is out of range");
+            return price;
+         case REPAIR_TYPE:
+            if (field.length () > 10) throw new IllegalArgumentException ("is longer than 10 characters");
+            return field;
+         default:
+            throw new IllegalStateException (kind.toString ());
+      }//end switch
+   }//end value
+
+   private static Long nonNegative (String field) {
+      try{
+         long value = Long.parseLong (field);
+         if (value >= 0) return value;
+      }catch (NumberFormatException e){
+         // reported below.
+      }//end try
+      throw new IllegalArgumentException ("is not a non-negative whole number");
+   }//end nonNegative
+
+   /**
+    * Inserts a chunk of rows in one transaction, or, when that fails, as
+    * many of them as possible one at a time.
+    *
+    * @return the number of rows inserted
+    */
+   private int insertChunk (Target target, List<Row> chunk, PrintWriter rejects) throws SQLException {
+      int batchRows = Math.max (1, BATCH_ROWS);
+      PreparedStatement batch = null;
+      try{
+         for (int from = 0; from < chunk.size (); from += batchRows) {
+            List<Row> rows = chunk.subList (from, Math.min (chunk.size (), from + batchRows));
+            // all but the last statement of a chunk have the same size.
+            if (batch == null || rows.size () != batchRows) {
+               if (batch != null) batch.close ();
+               batch = this._conn.prepareStatement (insert (target, rows.size ()));
+            }//end if
+            DBProject.bind (batch, values (rows));
+            batch.executeUpdate ();
+         }//end for
+         this._conn.commit ();
+         return chunk.size ();
+      }catch (SQLException e){
+         this._conn.rollback ();
+      }finally{
+         if (batch != null) batch.close ();
+      }//end try
+      return insertRows (target, chunk, rejects);
+   }//end insertChunk
+
+   /**
+    * Inserts the rows of a failed chunk one at a time, each behind a
+    * savepoint so a failing row does not abort the others.
+    */
+   private int insertRows (Target target, List<Row> chunk, PrintWriter rejects) throws SQLException {
+      int inserted = 0;
+      Statement savepoints = this._conn.createStatement ();
+      PreparedStatement single = this._conn.prepareStatement (insert (target, 1));
+      try{
+         for (Row row : chunk) {
+            savepoints.execute ("SAVEPOINT import_row");
+            try{
+               DBProject.bind (single, values (Arrays.asList (row)));
+               single.executeUpdate ();
+               savepoints.execute ("RELEASE SAVEPOINT import_row");
+               ++inserted;
+            }catch (SQLException e){
+               savepoints.execute ("ROLLBACK TO SAVEPOINT import_row");
+               reject (rejects, row.line, row.text, e.getMessage ());
+            }//end try
+         }//end for
+         this._conn.commit ();
+         return inserted;
+      }catch (SQLException e){
+         this._conn.rollback ();
+         throw e;
+      }finally{
+         single.close ();
+         savepoints.close ();
+      }//end try
+   }//end insertRows
+
+   private static String insert (Target target, int rows) {
+      StringBuilder sql = new StringBuilder ("INSERT INTO ").append (target.table).append (" VALUES ");
+      for (int i = 0; i < rows; ++i) {
+         if (i > 0) sql.append (", ");
+         sql.append (target.row);
+      }//end for
+      return sql.toString ();
+   }//end insert
+
+   private static Object[] values (List<Row> rows) {
+      int width = rows.get (0).values.length;
+      Object[] values = new Object[rows.size () * width];
+      for (int i = 0; i < rows.size (); ++i) {
+         System.arraycopy (rows.get (i).values, 0, values, i * width, width);
+      }//end for
+      return values;
+   }//end values
+
+   /**
+    * Moves the sequence past the largest id given in the file, so the ids
+    * it hands out later are not taken.
+    */
+   private void skipPast (Target target, long maxID) throws SQLException {
+      Statement stmt = this._conn.createStatement ();
+      try{
+         stmt.executeQuery ("SELECT setval('" + target.sequence + "', GREATEST(last_value, " + maxID + ")) FROM " +
+                            target.sequence).close ();
+         this._conn.commit ();
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end skipPast
+
+   private static void reject (PrintWriter rejects, int lineNo, String line, String reason) {
+      rejects.println ("line " + lineNo + ": " + reason + ": " + line);
+   }//end reject
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <Customer|Booking|Repair> <csv file>
+    */
+   public static void main (String[] args) {
+      if (args.length != 5 || target (args[3]) == null) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BatchImporter.class.getName () +
+            " <dbname> <port> <user> <Customer|Booking|Repair> <csv file>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      Connection conn = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         esql = new DBProject (url, args[2], "", 1);
+         conn = DriverManager.getConnection (url, args[2], "");
+         File csv = new File (args[4]);
+         File rejected = new File (csv.getPath () + ".rejected");
+         Result result = new BatchImporter (esql, conn).importFile (target (args[3]), csv, rejected);
+         System.out.println (target (args[3]).table + ": " + result);
+         if (result.rejected > 0) System.out.println ("Rejected rows written to " + rejected);
+      }catch (Exception e){
+         System.err.println ("Error - Import failed: " + e.getMessage ());
+         System.exit(-1);
+      }finally{
+         try{
+            if (conn != null) conn.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end BatchImporter
@@ -0,0 +1,414 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class benchmarks the 16 menu operations.  Every operation is called
+ * through Operations with inputs sampled from the database, so no keyboard
+ * is involved.  After a warm-up period each operation is run back to back
+ * for a fixed time and its throughput and latency percentiles are reported.
+ *
+ * Given one or more data folders, for example the output of the data
+ * generator at several scale factors, the database is reloaded from each
+ * folder and migrated before it is measured; without any the database is
+ * measured as it is.  Rows inserted by the write operations are deleted
+ * again after each measurement.
+ *
+ * The results are printed and appended as CSV to dbproject.bench.out.
+ *
+ */
+public class Benchmark {
+
+   static final long WARMUP_MS = Long.getLong("dbproject.bench.warmupMs", 2000L);
+   static final long MEASURE_MS = Long.getLong("dbproject.bench.measureMs", 10000L);
+   // distinct input rows the read operations cycle through.
+   static final int SAMPLES = Integer.getInteger("dbproject.bench.samples", 100);
+   static final int K = Integer.getInteger("dbproject.bench.k", 10);
+   static final String OUT = System.getProperty("dbproject.bench.out", "benchmark-results.csv");
+
+   static final String CSV_HEADER = "scale,operation,samples,errors,throughput_ops_s,p50_us,p99_us,max_us";
+
+   /**
+    * One call of a menu operation.
+    */
+   interface Operation {
+      /**
+       * @param ops the operations of the calling client
+       * @param i the number of the call, used to pick inputs and new ids;
+       *        every call must use its own
+       */
+      void run (Operations ops, int i) throws Exception;
+   }//end Operation
+
+   /**
+    * The latencies of one operation.
+    */
+   static class Result {
+      final String operation;
+      final LatencyHistogram latencies = new LatencyHistogram ();
+      int errors = 0;
+      long elapsedNanos = 0;
+
+      Result (String operation) {
+         this.operation = operation;
+      }//end Result
+
+      double throughput () {
+         return this.elapsedNanos == 0 ? 0 : this.latencies.count () * 1e9 / this.elapsedNanos;
+      }//end throughput
+
+      /**
+       * Returns the latency below which the given fraction of calls
+       * finished, in microseconds.
+       */
+      double percentile (double p) {
+         return this.latencies.percentile (p) / 1e3;
+      }//end percentile
+   }//end Result
+
+   private final DBProject _esql;
+
+   // inputs of the read operations, each row sampled from the database.
+   private List<List<String>> _bookings;
+   private List<List<String>> _repairs;
+   private List<List<String>> _assigned;
+
+   // first ids of the rows inserted by the write operations.
+   private int _roomNo;
+   // the first ids of the rows inserted, at or below every id allocated after prepare.
+   private long _customerID, _cmpID, _rID, _bID, _reqID;
+
+   /**
+    * Creates a benchmark of the given database
+    *
+    * @param esql the database, with its in-memory indexes already loaded
+    */
+   public Benchmark (DBProject esql) {
+      this._esql = esql;
+   }//end Benchmark
+
+   /**
+    * Samples the inputs of the operations and notes the first ids of the
+    * rows the write operations insert.
+    */
+   void prepare () throws SQLException {
+      this._bookings = sample ("SELECT b.customer, b.hotelID, b.roomNo, b.bookingDate, b.bookingDate + 90, " +
+                               "c.fName, c.lName FROM Booking b, Customer c " +
+                               "WHERE c.customerID = b.customer AND b.bID > 0 ORDER BY random() LIMIT ?");
+      this._repairs = sample ("SELECT r.rID, r.mCompany, m.name, r.hotelID, r.roomNo FROM Repair r, MaintenanceCompany m " +
+                              "WHERE m.cmpID = r.mCompany AND r.rID > 0 ORDER BY random() LIMIT ?");
+      this._assigned = sample ("SELECT a.staffID, a.hotelID, a.roomNo FROM Assigned a " +
+                               "WHERE a.asgID > 0 ORDER BY random() LIMIT ?");
+
+      this._roomNo = next ("SELECT MAX(roomNo) FROM Room");
+      this._customerID = this._esql.ids (DBProject.CUSTOMER_IDS).next ();
+      this._cmpID = this._esql.ids (DBProject.COMPANY_IDS).next ();
+      this._rID = this._esql.ids (DBProject.REPAIR_IDS).next ();
+      this._bID = this._esql.ids (DBProject.BOOKING_IDS).next ();
+      this._reqID = this._esql.ids (DBProject.REQUEST_IDS).next ();
+   }//end prepare
+
+   /**
+    * Returns the 16 operations in menu order.  They only read the sampled
+    * inputs, so any number of threads can call them.
+    */
+   Map<String, Operation> operations () {
+      Map<String, Operation> ops = new LinkedHashMap<String, Operation> ();
+      ops.put ("addCustomer", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.addCustomer ("Bench", "Mark", "Benchmark", "0", "2000-01-01", "Other");
+         }
+      });
+      ops.put ("addRoom", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.addRoom (intAt (_bookings, i, 1), _roomNo + i, "Suite");
+         }
+      });
+      ops.put ("addMaintenanceCompany", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.addMaintenanceCompany ("Benchmark", "Benchmark", "TRUE");
+         }
+      });
+      ops.put ("addRepair", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            List<String> repair = row (_repairs, i);
+            ops.addRepair (Integer.parseInt (repair.get (3)), Integer.parseInt (repair.get (4)),
+                            Integer.parseInt (repair.get (1)), "2000-01-01", "Benchmark", "Small");
+         }
+      });
+      ops.put ("bookRoom", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            List<String> booking = row (_bookings, i);
+            // a new day per call, so the room is never booked twice on a day.
+            ops.bookRoom (Integer.parseInt (booking.get (0)), Integer.parseInt (booking.get (1)),
+                           Integer.parseInt (booking.get (2)), day (i), 1, 100);
+         }
+      });
+      ops.put ("assignHouseCleaningToRoom", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            // reassigns the staff member to their current room.
+            List<String> assigned = row (_assigned, i);
+            ops.assignHouseCleaningToRoom (Integer.parseInt (assigned.get (0)), Integer.parseInt (assigned.get (1)),
+                                            Integer.parseInt (assigned.get (2)));
+         }
+      });
+      ops.put ("repairRequest", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            List<String> repair = row (_repairs, i);
+            ops.repairRequest (Integer.parseInt (repair.get (3)), Integer.parseInt (repair.get (0)),
+                                "2000-01-01", "Benchmark");
+         }
+      });
+      ops.put ("numberOfAvailableRooms", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.numberOfAvailableRooms (intAt (_bookings, i, 1), row (_bookings, i).get (3));
+         }
+      });
+      ops.put ("numberOfBookedRooms", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.numberOfBookedRooms (intAt (_bookings, i, 1));
+         }
+      });
+      ops.put ("listHotelRoomBookingsForAWeek", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.listHotelRoomBookingsForAWeek (intAt (_bookings, i, 1), row (_bookings, i).get (3));
+         }
+      });
+      ops.put ("topKHighestRoomPriceForADateRange", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            List<String> booking = row (_bookings, i);
+            ops.topKHighestRoomPriceForADateRange (booking.get (3), booking.get (4), K);
+         }
+      });
+      ops.put ("topKHighestPriceBookingsForACustomer", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            List<String> booking = row (_bookings, i);
+            ops.topKHighestPriceBookingsForACustomer (booking.get (5).trim (), booking.get (6).trim (), K);
+         }
+      });
+      ops.put ("totalCostForCustomer", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            List<String> booking = row (_bookings, i);
+            ops.totalCostForCustomer (Integer.parseInt (booking.get (1)), booking.get (5).trim (),
+                                       booking.get (6).trim (), booking.get (3), booking.get (4));
+         }
+      });
+      ops.put ("listRepairsMade", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.listRepairsMade (row (_repairs, i).get (2).trim ());
+         }
+      });
+      ops.put ("topKMaintenanceCompany", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            ops.topKMaintenanceCompany (K);
+         }
+      });
+      ops.put ("numberOfRepairsForEachRoomPerYear", new Operation () {
+         public void run (Operations ops, int i) throws Exception {
+            List<String> repair = row (_repairs, i);
+            ops.numberOfRepairsForEachRoomPerYear (Integer.parseInt (repair.get (3)), Integer.parseInt (repair.get (4)));
+         }
+      });
+      return ops;
+   }//end operations
+
+   /**
+    * Runs every operation for the warm-up time and then for the measurement
+    * time.
+    *
+    * @return the measurements in menu order
+    */
+   public List<Result> run () throws SQLException {
+      prepare ();
+      List<Result> results = new ArrayList<Result> ();
+      try{
+         for (Map.Entry<String, Operation> entry : operations ().entrySet ()) {
+            System.out.print ("Benchmarking " + entry.getKey () + "...");
+            // measured calls go on from the warm-up ones, so inserted ids stay unique.
+            int calls = measure (entry.getValue (), new Result (entry.getKey ()), WARMUP_MS, 0);
+            Result result = new Result (entry.getKey ());
+            measure (entry.getValue (), result, MEASURE_MS, calls);
+            System.out.printf ("Done (%d calls, %d errors)%n", result.latencies.count (), result.errors);
+            results.add (result);
+         }//end for
+      }finally{
+         cleanup ();
+      }//end try
+      return results;
+   }//end run
+
+   /**
+    * Calls one operation back to back for the given time.
+    *
+    * @param first the number of the first call
+    * @return the number of calls made
+    */
+   private int measure (Operation op, Result result, long millis, int first) {
+      Operations ops = this._esql.operations ();
+      long start = System.nanoTime ();
+      long deadline = start + millis * 1000000L;
+      int i = first;
+      long now = start;
+      while (now < deadline) {
+         long before = now;
+         try{
+            op.run (ops, i);
+            now = System.nanoTime ();
+            result.latencies.record (now - before);
+         }catch (Exception e){
+            now = System.nanoTime ();
+            ++result.errors;
+         }//end try
+         ++i;
+      }//end while
+      result.elapsedNanos = now - start;
+      return i - first;
+   }//end measure
+
+   /**
+    * Deletes the rows inserted by the write operations.
+    */
+   void cleanup () throws SQLException {
+      this._esql.executeUpdate ("DELETE FROM Request WHERE reqID >= ?", this._reqID);
+      this._esql.executeUpdate ("DELETE FROM Repair WHERE rID >= ?", this._rID);
+      this._esql.executeUpdate ("DELETE FROM Booking WHERE bID >= ?", this._bID);
+      this._esql.executeUpdate ("DELETE FROM Room WHERE roomNo >= ?", this._roomNo);
+      this._esql.executeUpdate ("DELETE FROM Customer WHERE customerID >= ?", this._customerID);
+      this._esql.executeUpdate ("DELETE FROM MaintenanceCompany WHERE cmpID >= ?", this._cmpID);
+   }//end cleanup
+
+   private List<List<String>> sample (String query) throws SQLException {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult (query, SAMPLES);
+      if (rows.isEmpty ()) throw new SQLException ("No sample rows for the benchmark: " + query);
+      return rows;
+   }//end sample
+
+   private int next (String query) throws SQLException {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult (query);
+      String max = rows.isEmpty () ? null : rows.get (0).get (0);
+      return max == null ? 1 : Integer.parseInt (max.trim ()) + 1;
+   }//end next
+
+   private static List<String> row (List<List<String>> rows, int i) {
+      return rows.get (i % rows.size ());
+   }//end row
+
+   private static int intAt (List<List<String>> rows, int i, int column) {
+      return Integer.parseInt (row (rows, i).get (column).trim ());
+   }//end intAt
+
+   /**
+    * Returns the i-th day after 2100-01-01, a date no loaded booking uses.
+    */
+   private static String day (int i) {
+      int[] date = OccupancyIndex.civilDate (OccupancyIndex.epochDay ("2100-01-01") + i);
+      return String.format ("%04d-%02d-%02d", date[0], date[1], date[2]);
+   }//end day
+
+   /**
+    * Prints the results and appends them to the CSV output.
+    */
+   static void report (String scale, List<Result> results) throws IOException {
+      System.out.printf ("%n%-38s %10s %10s %12s %12s %12s%n", "operation (" + scale + ")",
+                         "calls", "errors", "ops/s", "p50 us", "p99 us");
+      File out = new File (OUT);
+      boolean header = !out.exists () || out.length () == 0;
+      PrintWriter csv = new PrintWriter (new FileWriter (out, true));
+      try{
+         if (header) csv.println (CSV_HEADER);
+         for (Result r : results) {
+            double p50 = r.percentile (0.50);
+            double p99 = r.percentile (0.99);
+            double max = r.percentile (1.0);
+            System.out.printf ("%-38s %10d %10d %12.1f %12.1f %12.1f%n", r.operation, r.latencies.count (), r.errors,
+                               r.throughput (), p50, p99);
+            csv.printf ("%s,%s,%d,%d,%.3f,%.1f,%.1f,%.1f%n", scale, r.operation, r.latencies.count (), r.errors,
+                        r.throughput (), p50, p99, max);
+         }//end for
+      }finally{
+         csv.close ();
+      }//end try
+   }//end report
+
+   /**
+    * Reloads the database from a data folder and brings it up to the latest
+    * schema.
+    */
+   static void reload (String url, String user, File dataDir) throws Exception {
+      new BulkLoader (url, user, "", new File ("../sql/create.sql"), dataDir).run ();
+      Connection conn = DriverManager.getConnection (url, user, "");
+      try{
+         Migrator migrator = new Migrator (conn, new File ("../sql/migrations"));
+         for (File migration : migrator.pending ()) migrator.apply (migration);
+      }finally{
+         conn.close ();
+      }//end try
+   }//end reload
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [data folder ...]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Benchmark.class.getName () +
+            " <dbname> <port> <user> [data folder ...]");
+         return;
+      }//end if
+
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         List<String> scales = new ArrayList<String> (Arrays.asList (args).subList (3, args.length));
+         if (scales.isEmpty ()) scales.add (null);
+
+         for (String folder : scales) {
+            String scale = folder == null ? "current" : new File (folder).getName ();
+            if (folder != null) {
+               System.out.println ("Loading " + folder + "...");
+               reload (url, args[2], new File (folder));
+            }//end if
+
+            DBProject esql = new DBProject (args[0], args[1], args[2], "");
+            try{
+               if (DBProject.USE_OCCUPANCY_INDEX) esql.loadOccupancyIndex ();
+               if (DBProject.USE_REPAIR_LEADERBOARD) esql.loadRepairLeaderboard ();
+               report (scale, new Benchmark (esql).run ());
+            }finally{
+               esql.cleanup ();
+            }//end try
+         }//end for
+         System.out.println ("\nResults appended to " + OUT);
+      }catch (Exception e){
+         System.err.println ("Error - Benchmark failed: " + e.getMessage ());
+         System.exit(-1);
+      }//end try
+   }//end main
+
+}//end Benchmark
@@ -0,0 +1,524 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class keeps a column-wise copy of Booking in memory, so the revenue
+ * questions over it, such as what a customer spent at a hotel in a date
+ * range or what a hotel earned in one, are answered without a query.
+ *
+ * The bookings are kept in (hotelID, bookingDate) order in four int
+ * columns: customer, roomNo, the date as an epoch day and the price in
+ * cents.  The hotelID is not stored per booking; each hotel owns one run of
+ * rows.  A fifth int column lists the rows in (customer, row) order, so the
+ * bookings of a customer at a hotel are one run of it too.  Every bound is
+ * a binary search, and hotel sums come from a prefix sum kept every 64
+ * rows, so a booking costs 20 bytes plus an eighth.
+ *
+ * The snapshot is built from Booking when the program starts.  Bookings
+ * made by this process are added to a small unsorted delta that is merged
+ * into the columns on a background thread once it holds
+ * dbproject.snapshot.mergeRows rows.  Bookings made by other processes,
+ * other desks or BatchImporter, only show up when the snapshot is rebuilt
+ * from Booking, every dbproject.snapshot.rebuildSec seconds on a daemon
+ * thread; until then the sums leave them out.  A rebuild holds a second
+ * copy of the columns while it reads.
+ *
+ * bookRoom holds bookingLock() from its INSERT until addBooking, and a
+ * rebuild starts its read while no booking holds it, so every booking of
+ * this process is either in the read or kept in the delta, never both.
+ * A merge and a rebuild never run at once; each waits for the other, so
+ * neither drops the delta bookings the other has not read.
+ *
+ */
+public class BookingSnapshot {
+
+   // bookings kept in the delta before they are merged into the columns.
+   static final int MERGE_ROWS = Integer.getInteger("dbproject.snapshot.mergeRows", 100000);
+
+   // seconds between rebuilds from Booking; 0 only builds it at startup.
+   static final long REBUILD_SEC = Long.getLong("dbproject.snapshot.rebuildSec", 300L);
+
+   // rows per stored prefix sum.
+   private static final int BLOCK_SHIFT = 6;
+
+   static final String COUNT_SQL = "SELECT COUNT(*) FROM Booking";
+   static final String LOAD_SQL =
+      "SELECT b.hotelID, b.customer, b.roomNo, b.bookingDate - DATE '1970-01-01', CAST(ROUND(b.price * 100) AS INTEGER) " +
+      "FROM Booking b ORDER BY b.hotelID, b.bookingDate";
+
+   /**
+    * A booking not yet merged into the columns.
+    */
+   private static class Booking {
+      final int customer, hotelID, roomNo, day, cents;
+      // the number of bookings added before this one.
+      final long seq;
+
+      Booking (long seq, int customer, int hotelID, int roomNo, int day, int cents) {
+         this.seq = seq;
+         this.customer = customer;
+         this.hotelID = hotelID;
+         this.roomNo = roomNo;
+         this.day = day;
+         this.cents = cents;
+      }//end Booking
+   }//end Booking
+
+   /**
+    * Bookings in (hotelID, day) order.  Never changed once built.
+    */
+   private static class Columns {
+      // the hotels in ascending order, and where the rows of each start; hotelStarts[h + 1] ends them.
+      final int[] hotelIDs;
+      final int[] hotelStarts;
+      final int[] customer;
+      final int[] roomNo;
+      final int[] day;
+      final int[] cents;
+      final int size;
+      // the rows in (customer, row) order.
+      final int[] byCustomer;
+      // blockSums[b] is the sum of cents[0 .. b * 64).
+      final long[] blockSums;
+
+      Columns (int[] hotelIDs, int[] hotelStarts, int[] customer, int[] roomNo, int[] day, int[] cents, int size) {
+         this.hotelIDs = hotelIDs;
+         this.hotelStarts = hotelStarts;
+         this.customer = customer;
+         this.roomNo = roomNo;
+         this.day = day;
+         this.cents = cents;
+         this.size = size;
+
+         long[] keys = new long[size];
+         for (int i = 0; i < size; ++i) keys[i] = ((long) customer[i] << 32) | i;
+         Arrays.sort (keys);
+         this.byCustomer = new int[size];
+         for (int i = 0; i < size; ++i) this.byCustomer[i] = (int) keys[i];
+
+         this.blockSums = new long[(size >> BLOCK_SHIFT) + 1];
+         long sum = 0;
+         for (int i = 0; i < size; ++i) {
+            if ((i & ((1 << BLOCK_SHIFT) - 1)) == 0) this.blockSums[i >> BLOCK_SHIFT] = sum;
+            sum += cents[i];
+         }//end for
+         if ((size & ((1 << BLOCK_SHIFT) - 1)) == 0) this.blockSums[size >> BLOCK_SHIFT] = sum;
+      }//end Columns
+
+      /**
+       * Returns the rows [from, to) of a hotel dated from firstDay to
+       * lastDay, or null if the hotel has none.
+       */
+      int[] rows (int hotelID, int firstDay, int lastDay) {
+         int h = Arrays.binarySearch (this.hotelIDs, hotelID);
+         if (h < 0) return null;
+         int start = this.hotelStarts[h], end = this.hotelStarts[h + 1];
+         return new int[] { firstRow (this.day, start, end, firstDay), firstRow (this.day, start, end, lastDay + 1) };
+      }//end rows
+
+      /**
+       * Returns the sum of cents[0 .. row).
+       */
+      long prefix (int row) {
+         long sum = this.blockSums[row >> BLOCK_SHIFT];
+         for (int i = row & ~((1 << BLOCK_SHIFT) - 1); i < row; ++i) sum += this.cents[i];
+         return sum;
+      }//end prefix
+
+      /**
+       * Returns the first position of byCustomer at or after (customer, row).
+       */
+      int firstByCustomer (int customer, int row) {
+         int lo = 0, hi = this.size;
+         while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int r = this.byCustomer[mid];
+            int c = this.customer[r];
+            if (c < customer || (c == customer && r < row)) lo = mid + 1; else hi = mid;
+         }//end while
+         return lo;
+      }//end firstByCustomer
+
+      long bytes () {
+         return 4L * (this.customer.length + this.roomNo.length + this.day.length + this.cents.length + this.byCustomer.length)
+              + 8L * this.blockSums.length + 4L * (this.hotelIDs.length + this.hotelStarts.length);
+      }//end bytes
+   }//end Columns
+
+   /**
+    * Appends bookings in (hotelID, day) order and builds Columns of them.
+    */
+   private static class Builder {
+      private int[] _hotelIDs = new int[16];
+      private int[] _hotelStarts = new int[17];
+      private int _hotels = 0;
+      private int[] _customer, _roomNo, _day, _cents;
+      private int _size = 0;
+
+      Builder (int capacity) {
+         capacity = Math.max (16, capacity);
+         this._customer = new int[capacity];
+         this._roomNo = new int[capacity];
+         this._day = new int[capacity];
+         this._cents = new int[capacity];
+      }//end Builder
+
+      void add (int hotelID, int customer, int roomNo, int day, int cents) {
+         if (this._hotels == 0 || this._hotelIDs[this._hotels - 1] != hotelID) {
+            if (this._hotels + 1 >= this._hotelIDs.length) {
+               this._hotelIDs = Arrays.copyOf (this._hotelIDs, this._hotelIDs.length * 2);
+               this._hotelStarts = Arrays.copyOf (this._hotelStarts, this._hotelIDs.length + 1);
+            }//end if
+            this._hotelIDs[this._hotels] = hotelID;
+            this._hotelStarts[this._hotels++] = this._size;
+         }//end if
+         if (this._size == this._customer.length) {
+            int capacity = this._size + (this._size >> 1);
+            this._customer = Arrays.copyOf (this._customer, capacity);
+            this._roomNo = Arrays.copyOf (this._roomNo, capacity);
+            this._day = Arrays.copyOf (this._day, capacity);
+            this._cents = Arrays.copyOf (this._cents, capacity);
+         }//end if
+         this._customer[this._size] = customer;
+         this._roomNo[this._size] = roomNo;
+         this._day[this._size] = day;
+         this._cents[this._size] = cents;
+         ++this._size;
+      }//end add
+
+      Columns build () {
+         this._hotelStarts[this._hotels] = this._size;
+         return new Columns (Arrays.copyOf (this._hotelIDs, this._hotels), Arrays.copyOf (this._hotelStarts, this._hotels + 1),
+                             this._customer, this._roomNo, this._day, this._cents, this._size);
+      }//end build
+   }//end Builder
+
+   private static final Comparator<Booking> HOTEL_DAY_ORDER = new Comparator<Booking> () {
+      public int compare (Booking a, Booking b) {
+         if (a.hotelID != b.hotelID) return a.hotelID < b.hotelID ? -1 : 1;
+         return a.day < b.day ? -1 : a.day > b.day ? 1 : 0;
+      }
+   };
+
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock ();
+   private Columns _columns = new Builder (0).build ();
+   private List<Booking> _delta = new ArrayList<Booking> ();
+   // whether a merge is running; the delta is only merged by one thread at a time.
+   private boolean _merging = false;
+   // held by a merge and a rebuild for their whole run, so neither swaps in columns built from ones the other replaced.
+   private final Lock _swap = new ReentrantLock ();
+   private long _merges = 0;
+   private long _added = 0;
+
+   // held by bookings between their INSERT and addBooking, and by a rebuild until its read has started.
+   private final ReadWriteLock _gate = new ReentrantReadWriteLock ();
+   private Timer _rebuilder = null;
+   private long _rebuilds = 0;
+   private long _failedRebuilds = 0;
+
+   /**
+    * Replaces the contents of the snapshot with the current Booking table,
+    * read through a cursor in (hotelID, bookingDate) order.
+    *
+    * @param esql the database to read from
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public void rebuild (DBProject esql) throws SQLException {
+      this._swap.lock ();
+      try{
+         load (esql);
+      }finally{
+         this._swap.unlock ();
+      }//end try
+   }//end rebuild
+
+   /**
+    * Reads Booking and swaps in its columns and the delta bookings made
+    * since the read began.
+    */
+   private void load (DBProject esql) throws SQLException {
+      int count = Integer.parseInt (esql.executeQueryAndReturnResult (COUNT_SQL).get (0).get (0).trim ());
+      // room for the bookings made while the table is read.
+      final Builder builder = new Builder (count + (count >> 6));
+      final Lock gate = this._gate.writeLock ();
+      final boolean[] open = { false };
+      final long start;
+      gate.lock ();
+      try{
+         this._lock.readLock ().lock ();
+         try{
+            // the bookings added from here on committed after the read's snapshot.
+            start = this._added;
+         }finally{
+            this._lock.readLock ().unlock ();
+         }//end try
+         esql.executeQueryCursor (LOAD_SQL, DBProject.FETCH_SIZE, new DBProject.ResultHandler () {
+            public int handle (ResultSet rs) throws SQLException {
+               // the cursor's snapshot is taken, so bookings may go on.
+               if (!open[0]) {
+                  open[0] = true;
+                  gate.unlock ();
+               }//end if
+               int n = 0;
+               while (rs.next ()) {
+                  builder.add (rs.getInt (1), rs.getInt (2), rs.getInt (3), rs.getInt (4), rs.getInt (5));
+                  ++n;
+               }//end while
+               return n;
+            }
+         });
+      }finally{
+         if (!open[0]) gate.unlock ();
+      }//end try
+      Columns columns = builder.build ();
+
+      this._lock.writeLock ().lock ();
+      try{
+         List<Booking> delta = new ArrayList<Booking> ();
+         for (Booking b : this._delta) {
+            if (b.seq >= start) delta.add (b);
+         }//end for
+         this._columns = columns;
+         this._delta = delta;
+         ++this._rebuilds;
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end load
+
+   /**
+    * Rebuilds the snapshot every REBUILD_SEC seconds on a daemon thread.  A
+    * failed rebuild keeps the current contents until the next one.
+    *
+    * @param esql the database to read from
+    */
+   public synchronized void startRebuilds (final DBProject esql) {
+      if (REBUILD_SEC <= 0 || this._rebuilder != null) return;
+      this._rebuilder = new Timer ("BookingSnapshot-rebuild", true);
+      this._rebuilder.schedule (new TimerTask () {
+         public void run () {
+            try{
+               rebuild (esql);
+            }catch (SQLException e){
+               synchronized (BookingSnapshot.this) {
+                  ++_failedRebuilds;
+               }//end synchronized
+               System.err.println ("Error - Unable to rebuild booking snapshot: " + e.getMessage ());
+            }//end try
+         }
+      }, REBUILD_SEC * 1000L, REBUILD_SEC * 1000L);
+   }//end startRebuilds
+
+   /**
+    * Stops the rebuilds.
+    */
+   public synchronized void stop () {
+      if (this._rebuilder != null) this._rebuilder.cancel ();
+      this._rebuilder = null;
+   }//end stop
+
+   /**
+    * Returns the lock bookRoom holds from its INSERT until addBooking, so a
+    * rebuild does not start reading in between.
+    */
+   public Lock bookingLock () {
+      return this._gate.readLock ();
+   }//end bookingLock
+
+   /**
+    * Records a committed booking.
+    *
+    * @param day the booking date as days since 1970-01-01
+    * @param cents the price in cents
+    */
+   public void addBooking (int customer, int hotelID, int roomNo, int day, int cents) {
+      boolean merge;
+      this._lock.writeLock ().lock ();
+      try{
+         this._delta.add (new Booking (this._added++, customer, hotelID, roomNo, day, cents));
+         merge = !this._merging && this._delta.size () >= MERGE_ROWS;
+         if (merge) this._merging = true;
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+      if (merge) {
+         Thread merger = new Thread ("BookingSnapshot-merge") {
+            public void run () {
+               merge ();
+            }
+         };
+         merger.setDaemon (true);
+         merger.start ();
+      }//end if
+   }//end addBooking
+
+   /**
+    * Merges the delta into new columns, while queries keep reading the old
+    * ones and new bookings go to the delta.
+    */
+   void merge () {
+      Columns columns;
+      List<Booking> delta;
+      this._swap.lock ();
+      this._lock.readLock ().lock ();
+      try{
+         columns = this._columns;
+         delta = new ArrayList<Booking> (this._delta);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+
+      try{
+         Collections.sort (delta, HOTEL_DAY_ORDER);
+         Builder builder = new Builder (columns.size + delta.size ());
+         int d = 0;
+         for (int h = 0; h < columns.hotelIDs.length; ++h) {
+            int hotelID = columns.hotelIDs[h];
+            for (int i = columns.hotelStarts[h]; i < columns.hotelStarts[h + 1]; ++i) {
+               // the delta bookings before this row go first.
+               while (d < delta.size () && (delta.get (d).hotelID < hotelID ||
+                                            (delta.get (d).hotelID == hotelID && delta.get (d).day < columns.day[i]))) {
+                  add (builder, delta.get (d++));
+               }//end while
+               builder.add (hotelID, columns.customer[i], columns.roomNo[i], columns.day[i], columns.cents[i]);
+            }//end for
+         }//end for
+         while (d < delta.size ()) add (builder, delta.get (d++));
+         Columns merged = builder.build ();
+
+         this._lock.writeLock ().lock ();
+         try{
+            // bookings added since the copy stay in the delta.
+            this._columns = merged;
+            this._delta.subList (0, delta.size ()).clear ();
+            ++this._merges;
+         }finally{
+            this._lock.writeLock ().unlock ();
+         }//end try
+      }finally{
+         this._lock.writeLock ().lock ();
+         this._merging = false;
+         this._lock.writeLock ().unlock ();
+         this._swap.unlock ();
+      }//end try
+   }//end merge
+
+   private static void add (Builder builder, Booking b) {
+      builder.add (b.hotelID, b.customer, b.roomNo, b.day, b.cents);
+   }//end add
+
+   /**
+    * Returns what the given customers spent at a hotel from firstDay to
+    * lastDay, or null if they have no bookings there in the range.
+    *
+    * @param customers the customerIDs, e.g. of everyone with a name
+    * @return the total as a price with two decimals, like SUM(price)
+    */
+   public String totalCost (List<Integer> customers, int hotelID, int firstDay, int lastDay) {
+      this._lock.readLock ().lock ();
+      try{
+         long cents = 0;
+         int bookings = 0;
+         Columns columns = this._columns;
+         int[] rows = columns.rows (hotelID, firstDay, lastDay);
+         if (rows != null) {
+            for (int customer : customers) {
+               int from = columns.firstByCustomer (customer, rows[0]);
+               int to = columns.firstByCustomer (customer, rows[1]);
+               for (int j = from; j < to; ++j) cents += columns.cents[columns.byCustomer[j]];
+               bookings += to - from;
+            }//end for
+         }//end if
+         for (Booking b : this._delta) {
+            if (b.hotelID == hotelID && b.day >= firstDay && b.day <= lastDay && customers.contains (b.customer)) {
+               cents += b.cents;
+               ++bookings;
+            }//end if
+         }//end for
+         return bookings == 0 ? null : BigDecimal.valueOf (cents, 2).toPlainString ();
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end totalCost
+
+   /**
+    * Returns what a hotel earned from bookings dated firstDay to lastDay.
+    *
+    * @return the total as a price with two decimals
+    */
+   public String revenue (int hotelID, int firstDay, int lastDay) {
+      this._lock.readLock ().lock ();
+      try{
+         long cents = 0;
+         Columns columns = this._columns;
+         int[] rows = columns.rows (hotelID, firstDay, lastDay);
+         if (rows != null) cents += columns.prefix (rows[1]) - columns.prefix (rows[0]);
+         for (Booking b : this._delta) {
+            if (b.hotelID == hotelID && b.day >= firstDay && b.day <= lastDay) cents += b.cents;
+         }//end for
+         return BigDecimal.valueOf (cents, 2).toPlainString ();
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end revenue
+
+   private synchronized long failedRebuilds () {
+      return this._failedRebuilds;
+   }//end failedRebuilds
+
+   /**
+    * Returns a one line summary of the snapshot size.
+    */
+   public String stats () {
+      this._lock.readLock ().lock ();
+      try{
+         Columns columns = this._columns;
+         return String.format ("booking snapshot: %d bookings in %d hotels, %d unmerged, %.1f MB (%.1f bytes per booking), " +
+                               "%d merges, %d rebuilds (%d failed)",
+                               columns.size, columns.hotelIDs.length, this._delta.size (), columns.bytes () / 1048576.0,
+                               columns.size == 0 ? 0.0 : (double) columns.bytes () / columns.size, this._merges,
+                               this._rebuilds, failedRebuilds ());
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end stats
+
+   /**
+    * Returns the first row in [from, to) whose day is at least the given
+    * one, or to if there is none.
+    */
+   private static int firstRow (int[] days, int from, int to, int day) {
+      int lo = from, hi = to;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (days[mid] < day) lo = mid + 1; else hi = mid;
+      }//end while
+      return lo;
+   }//end firstRow
+
+}//end BookingSnapshot
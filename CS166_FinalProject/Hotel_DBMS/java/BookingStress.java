@@ -0,0 +1,262 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class stresses bookRoom with many desks booking the same rooms at
+ * once, for growing numbers of clients, and checks that no room was booked
+ * twice on a day.
+ *
+ * Every client runs on its own connection and books random rooms out of a
+ * small set on random days of a window a few days wide, which moves forward
+ * as the rooms fill up, so the clients keep colliding on the same free rooms.
+ * After every round the booking count is compared with the rows inserted and
+ * the whole Booking table is searched for double bookings; then the rows are
+ * deleted.
+ *
+ * Settings:
+ *   -Ddbproject.stress.seconds=10   length of every round
+ *   -Ddbproject.stress.rooms=20     rooms the clients book
+ *   -Ddbproject.stress.window=3     days the clients pick from
+ *   -Ddbproject.stress.out=stress-results.csv
+ *
+ */
+public class BookingStress {
+
+   static final long SECONDS = Long.getLong("dbproject.stress.seconds", 10L);
+   static final int ROOMS = Integer.getInteger("dbproject.stress.rooms", 20);
+   static final int WINDOW = Integer.getInteger("dbproject.stress.window", 3);
+   static final String OUT = System.getProperty("dbproject.stress.out", "stress-results.csv");
+
+   static final String CSV_HEADER =
+      "clients,attempts,booked,conflicts,errors,bookings_s,p50_us,p99_us,duplicates";
+
+   static final String DUPLICATES_SQL =
+      "SELECT COUNT(*) FROM (SELECT 1 FROM Booking b GROUP BY b.hotelID, b.roomNo, b.bookingDate " +
+      "HAVING COUNT(*) > 1) d";
+
+   /**
+    * The counters of one round.
+    */
+   static class Round {
+      final LatencyHistogram latencies = new LatencyHistogram ();
+      long attempts = 0;
+      long booked = 0;
+      long conflicts = 0;
+      long errors = 0;
+      String firstError = null;
+      long rows = 0;
+      long duplicates = 0;
+
+      void add (Round other) {
+         this.latencies.add (other.latencies);
+         this.attempts += other.attempts;
+         this.booked += other.booked;
+         this.conflicts += other.conflicts;
+         this.errors += other.errors;
+         if (this.firstError == null) this.firstError = other.firstError;
+      }//end add
+   }//end Round
+
+   /**
+    * One desk booking rooms until the end of the round.
+    */
+   private class Client extends Thread {
+      private final Operations _ops;
+      private final Random _random;
+      private final Round _round = new Round ();
+      private final long _end;
+
+      Client (int n, DBProject esql, long end) {
+         super ("client-" + n);
+         this._ops = esql.operations ();
+         this._random = new Random (n);
+         this._end = end;
+      }//end Client
+
+      public void run () {
+         while (System.nanoTime () < this._end) {
+            int[] room = _rooms.get (this._random.nextInt (_rooms.size ()));
+            int customer = _customers.get (this._random.nextInt (_customers.size ()));
+            // the window starts at the first day the rooms may not all be booked
+            int day = _booked.get () / _rooms.size () + this._random.nextInt (WINDOW);
+            long before = System.nanoTime ();
+            ++this._round.attempts;
+            try{
+               if (this._ops.bookRoom (customer, room[0], room[1], day (day), 1, 100) == 0) {
+                  ++this._round.conflicts;
+               }else{
+                  ++this._round.booked;
+                  _booked.incrementAndGet ();
+               }//end if
+               this._round.latencies.record (System.nanoTime () - before);
+            }catch (SQLException e){
+               ++this._round.errors;
+               if (this._round.firstError == null) this._round.firstError = e.getMessage ();
+            }//end try
+         }//end while
+      }//end run
+   }//end Client
+
+   private final DBProject _esql;
+   private final String _url;
+   private final String _user;
+   // [hotelID, roomNo] of the rooms booked.
+   private final List<int[]> _rooms = new ArrayList<int[]> ();
+   private final List<Integer> _customers = new ArrayList<Integer> ();
+   private final AtomicInteger _booked = new AtomicInteger ();
+
+   /**
+    * Creates a stress test of the given database
+    *
+    * @param esql the database, used to pick the rooms and check the rounds
+    * @param url the JDBC connection URL the clients connect to
+    * @param user the user name of the clients
+    */
+   public BookingStress (DBProject esql, String url, String user) throws SQLException {
+      this._esql = esql;
+      this._url = url;
+      this._user = user;
+      for (List<String> row : esql.executeQueryAndReturnResult (
+              "SELECT r.hotelID, r.roomNo FROM Room r ORDER BY random() LIMIT ?", ROOMS)) {
+         this._rooms.add (new int[] {Integer.parseInt (row.get (0).trim ()), Integer.parseInt (row.get (1).trim ())});
+      }//end for
+      for (List<String> row : esql.executeQueryAndReturnResult (
+              "SELECT c.customerID FROM Customer c ORDER BY random() LIMIT ?", ROOMS)) {
+         this._customers.add (Integer.parseInt (row.get (0).trim ()));
+      }//end for
+      if (this._rooms.isEmpty () || this._customers.isEmpty ()) {
+         throw new SQLException ("The stress test needs rooms and customers");
+      }//end if
+   }//end BookingStress
+
+   /**
+    * Runs one round with the given number of clients and deletes the
+    * bookings it made.
+    */
+   public Round run (int clients) throws SQLException, InterruptedException {
+      // the clients reserve their blocks of bIDs after this one.
+      long first = this._esql.ids (DBProject.BOOKING_IDS).next ();
+      this._booked.set (0);
+
+      List<DBProject> desks = new ArrayList<DBProject> ();
+      Round round = new Round ();
+      try{
+         for (int n = 0; n < clients; ++n) desks.add (new DBProject (this._url, this._user, "", 1));
+         long end = System.nanoTime () + SECONDS * 1000000000L;
+         List<Client> threads = new ArrayList<Client> ();
+         for (int n = 0; n < clients; ++n) threads.add (new Client (n, desks.get (n), end));
+         for (Client client : threads) client.start ();
+         for (Client client : threads) client.join ();
+         for (Client client : threads) round.add (client._round);
+
+         round.rows = Long.parseLong (this._esql.executeQueryAndReturnResult (
+            "SELECT COUNT(*) FROM Booking WHERE bID >= ?", first).get (0).get (0).trim ());
+         round.duplicates = Long.parseLong (this._esql.executeQueryAndReturnResult (DUPLICATES_SQL).get (0).get (0).trim ());
+      }finally{
+         for (DBProject desk : desks) desk.cleanup ();
+         this._esql.executeUpdate ("DELETE FROM Booking WHERE bID >= ?", first);
+      }//end try
+      return round;
+   }//end run
+
+   /**
+    * Returns the i-th day after 2200-01-01, a date no loaded booking uses.
+    */
+   private static String day (int i) {
+      int[] date = OccupancyIndex.civilDate (OccupancyIndex.epochDay ("2200-01-01") + i);
+      return String.format ("%04d-%02d-%02d", date[0], date[1], date[2]);
+   }//end day
+
+   /**
+    * Prints the counters of a round and appends them to the CSV output.
+    *
+    * @return whether the round made exactly the bookings it counted and no double bookings
+    */
+   static boolean report (int clients, Round round, PrintWriter csv) {
+      LatencyHistogram h = round.latencies;
+      double throughput = (double) round.booked / SECONDS;
+      System.out.printf ("%7d %9d %9d %9d %7d %10.1f %10.2f %10.2f %10d%n", clients, round.attempts, round.booked,
+                         round.conflicts, round.errors, throughput, h.percentile (0.50) / 1e6,
+                         h.percentile (0.99) / 1e6, round.duplicates);
+      csv.printf ("%d,%d,%d,%d,%d,%.3f,%.1f,%.1f,%d%n", clients, round.attempts, round.booked, round.conflicts,
+                  round.errors, throughput, h.percentile (0.50) / 1e3, h.percentile (0.99) / 1e3, round.duplicates);
+      boolean ok = round.duplicates == 0 && round.rows == round.booked;
+      if (round.rows != round.booked) {
+         System.out.println ("  " + round.booked + " bookings counted but " + round.rows + " rows inserted");
+      }//end if
+      if (round.firstError != null) System.out.println ("  First error: " + round.firstError);
+      return ok;
+   }//end report
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [clients ...]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BookingStress.class.getName () +
+            " <dbname> <port> <user> [clients ...]");
+         return;
+      }//end if
+
+      List<Integer> rounds = new ArrayList<Integer> ();
+      for (int a = 3; a < args.length; ++a) rounds.add (Integer.parseInt (args[a]));
+      if (rounds.isEmpty ()) {
+         for (int clients = 1; clients <= 16; clients *= 2) rounds.add (clients);
+      }//end if
+
+      DBProject esql = null;
+      boolean ok = true;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         esql = new DBProject (url, args[2], "", 1);
+         BookingStress stress = new BookingStress (esql, url, args[2]);
+
+         System.out.printf ("%d rooms, %d s per round%n%n", stress._rooms.size (), SECONDS);
+         System.out.printf ("%7s %9s %9s %9s %7s %10s %10s %10s %10s%n", "clients", "attempts", "booked", "conflicts",
+                            "errors", "booked/s", "p50 ms", "p99 ms", "duplicates");
+         File out = new File (OUT);
+         boolean header = !out.exists () || out.length () == 0;
+         PrintWriter csv = new PrintWriter (new FileWriter (out, true));
+         try{
+            if (header) csv.println (CSV_HEADER);
+            for (int clients : rounds) ok &= report (clients, stress.run (clients), csv);
+         }finally{
+            csv.close ();
+         }//end try
+         System.out.println (ok ? "\nNo double bookings" : "\nFAILED: bookings were lost or doubled");
+         System.out.println ("Results appended to " + OUT);
+      }catch (Exception e){
+         System.err.println ("Error - Stress test failed: " + e.getMessage ());
+         ok = false;
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+      if (!ok) System.exit (-1);
+   }//end main
+
+}//end BookingStress
@@ -0,0 +1,512 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class loads the data/*.csv files from the client side, so the files
+ * no longer have to be copied into the database server's folder first.
+ *
+ * The table definitions, COPY column lists, back-fill UPDATE and foreign
+ * keys are all read from sql/create.sql.  The loader creates the tables
+ * without their keys, streams every CSV into its table, loading all tables
+ * in parallel since no foreign key exists yet, and only then runs the
+ * back-fill, adds primary keys, foreign keys and indexes and ANALYZEs the
+ * result; adding the foreign keys checks every reference once.
+ *
+ * Rows are sent through COPY ... FROM STDIN when the JDBC driver on the
+ * classpath provides org.postgresql.copy.CopyManager.  The bundled 7.3
+ * driver does not, so with it rows are sent as multi-row INSERTs inside one
+ * transaction per table.
+ *
+ */
+public class BulkLoader {
+
+   // number of tables loaded at the same time.
+   static final int THREADS = Integer.getInteger("dbproject.loader.threads",
+                                                 Runtime.getRuntime().availableProcessors());
+
+   // rows per INSERT statement when COPY is not available.
+   static final int INSERT_BATCH_ROWS = Integer.getInteger("dbproject.loader.batchRows", 1000);
+
+   private static final Pattern COPY = Pattern.compile(
+      "COPY\\s+(\\w+)\\s*\\(([^)]*)\\)\\s*FROM\\s+'([^']+)'", Pattern.CASE_INSENSITIVE);
+   private static final Pattern CREATE_TABLE = Pattern.compile(
+      "CREATE\\s+TABLE\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+   private static final Pattern INLINE_PRIMARY_KEY = Pattern.compile(
+      ",\\s*PRIMARY\\s+KEY\\s*\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+   private static final Pattern FOREIGN_KEY = Pattern.compile(
+      "ALTER\\s+TABLE\\s+(\\w+).*FOREIGN\\s+KEY\\s*\\(([^)]*)\\)\\s*REFERENCES\\s+(\\w+)",
+      Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+   private static final Pattern US_DATE = Pattern.compile("(\\d{1,2})/(\\d{1,2})/(\\d{4})");
+
+   /**
+    * One table to load and where its rows come from.
+    */
+   static class TableLoad {
+      final String table;
+      final String columns;
+      final File csv;
+
+      TableLoad (String table, String columns, File csv) {
+         this.table = table;
+         this.columns = columns;
+         this.csv = csv;
+      }//end TableLoad
+   }//end TableLoad
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final File _dataDir;
+
+   // statements of create.sql, split by the phase they run in.
+   private final List<String> _schema = new ArrayList<String>();
+   private final List<String> _primaryKeys = new ArrayList<String>();
+   private final List<String> _foreignKeys = new ArrayList<String>();
+   private final List<String> _indexes = new ArrayList<String>();
+   private final List<String> _backfills = new ArrayList<String>();
+   private final Map<String, TableLoad> _loads = new LinkedHashMap<String, TableLoad>();
+
+   /**
+    * Creates a new loader
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param createSql the schema script, normally sql/create.sql
+    * @param dataDir the folder holding the CSV files
+    * @throws java.io.IOException when the schema script cannot be read
+    */
+   public BulkLoader (String url, String user, String passwd, File createSql, File dataDir) throws IOException {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._dataDir = dataDir;
+      parse(readStatements(createSql));
+   }//end BulkLoader
+
+   /**
+    * Sorts the statements of the schema script into the load phases.
+    */
+   private void parse (List<String> statements) {
+      for (String sql : statements) {
+         String upper = sql.toUpperCase();
+         Matcher m;
+         if ((m = COPY.matcher(sql)).find()) {
+            TableLoad load = new TableLoad(m.group(1), m.group(2).replaceAll("\\s+", " ").trim(),
+                                           new File(this._dataDir, m.group(3)));
+            this._loads.put(load.table.toLowerCase(), load);
+         }else if ((m = CREATE_TABLE.matcher(sql)).find()) {
+            // build primary key indexes once the rows are in, not row by row.
+            String table = m.group(1);
+            Matcher pk = INLINE_PRIMARY_KEY.matcher(sql);
+            if (pk.find()) {
+               this._primaryKeys.add("ALTER TABLE " + table + " ADD PRIMARY KEY(" + pk.group(1) + ")");
+               sql = pk.replaceFirst("");
+            }//end if
+            this._schema.add(sql);
+         }else if ((m = FOREIGN_KEY.matcher(sql)).find()) {
+            this._foreignKeys.add(sql);
+         }else if (upper.startsWith("CREATE INDEX") || upper.startsWith("CREATE UNIQUE INDEX")) {
+            this._indexes.add(sql);
+         }else if (upper.startsWith("UPDATE")) {
+            this._backfills.add(sql);
+         }else{
+            this._schema.add(sql);
+         }//end if
+      }//end for
+   }//end parse
+
+   /**
+    * Runs every phase of the load.
+    */
+   public void run () throws Exception {
+      long start = System.nanoTime();
+      Connection conn = connect();
+      try{
+         phase("Creating tables", start);
+         execute(conn, this._schema);
+
+         phase("Loading " + this._loads.size() + " tables with " + THREADS + " thread(s)", start);
+         loadTables();
+
+         phase("Back-filling references", start);
+         execute(conn, this._backfills);
+
+         phase("Adding primary keys", start);
+         executeParallel(this._primaryKeys);
+
+         // foreign keys lock the referenced table, so they are added one at a time.
+         phase("Adding foreign keys", start);
+         execute(conn, this._foreignKeys);
+
+         phase("Creating indexes", start);
+         executeParallel(this._indexes);
+
+         phase("Analyzing", start);
+         Statement stmt = conn.createStatement();
+         stmt.execute("ANALYZE");
+         stmt.close();
+         phase("Done", start);
+      }finally{
+         conn.close();
+      }//end try
+   }//end run
+
+   /**
+    * Loads every table on its own connection, THREADS at a time.
+    */
+   private void loadTables () throws Exception {
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, THREADS));
+      try{
+         List<Future<Long>> results = new ArrayList<Future<Long>>();
+         for (final TableLoad load : this._loads.values()) {
+            results.add(pool.submit(new Callable<Long>() {
+               public Long call () throws Exception {
+                  long t = System.nanoTime();
+                  long rows = loadTable(load);
+                  System.out.printf("   %-20s %10d rows in %8.1f ms%n", load.table, rows,
+                                    (System.nanoTime() - t) / 1e6);
+                  return rows;
+               }
+            }));
+         }//end for
+         for (Future<Long> result : results) {
+            waitFor(result);
+         }//end for
+      }finally{
+         pool.shutdownNow();
+      }//end try
+   }//end loadTables
+
+   /**
+    * Streams one CSV file into its table.
+    *
+    * @return the number of rows loaded
+    */
+   private long loadTable (TableLoad load) throws Exception {
+      Connection conn = connect();
+      try{
+         Object copyManager = copyManager(conn);
+         if (copyManager != null) {
+            CsvReader rows = new CsvReader(load.csv);
+            try{
+               Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+               return ((Number) copyIn.invoke(copyManager, "COPY " + load.table + "(" + load.columns +
+                                              ") FROM STDIN WITH DELIMITER ','", rows)).longValue();
+            }finally{
+               rows.close();
+            }//end try
+         }//end if
+         return insertTable(conn, load);
+      }finally{
+         conn.close();
+      }//end try
+   }//end loadTable
+
+   /**
+    * Loads one CSV file with multi-row INSERT statements in one transaction.
+    *
+    * @return the number of rows loaded
+    */
+   private long insertTable (Connection conn, TableLoad load) throws SQLException, IOException {
+      conn.setAutoCommit(false);
+      Statement stmt = conn.createStatement();
+      BufferedReader csv = new BufferedReader(new InputStreamReader(new FileInputStream(load.csv), "UTF-8"), 1 << 16);
+      String prefix = "INSERT INTO " + load.table + "(" + load.columns + ") VALUES ";
+      StringBuilder sql = new StringBuilder(prefix);
+      long rows = 0;
+      int pending = 0;
+      try{
+         String line;
+         while ((line = csv.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            if (pending > 0) sql.append(',');
+            sql.append('(');
+            String[] fields = fields(line);
+            for (int i = 0; i < fields.length; ++i) {
+               if (i > 0) sql.append(',');
+               if (fields[i] == null) {
+                  sql.append("NULL");
+               }else{
+                  sql.append('\'').append(normalize(fields[i]).replace("'", "''")).append('\'');
+               }//end if
+            }//end for
+            sql.append(')');
+            ++rows;
+            if (++pending >= INSERT_BATCH_ROWS) {
+               stmt.executeUpdate(sql.toString());
+               sql.setLength(prefix.length());
+               pending = 0;
+            }//end if
+         }//end while
+         if (pending > 0) stmt.executeUpdate(sql.toString());
+         conn.commit();
+         return rows;
+      }catch (SQLException e){
+         conn.rollback();
+         throw e;
+      }finally{
+         csv.close();
+         stmt.close();
+      }//end try
+   }//end insertTable
+
+   /**
+    * Returns a CopyManager for the connection if the driver has one.
+    */
+   private static Object copyManager (Connection conn) {
+      try{
+         Class<?> base = Class.forName("org.postgresql.core.BaseConnection");
+         if (!base.isInstance(conn)) return null;
+         Class<?> manager = Class.forName("org.postgresql.copy.CopyManager");
+         return manager.getConstructor(base).newInstance(conn);
+      }catch (Exception e){
+         return null;
+      }//end try
+   }//end copyManager
+
+   /**
+    * Splits a line into its fields the way COPY text format with a comma
+    * delimiter reads it, as create.sql and Exporter write them: a backslash
+    * takes the next character literally, \n, \r and \t are control
+    * characters, and a field of just \N is NULL.
+    *
+    * @return the fields, null for NULL
+    */
+   static String[] fields (String line) {
+      List<String> fields = new ArrayList<String>();
+      StringBuilder field = new StringBuilder();
+      int start = 0;
+      for (int i = 0; i <= line.length(); ++i) {
+         if (i == line.length() || line.charAt(i) == ',') {
+            fields.add(line.startsWith("\\N", start) && i - start == 2 ? null : field.toString());
+            field.setLength(0);
+            start = i + 1;
+            continue;
+         }//end if
+         char c = line.charAt(i);
+         if (c == '\\' && i + 1 < line.length()) {
+            c = line.charAt(++i);
+            if (c == 'n') c = '\n';
+            else if (c == 'r') c = '\r';
+            else if (c == 't') c = '\t';
+         }//end if
+         field.append(c);
+      }//end for
+      return fields.toArray(new String[fields.size()]);
+   }//end fields
+
+   /**
+    * Turns an M/D/YYYY date into an ISO date, which the server reads the
+    * same way under any DateStyle; other fields are returned as they are.
+    */
+   static String normalize (String field) {
+      Matcher m = US_DATE.matcher(field);
+      if (m.matches()) {
+         return m.group(3) + "-" + pad(m.group(1)) + "-" + pad(m.group(2));
+      }//end if
+      return field;
+   }//end normalize
+
+   private static String pad (String s) {
+      return s.length() == 1 ? "0" + s : s;
+   }//end pad
+
+   /**
+    * A reader over a CSV file that yields the rows in COPY text format, one
+    * line at a time, with dates normalized.
+    */
+   static class CsvReader extends Reader {
+      private final BufferedReader _in;
+      private final StringBuilder _line = new StringBuilder();
+      private int _pos = 0;
+
+      CsvReader (File csv) throws IOException {
+         this._in = new BufferedReader(new InputStreamReader(new FileInputStream(csv), "UTF-8"), 1 << 16);
+      }//end CsvReader
+
+      public int read (char[] buf, int off, int len) throws IOException {
+         while (this._pos >= this._line.length()) {
+            String line = this._in.readLine();
+            if (line == null) return -1;
+            this._line.setLength(0);
+            this._pos = 0;
+            if (line.trim().isEmpty()) continue;
+            String[] fields = line.split(",", -1);
+            for (int i = 0; i < fields.length; ++i) {
+               if (i > 0) this._line.append(',');
+               this._line.append(normalize(fields[i]));
+            }//end for
+            this._line.append('\n');
+         }//end while
+         int n = Math.min(len, this._line.length() - this._pos);
+         this._line.getChars(this._pos, this._pos + n, buf, off);
+         this._pos += n;
+         return n;
+      }//end read
+
+      public void close () throws IOException {
+         this._in.close();
+      }//end close
+   }//end CsvReader
+
+   private void executeParallel (List<String> statements) throws Exception {
+      if (statements.isEmpty()) return;
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, statements.size())));
+      try{
+         List<Future<Void>> results = new ArrayList<Future<Void>>();
+         for (String sql : statements) {
+            final String current = sql;
+            results.add(pool.submit(new Callable<Void>() {
+               public Void call () throws Exception {
+                  Connection conn = connect();
+                  try{
+                     execute(conn, Collections.singletonList(current));
+                  }finally{
+                     conn.close();
+                  }//end try
+                  return null;
+               }
+            }));
+         }//end for
+         for (Future<Void> result : results) {
+            waitFor(result);
+         }//end for
+      }finally{
+         pool.shutdownNow();
+      }//end try
+   }//end executeParallel
+
+   private static void execute (Connection conn, List<String> statements) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try{
+         for (String sql : statements) {
+            stmt.execute(sql);
+         }//end for
+      }finally{
+         stmt.close();
+      }//end try
+   }//end execute
+
+   private static <T> T waitFor (Future<T> future) throws Exception {
+      try{
+         return future.get();
+      }catch (ExecutionException e){
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception) throw (Exception) cause;
+         throw e;
+      }//end try
+   }//end waitFor
+
+   private Connection connect () throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end connect
+
+   private static void phase (String name, long start) {
+      System.out.printf("[%9.1f ms] %s%n", (System.nanoTime() - start) / 1e6, name);
+   }//end phase
+
+   /**
+    * Reads a SQL script and splits it into statements, dropping comments.
+    * Semicolons inside quoted strings and $$ function bodies do not end a
+    * statement.
+    */
+   static List<String> readStatements (File script) throws IOException {
+      BufferedReader in = new BufferedReader(new FileReader(script));
+      StringBuilder text = new StringBuilder();
+      try{
+         String line;
+         while ((line = in.readLine()) != null) {
+            int comment = line.indexOf("--");
+            if (comment >= 0) line = line.substring(0, comment);
+            text.append(line).append('\n');
+         }//end while
+      }finally{
+         in.close();
+      }//end try
+
+      List<String> statements = new ArrayList<String>();
+      boolean inString = false;
+      boolean inBody = false;
+      int start = 0;
+      for (int i = 0; i < text.length(); ++i) {
+         char c = text.charAt(i);
+         if (!inBody && c == '\'') {
+            inString = !inString;
+         }else if (!inString && c == '$' && i + 1 < text.length() && text.charAt(i + 1) == '$') {
+            inBody = !inBody;
+            ++i;
+         }else if (!inString && !inBody && c == ';') {
+            String sql = text.substring(start, i).trim();
+            if (!sql.isEmpty()) statements.add(sql);
+            start = i + 1;
+         }//end if
+      }//end for
+      String rest = text.substring(start).trim();
+      if (!rest.isEmpty()) statements.add(rest);
+      return statements;
+   }//end readStatements
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [data folder] [create.sql]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName () +
+            " <dbname> <port> <user> [data folder] [create.sql]");
+         return;
+      }//end if
+
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         File dataDir = new File(args.length > 3 ? args[3] : "../data");
+         File createSql = new File(args.length > 4 ? args[4] : "../sql/create.sql");
+         new BulkLoader(url, args[2], "", createSql, dataDir).run();
+      }catch (Exception e){
+         System.err.println ("Error - Load failed: " + e.getMessage ());
+         System.exit(-1);
+      }//end try
+   }//end main
+
+}//end BulkLoader
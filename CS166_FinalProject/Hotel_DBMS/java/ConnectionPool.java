@@ -0,0 +1,399 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * This class defines a small pool of physical PostgreSQL connections.  Each
+ * pooled connection carries its own StatementCache, so prepared statements
+ * survive across leases.  The pool keeps at least minSize connections open,
+ * never opens more than maxSize, validates a connection before handing it
+ * out, closes connections that sat idle too long and makes callers wait at
+ * most borrowTimeout for a free connection.
+ *
+ */
+public class ConnectionPool {
+
+   /**
+    * A physical connection leased from the pool.  Callers must hand it back
+    * through ConnectionPool.release() when they are done.
+    */
+   public static class PooledConnection {
+      private final ConnectionPool _owner;
+      private final Connection _connection;
+      private final StatementCache _statements;
+      private long _lastUsed;
+      private long _leasedAt;
+      private boolean _broken = false;
+
+      PooledConnection (ConnectionPool owner, Connection connection, int statementCacheSize) {
+         this._owner = owner;
+         this._connection = connection;
+         this._statements = new StatementCache(connection, statementCacheSize);
+         this._lastUsed = System.currentTimeMillis();
+      }//end PooledConnection
+
+      public Connection getConnection () {
+         return this._connection;
+      }//end getConnection
+
+      /**
+       * Returns the pool the connection has to be released to.
+       */
+      public ConnectionPool getOwner () {
+         return this._owner;
+      }//end getOwner
+
+      public StatementCache getStatements () {
+         return this._statements;
+      }//end getStatements
+
+      /**
+       * Marks the connection as suspect after an error, so it is validated
+       * again before its next lease.
+       */
+      public void markBroken () {
+         this._broken = true;
+      }//end markBroken
+   }//end PooledConnection
+
+   // connections idle longer than this are validated before they are leased.
+   private static final long VALIDATE_AFTER_IDLE_MS = 1000;
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _borrowTimeoutMs;
+   private final long _idleTimeoutMs;
+   private final int _statementCacheSize;
+
+   // connections not currently leased, most recently released first.
+   private final Deque<PooledConnection> _idle = new ArrayDeque<PooledConnection>();
+   // every open connection, leased or idle.
+   private final List<PooledConnection> _all = new ArrayList<PooledConnection>();
+   // connections being opened outside the lock, counted against maxSize.
+   private int _opening = 0;
+   private final Timer _evictor;
+   private final long _createdAt = System.nanoTime();
+   private boolean _closed = false;
+
+   // statistics
+   private long _borrows = 0;
+   private long _timeouts = 0;
+   private long _totalWaitNanos = 0;
+   private long _maxWaitNanos = 0;
+   private long _busyNanos = 0;
+   private int _peakActive = 0;
+   private long _created = 0;
+   private long _evicted = 0;
+   private long _invalid = 0;
+   private long _retiredHits = 0;
+   private long _retiredMisses = 0;
+   private long _retiredEvictions = 0;
+
+   /**
+    * Creates a new pool and opens its first minSize connections
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param minSize the number of connections kept open at all times
+    * @param maxSize the maximum number of connections opened at once
+    * @param borrowTimeoutMs how long borrow() waits for a free connection
+    * @param idleTimeoutMs how long a connection above minSize may stay idle
+    * @param statementCacheSize prepared statements kept per connection
+    * @throws java.sql.SQLException when the initial connections fail
+    */
+   public ConnectionPool (String url, String user, String passwd, int minSize, int maxSize,
+                          long borrowTimeoutMs, long idleTimeoutMs, int statementCacheSize) throws SQLException {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = Math.max(1, maxSize);
+      this._minSize = Math.max(0, Math.min(minSize, this._maxSize));
+      this._borrowTimeoutMs = borrowTimeoutMs;
+      this._idleTimeoutMs = idleTimeoutMs;
+      this._statementCacheSize = statementCacheSize;
+
+      for (int i = 0; i < this._minSize; ++i) {
+         PooledConnection pc = open();
+         synchronized (this) {
+            this._all.add(pc);
+            this._idle.push(pc);
+         }//end synchronized
+      }//end for
+
+      this._evictor = new Timer("ConnectionPool-evictor", true);
+      long period = Math.max(1000, idleTimeoutMs / 2);
+      this._evictor.schedule(new TimerTask() {
+         public void run () {
+            evictIdle();
+         }
+      }, period, period);
+   }//end ConnectionPool
+
+   /**
+    * Leases a connection, opening a new one if the pool is below maxSize and
+    * waiting up to the borrow timeout otherwise.
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when no connection could be leased in time
+    */
+   public PooledConnection borrow () throws SQLException {
+      long start = System.nanoTime();
+      long deadline = start + this._borrowTimeoutMs * 1000000L;
+      while (true) {
+         PooledConnection pc = null;
+         boolean mayOpen = false;
+         synchronized (this) {
+            while (!this._closed && this._idle.isEmpty() && this._all.size() + this._opening >= this._maxSize) {
+               long remaining = deadline - System.nanoTime();
+               if (remaining <= 0) {
+                  ++this._timeouts;
+                  throw new SQLException("Timed out after " + this._borrowTimeoutMs +
+                                         " ms waiting for a database connection (" + this._maxSize + " in use)");
+               }//end if
+               try{
+                  this.wait(Math.max(1, remaining / 1000000L));
+               }catch (InterruptedException e){
+                  Thread.currentThread().interrupt();
+                  throw new SQLException("Interrupted while waiting for a database connection");
+               }//end try
+            }//end while
+            if (this._closed) {
+               throw new SQLException("Connection pool is closed");
+            }//end if
+            if (!this._idle.isEmpty()) {
+               pc = this._idle.pop();
+            }else{
+               // reserve the slot before opening outside the lock.
+               mayOpen = true;
+               ++this._opening;
+            }//end if
+         }//end synchronized
+
+         if (mayOpen) {
+            try{
+               pc = open();
+            }finally{
+               synchronized (this) {
+                  --this._opening;
+                  if (pc != null) this._all.add(pc);
+                  this.notifyAll();
+               }//end synchronized
+            }//end try
+         }else if (!isValid(pc)) {
+            retire(pc);
+            synchronized (this) {
+               ++this._invalid;
+            }//end synchronized
+            continue;
+         }//end if
+
+         long waited = System.nanoTime() - start;
+         synchronized (this) {
+            ++this._borrows;
+            this._totalWaitNanos += waited;
+            this._maxWaitNanos = Math.max(this._maxWaitNanos, waited);
+            this._peakActive = Math.max(this._peakActive, this._all.size() - this._idle.size());
+         }//end synchronized
+         pc._leasedAt = System.nanoTime();
+         return pc;
+      }//end while
+   }//end borrow
+
+   /**
+    * Returns a leased connection to the pool.
+    *
+    * @param pc the connection obtained from borrow()
+    */
+   public void release (PooledConnection pc) {
+      if (pc == null) return;
+      pc._lastUsed = pc._broken ? 0 : System.currentTimeMillis();
+      synchronized (this) {
+         this._busyNanos += System.nanoTime() - pc._leasedAt;
+         if (this._closed) {
+            this._all.remove(pc);
+         }else{
+            this._idle.push(pc);
+            this.notifyAll();
+            return;
+         }//end if
+      }//end synchronized
+      closeQuietly(pc);
+   }//end release
+
+   /**
+    * Returns the number of connections currently leased.
+    */
+   public synchronized int active () {
+      return this._all.size() - this._idle.size();
+   }//end active
+
+   /**
+    * Returns a one line summary of the statement caches of all connections.
+    */
+   public synchronized String statementCacheStats () {
+      long hits = this._retiredHits;
+      long misses = this._retiredMisses;
+      long evictions = this._retiredEvictions;
+      int cached = 0;
+      for (PooledConnection pc : this._all) {
+         hits += pc._statements.getHits();
+         misses += pc._statements.getMisses();
+         evictions += pc._statements.getEvictions();
+         cached += pc._statements.size();
+      }//end for
+      long lookups = hits + misses;
+      double hitRatio = lookups == 0 ? 0.0 : (100.0 * hits) / lookups;
+      return String.format("statements cached: %d, hits: %d, misses: %d, evictions: %d, hit ratio: %.1f%%",
+                           cached, hits, misses, evictions, hitRatio);
+   }//end statementCacheStats
+
+   /**
+    * Returns a one line summary of pool sizes, wait times and utilization.
+    * Utilization is the leased connection time over maxSize times the pool
+    * lifetime.
+    */
+   public synchronized String stats () {
+      double elapsed = System.nanoTime() - this._createdAt;
+      double utilization = elapsed <= 0 ? 0.0 : (100.0 * this._busyNanos) / (elapsed * this._maxSize);
+      double avgWaitMs = this._borrows == 0 ? 0.0 : this._totalWaitNanos / 1e6 / this._borrows;
+      return String.format("connections open: %d (idle %d, peak in use %d, min %d, max %d), borrows: %d, " +
+                           "avg wait: %.3f ms, max wait: %.3f ms, timeouts: %d, opened: %d, evicted: %d, " +
+                           "invalid: %d, utilization: %.1f%%",
+                           this._all.size(), this._idle.size(), this._peakActive, this._minSize, this._maxSize,
+                           this._borrows, avgWaitMs, this._maxWaitNanos / 1e6, this._timeouts, this._created,
+                           this._evicted, this._invalid, utilization);
+   }//end stats
+
+   /**
+    * Closes every idle connection and stops handing out new ones.  Leased
+    * connections are closed as they are released.
+    */
+   public void close () {
+      List<PooledConnection> idle;
+      synchronized (this) {
+         this._closed = true;
+         this._evictor.cancel();
+         idle = new ArrayList<PooledConnection>(this._idle);
+         this._idle.clear();
+         this._all.removeAll(idle);
+         this.notifyAll();
+      }//end synchronized
+      for (PooledConnection pc : idle) {
+         closeQuietly(pc);
+      }//end for
+   }//end close
+
+   /**
+    * Opens a physical connection outside the pool, for a caller that keeps
+    * it to itself, such as a LISTEN session.  The caller closes it.
+    */
+   public Connection openUnpooled () throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end openUnpooled
+
+   private PooledConnection open () throws SQLException {
+      Connection connection = DriverManager.getConnection(this._url, this._user, this._passwd);
+      synchronized (this) {
+         ++this._created;
+      }//end synchronized
+      return new PooledConnection(this, connection, this._statementCacheSize);
+   }//end open
+
+   /**
+    * Checks a connection with a trivial query unless it was used very
+    * recently.
+    */
+   private boolean isValid (PooledConnection pc) {
+      if (System.currentTimeMillis() - pc._lastUsed < VALIDATE_AFTER_IDLE_MS) {
+         return true;
+      }//end if
+      Statement stmt = null;
+      try{
+         if (pc._connection.isClosed()) return false;
+         stmt = pc._connection.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT 1");
+         rs.close();
+         pc._broken = false;
+         return true;
+      }catch (SQLException e){
+         return false;
+      }finally{
+         if (stmt != null) {
+            try{
+               stmt.close();
+            }catch (SQLException e){
+               // ignored.
+            }//end try
+         }//end if
+      }//end try
+   }//end isValid
+
+   /**
+    * Closes idle connections above minSize that have not been used for the
+    * idle timeout.
+    */
+   private void evictIdle () {
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+      synchronized (this) {
+         long cutoff = System.currentTimeMillis() - this._idleTimeoutMs;
+         Iterator<PooledConnection> it = this._idle.descendingIterator();
+         while (it.hasNext() && this._all.size() - expired.size() > this._minSize) {
+            PooledConnection pc = it.next();
+            if (pc._lastUsed >= cutoff) break;
+            it.remove();
+            expired.add(pc);
+         }//end while
+         this._evicted += expired.size();
+      }//end synchronized
+      for (PooledConnection pc : expired) {
+         retire(pc);
+      }//end for
+   }//end evictIdle
+
+   private void retire (PooledConnection pc) {
+      synchronized (this) {
+         this._all.remove(pc);
+         this._retiredHits += pc._statements.getHits();
+         this._retiredMisses += pc._statements.getMisses();
+         this._retiredEvictions += pc._statements.getEvictions();
+         this.notifyAll();
+      }//end synchronized
+      closeQuietly(pc);
+   }//end retire
+
+   private static void closeQuietly (PooledConnection pc) {
+      pc._statements.close();
+      try{
+         pc._connection.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end ConnectionPool
@@ -0,0 +1,149 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * This class resolves the customer names typed at the desk to customerIDs.
+ *
+ * Names are compared by their key, customerNameKey(fName, lName) of
+ * migration 010: both names trimmed of the CHAR(30) padding, lower-cased
+ * and joined by a space, so "  SMITH" and "smith" are the same name.  The
+ * key is indexed twice:
+ *   customerNameKeyIndex        exact and prefix lookups ("john sm")
+ *   customerNameTrigramIndex    the names most like a misspelt one
+ * Before migration 010 names are matched exactly through the
+ * (lName, fName) index of migration 001, and there are no suggestions.
+ *
+ * Several customers may share a name; resolve() returns all of them, and
+ * details() the columns the desk tells them apart by.
+ *
+ */
+public class CustomerNames {
+
+   // names suggested when the one typed matches no customer.
+   static final int SUGGESTIONS = Integer.getInteger("dbproject.names.suggestions", 10);
+
+   static final String KEY_INDEX = "customerNameKeyIndex";
+   static final String TRIGRAM_INDEX = "customerNameTrigramIndex";
+
+   // the columns of details() and suggest().
+   static final String[] COLUMNS = {"customerid", "fname", "lname", "dob", "phno"};
+
+   static final String IDS_BY_KEY_SQL =
+      "SELECT c.customerID FROM Customer c WHERE customerNameKey(c.fName, c.lName) = customerNameKey(?, ?) " +
+      "ORDER BY c.customerID";
+   static final String DETAILS_SQL =
+      "SELECT c.customerID, c.fName, c.lName, c.DOB, c.phNo FROM Customer c " +
+      "WHERE c.customerID = ANY (CAST(? AS INTEGER[])) ORDER BY c.customerID";
+   // walks customerNameKeyIndex from the prefix
+   static final String PREFIX_SQL =
+      "SELECT c.customerID, c.fName, c.lName, c.DOB, c.phNo FROM Customer c " +
+      "WHERE customerNameKey(c.fName, c.lName) LIKE ? ESCAPE '!' ORDER BY customerNameKey(c.fName, c.lName) LIMIT ?";
+   // nearest names first, read from customerNameTrigramIndex
+   static final String SIMILAR_SQL =
+      "SELECT c.customerID, c.fName, c.lName, c.DOB, c.phNo FROM Customer c " +
+      "WHERE customerNameKey(c.fName, c.lName) % ? ORDER BY customerNameKey(c.fName, c.lName) <-> ? LIMIT ?";
+
+   private final DBProject _esql;
+
+   /**
+    * Creates the name lookups of a database
+    *
+    * @param esql the database holding Customer
+    */
+   public CustomerNames (DBProject esql) {
+      this._esql = esql;
+   }//end CustomerNames
+
+   /**
+    * Returns the customerIDs of every customer with a name, lowest first.
+    */
+   public List<Integer> resolve (String fName, String lName) throws SQLException {
+      String query = this._esql.hasIndex (KEY_INDEX) ? IDS_BY_KEY_SQL : DBProject.CUSTOMER_IDS_BY_NAME_SQL;
+      List<Integer> ids = new ArrayList<Integer> ();
+      for (List<String> row : this._esql.executeQueryAndReturnResult (query, fName, lName)) {
+         ids.add (Integer.valueOf (row.get (0).trim ()));
+      }//end for
+      return ids;
+   }//end resolve
+
+   /**
+    * Returns [customerID, fName, lName, DOB, phNo] rows of customers.
+    */
+   public List<List<String>> details (List<Integer> customerIDs) throws SQLException {
+      if (customerIDs.isEmpty ()) return new ArrayList<List<String>> ();
+      return this._esql.executeQueryAndReturnResult (DETAILS_SQL, idArray (customerIDs));
+   }//end details
+
+   /**
+    * Returns up to limit customers whose name starts with, or else looks
+    * like, the text, as [customerID, fName, lName, DOB, phNo] rows.
+    *
+    * @param text a first name and last name, or the start of them
+    */
+   public List<List<String>> suggest (String text, int limit) throws SQLException {
+      List<List<String>> suggestions = new ArrayList<List<String>> ();
+      String key = key (text);
+      if (key.isEmpty () || limit <= 0) return suggestions;
+
+      Set<String> seen = new HashSet<String> ();
+      if (this._esql.hasIndex (KEY_INDEX)) {
+         add (suggestions, seen, this._esql.executeQueryAndReturnResult (PREFIX_SQL, escapeLike (key) + "%", limit), limit);
+      }//end if
+      if (suggestions.size () < limit && this._esql.hasIndex (TRIGRAM_INDEX)) {
+         add (suggestions, seen, this._esql.executeQueryAndReturnResult (SIMILAR_SQL, key, key, limit), limit);
+      }//end if
+      return suggestions;
+   }//end suggest
+
+   private static void add (List<List<String>> suggestions, Set<String> seen, List<List<String>> rows, int limit) {
+      for (List<String> row : rows) {
+         if (suggestions.size () >= limit) return;
+         if (seen.add (row.get (0).trim ())) suggestions.add (row);
+      }//end for
+   }//end add
+
+   /**
+    * Returns the key of a typed name the way customerNameKey builds it.
+    */
+   static String key (String text) {
+      return text.trim ().replaceAll ("\\s+", " ").toLowerCase (Locale.ROOT);
+   }//end key
+
+   /**
+    * Escapes the LIKE wildcards of a text with '!'.
+    */
+   static String escapeLike (String text) {
+      return text.replace ("!", "!!").replace ("%", "!%").replace ("_", "!_");
+   }//end escapeLike
+
+   /**
+    * Returns customerIDs as an INTEGER[] literal, the parameter of the
+    * queries that take several customers.
+    */
+   static String idArray (List<Integer> customerIDs) {
+      StringBuilder array = new StringBuilder ("{");
+      for (int i = 0; i < customerIDs.size (); ++i) {
+         if (i > 0) array.append (',');
+         array.append (customerIDs.get (i));
+      }//end for
+      return array.append ('}').toString ();
+   }//end idArray
+
+}//end CustomerNames
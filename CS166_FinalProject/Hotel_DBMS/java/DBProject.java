@@ -11,15 +11,30 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 import java.io.File;
+import java.io.IOException;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.io.InputStreamReader;
 
 /**
@@ -29,8 +44,191 @@ import java.io.InputStreamReader;
  */
 public class DBProject {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections.
+   private ConnectionPool _pool = null;
+
+   // sends reads to the replicas of dbproject.replicas, or null when there are none.
+   private ReplicaRouter _router = null;
+
+   // whether hotels are spread over the shards listed in the ShardMap table (migration 009).
+   static final boolean USE_SHARDS = Boolean.parseBoolean(System.getProperty("dbproject.shards", "false"));
+   // rounds over the databases a customer or company has not reached yet before giving up.
+   static final int BROADCAST_ATTEMPTS = Integer.getInteger("dbproject.shards.broadcastAttempts", 5);
+
+   // the shard of every hotel, or null when this database holds them all.
+   private ShardMap _shardMap = null;
+
+   // number of prepared statements kept open on each pooled connection.
+   static final int STATEMENT_CACHE_SIZE = Integer.getInteger("dbproject.statementCacheSize", 64);
+
+   // connection pool settings
+   static final int POOL_MIN_SIZE = Integer.getInteger("dbproject.pool.minSize", 1);
+   static final int POOL_MAX_SIZE = Integer.getInteger("dbproject.pool.maxSize", 8);
+   static final long POOL_BORROW_TIMEOUT_MS = Long.getLong("dbproject.pool.borrowTimeoutMs", 30000L);
+   static final long POOL_IDLE_TIMEOUT_MS = Long.getLong("dbproject.pool.idleTimeoutMs", 300000L);
+
+   // rows fetched per round trip by the streaming listings.
+   static final int FETCH_SIZE = Integer.getInteger("dbproject.fetchSize", 1000);
+
+   // rows per page of the paged listings; 0 prints whole listings at once.
+   static final int PAGE_SIZE = Integer.getInteger("dbproject.pageSize", 20);
+
+   // attempts at a booking aborted by a deadlock or serialization failure, and
+   // the first backoff between them, doubled after every attempt.
+   static final int BOOKING_ATTEMPTS = Integer.getInteger("dbproject.booking.attempts", 5);
+   static final long BOOKING_BACKOFF_MS = Long.getLong("dbproject.booking.backoffMs", 5L);
+
+   // size of the buffer query output is written through.
+   static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+   // whether availability questions are answered from an in-memory index.
+   static final boolean USE_OCCUPANCY_INDEX = Boolean.parseBoolean(System.getProperty("dbproject.occupancyIndex", "true"));
+
+   // rooms booked per hotel and day, or null when disabled or not loaded.
+   private OccupancyIndex _occupancy = null;
+
+   // SQL issued by the menu operations, in menu order.
+   static final String ADD_CUSTOMER_SQL =
+      "INSERT INTO Customer VALUES (?, ?, ?, ?, CAST(? AS NUMERIC), CAST(? AS DATE), CAST(? AS GenderType))";
+   static final String ADD_ROOM_SQL =
+      "INSERT INTO Room VALUES (?, ?, ?)";
+   static final String ADD_MAINTENANCE_COMPANY_SQL =
+      "INSERT INTO MaintenanceCompany VALUES (?, ?, ?, CAST(? AS BOOLEAN))";
+   // the same written to every shard, where a retry finds the row already on some of them
+   static final String BROADCAST_CUSTOMER_SQL = ADD_CUSTOMER_SQL + " ON CONFLICT (customerID) DO NOTHING";
+   static final String BROADCAST_MAINTENANCE_COMPANY_SQL = ADD_MAINTENANCE_COMPANY_SQL + " ON CONFLICT (cmpID) DO NOTHING";
+   static final String ADD_REPAIR_SQL =
+      "INSERT INTO Repair VALUES (?, ?, ?, ?, CAST(? AS DATE), ?, ?)";
+   // the stored date comes back as an epoch day for the occupancy index; no row
+   // comes back when the room is already booked on the date or the bID is taken
+   static final String BOOK_ROOM_SQL =
+      "INSERT INTO Booking VALUES (?, ?, ?, ?, CAST(? AS DATE), ?, ?) " +
+      "ON CONFLICT DO NOTHING RETURNING bookingDate - DATE '1970-01-01'";
+   static final String ROOM_BOOKING_SQL =
+      "SELECT b.bID FROM Booking b WHERE b.hotelID = ? AND b.roomNo = ? AND b.bookingDate = CAST(? AS DATE)";
+   static final String BOOKING_ID_SQL =
+      "SELECT b.bID FROM Booking b WHERE b.bID = ?";
+   static final String ASSIGN_HOUSE_CLEANING_SQL =
+      "UPDATE Assigned SET roomNo = ? WHERE hotelID = ? and staffID = ?";
+   // resolves the manager and inserts in one round trip; no row is inserted
+   // when the hotel does not exist or has no manager
+   static final String REPAIR_REQUEST_SQL =
+      "INSERT INTO Request (reqID, managerID, repairID, requestDate, description) " +
+      "SELECT ?, h.manager, ?, CAST(? AS DATE), ? FROM Hotel h WHERE h.hotelID = ? AND h.manager IS NOT NULL";
+   static final String AVAILABLE_ROOMS_SQL =
+      "SELECT COUNT(*) AS availableRooms FROM Room r WHERE r.hotelID = ? AND NOT EXISTS " +
+      "(SELECT * FROM Booking b WHERE b.hotelID = r.hotelID AND b.roomNo = r.roomNo AND b.bookingDate = CAST(? AS DATE))";
+   static final String BOOKED_ROOMS_SQL =
+      "SELECT COUNT(*) FROM Booking b WHERE b.hotelID = ?";
+   static final String ROOMS_AVAILABLE_FOR_WEEK_SQL =
+      "SELECT r.roomNo, r.roomType FROM Room r WHERE r.hotelID = ? AND NOT EXISTS " +
+      "(SELECT * FROM Booking b WHERE b.hotelID = r.hotelID AND b.roomNo = r.roomNo " +
+      "AND b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) + 6) ORDER BY r.roomNo";
+   static final String ROOMS_AVAILABLE_FOR_WEEK_PAGE_SQL =
+      "SELECT r.roomNo, r.roomType FROM Room r WHERE r.hotelID = ? AND NOT EXISTS " +
+      "(SELECT * FROM Booking b WHERE b.hotelID = r.hotelID AND b.roomNo = r.roomNo " +
+      "AND b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) + 6)";
+   // walks bookingPriceIndex from the highest price and stops after K rows in the range
+   static final String TOP_K_ROOM_PRICE_SQL =
+      "SELECT b.hotelID, b.roomNo, b.bookingDate, b.price FROM Booking b " +
+      "WHERE b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE) ORDER BY b.price DESC LIMIT ?";
+   static final String TOP_K_ROOM_PRICE_SCAN_SQL =
+      "SELECT b.hotelID, b.roomNo, b.bookingDate, b.price FROM Booking b " +
+      "WHERE b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE)";
+   // reads at most K rows of bookingCustomerPriceIndex per customer; the customers are an INTEGER[] (CustomerNames.idArray)
+   static final String TOP_K_CUSTOMER_BOOKINGS_SQL =
+      "WITH c AS (SELECT DISTINCT unnest(CAST(? AS INTEGER[])) AS customerID) " +
+      "SELECT b.bID, b.hotelID, b.roomNo, b.bookingDate, b.price FROM c, LATERAL " +
+      "(SELECT * FROM Booking b WHERE b.customer = c.customerID ORDER BY b.price DESC LIMIT ?) b " +
+      "ORDER BY b.price DESC LIMIT ?";
+   static final String TOP_K_CUSTOMER_BOOKINGS_SCAN_SQL =
+      "SELECT b.bID, b.hotelID, b.roomNo, b.bookingDate, b.price FROM Booking b " +
+      "WHERE b.customer = ANY (CAST(? AS INTEGER[]))";
+   static final String TOTAL_COST_FOR_CUSTOMER_SQL =
+      "SELECT SUM(b.price) AS totalCost FROM Booking b " +
+      "WHERE b.hotelID = ? AND b.customer = ANY (CAST(? AS INTEGER[])) " +
+      "AND b.bookingDate BETWEEN CAST(? AS DATE) AND CAST(? AS DATE)";
+   // the customers with a name before migration 010; see CustomerNames
+   static final String CUSTOMER_IDS_BY_NAME_SQL =
+      "SELECT c.customerID FROM Customer c WHERE c.fName = ? AND c.lName = ?";
+   static final String REPAIRS_MADE_SQL =
+      "SELECT r.repairType, r.hotelID, r.roomNo FROM Repair r, MaintenanceCompany m " +
+      "WHERE r.mCompany = m.cmpID AND m.name = ?";
+   // for a company name resolved to its cmpID by the reference cache
+   static final String REPAIRS_BY_COMPANY_SQL =
+      "SELECT r.repairType, r.hotelID, r.roomNo FROM Repair r WHERE r.mCompany = ?";
+   // paged on (hotelID, roomNo, rID) through repairCompanyRoomIndex
+   static final String REPAIRS_MADE_PAGE_SQL =
+      "SELECT r.hotelID, r.roomNo, r.rID, r.repairType FROM Repair r, MaintenanceCompany m " +
+      "WHERE r.mCompany = m.cmpID AND m.name = ?";
+   static final String REPAIRS_BY_COMPANY_PAGE_SQL =
+      "SELECT r.hotelID, r.roomNo, r.rID, r.repairType FROM Repair r WHERE r.mCompany = ?";
+   static final String TOP_K_MAINTENANCE_COMPANY_SQL =
+      "SELECT m.name, COUNT(*) AS repairCount FROM MaintenanceCompany m, Repair r " +
+      "WHERE m.cmpID = r.mCompany GROUP BY m.cmpID, m.name ORDER BY repairCount DESC LIMIT ?";
+   // the repair count of every company of one shard, summed over the shards by topKMaintenanceCompany.
+   static final String COMPANY_REPAIR_COUNTS_SQL =
+      "SELECT m.cmpID, m.name, COUNT(*) AS repairCount FROM MaintenanceCompany m, Repair r " +
+      "WHERE m.cmpID = r.mCompany GROUP BY m.cmpID, m.name";
+   static final String REPAIRS_PER_YEAR_SQL =
+      "SELECT EXTRACT(YEAR FROM r.repairDate) AS repairYear, COUNT(*) AS repairCount FROM Repair r " +
+      "WHERE r.hotelID = ? AND r.roomNo = ? GROUP BY repairYear ORDER BY repairYear";
+
+   // whether topKMaintenanceCompany is answered from an in-memory ranking.
+   static final boolean USE_REPAIR_LEADERBOARD = Boolean.parseBoolean(System.getProperty("dbproject.repairLeaderboard", "true"));
+
+   // maintenance companies ranked by repair count, or null when not loaded.
+   private RepairLeaderboard _leaderboard = null;
+
+   // whether customer cost and hotel revenue are summed from an in-memory copy of Booking.
+   static final boolean USE_BOOKING_SNAPSHOT = Boolean.parseBoolean(System.getProperty("dbproject.bookingSnapshot", "false"));
+
+   // Booking in columns, or null when disabled or not loaded.
+   private BookingSnapshot _snapshot = null;
+
+   // whether hotel managers, company ids and room types are cached.
+   static final boolean USE_REFERENCE_CACHE = Boolean.parseBoolean(System.getProperty("dbproject.cache", "true"));
+
+   // cached reference lookups, or null when disabled.
+   private final ReferenceData _references = USE_REFERENCE_CACHE ? new ReferenceData(this) : null;
+
+   // top-K engines of the two price reports.
+   static final TopKQuery TOP_K_ROOM_PRICE =
+      new TopKQuery(TOP_K_ROOM_PRICE_SQL, TOP_K_ROOM_PRICE_SCAN_SQL, "bookingPriceIndex", 3);
+   static final TopKQuery TOP_K_CUSTOMER_BOOKINGS =
+      new TopKQuery(TOP_K_CUSTOMER_BOOKINGS_SQL, TOP_K_CUSTOMER_BOOKINGS_SCAN_SQL, "bookingCustomerPriceIndex", 4);
+
+   // the menu operations without the keyboard prompts.
+   private final Operations _operations = new Operations(this);
+
+   // resolves the customer names the reports take to customerIDs.
+   private final CustomerNames _customerNames = new CustomerNames(this);
+
+   // index name -> whether it exists, filled on first use.
+   private final Map<String, Boolean> _indexes = new ConcurrentHashMap<String, Boolean>();
+
+   // sequences the ids of new rows are reserved from, in blocks (migration 006).
+   static final String CUSTOMER_IDS = "customerIDSequence";
+   static final String COMPANY_IDS = "cmpIDSequence";
+   static final String BOOKING_IDS = "bookingIDSequence";
+   static final String REPAIR_IDS = "repairIDSequence";
+   static final String REQUEST_IDS = "requestIDSequence";
+
+   // counters of the statements run and of the menu operations, printed on exit.
+   private final QueryStats _statementStats = new QueryStats();
+   private final QueryStats _operationStats = new QueryStats();
+
+   // sequence name -> allocator of its ids, created on first use.
+   private final ConcurrentMap<String, IdAllocator> _ids = new ConcurrentHashMap<String, IdAllocator>();
+
+   // thread -> the prepared statement it is executing, for cancelling it from another thread.
+   private final ConcurrentMap<Thread, Statement> _running = new ConcurrentHashMap<Thread, Statement>();
+
+   // background threads of submit(), started on first use.
+   private AsyncQueries _async = null;
+
+   // how long the dashboard waits for its reports before cancelling them.
+   static final long DASHBOARD_TIMEOUT_MS = Long.getLong("dbproject.dashboard.timeoutMs", 30000L);
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -54,8 +252,11 @@ public class DBProject {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool with its first physical connection(s)
+         this._pool = new ConnectionPool(url, user, passwd, Math.max(1, POOL_MIN_SIZE), POOL_MAX_SIZE,
+                                         POOL_BORROW_TIMEOUT_MS, POOL_IDLE_TIMEOUT_MS, STATEMENT_CACHE_SIZE);
+         this._router = ReplicaRouter.create(ReplicaRouter.REPLICAS, this._pool, url, user, passwd, POOL_MAX_SIZE);
+         if (this._router != null) System.out.println("Reads go to replicas " + ReplicaRouter.REPLICAS);
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
@@ -64,6 +265,38 @@ public class DBProject {
       }//end catch
    }//end DBProject
 
+   /**
+    * Creates a new instance of DBProject without console output, for tools
+    * that open many of them.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name
+    * @param passwd the password
+    * @param poolSize the number of physical connections kept open
+    * @throws java.sql.SQLException when the first connection cannot be opened
+    */
+   DBProject (String url, String user, String passwd, int poolSize) throws SQLException {
+      this(url, user, passwd, poolSize, ReplicaRouter.REPLICAS);
+   }//end DBProject
+
+   /**
+    * Creates a new instance of DBProject without console output, reading
+    * from the given replicas instead of those of dbproject.replicas.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name
+    * @param passwd the password
+    * @param poolSize the number of physical connections kept open
+    * @param replicas comma separated ports or host:ports of replicas of
+    *        this database, empty for none
+    * @throws java.sql.SQLException when the first connection cannot be opened
+    */
+   DBProject (String url, String user, String passwd, int poolSize, String replicas) throws SQLException {
+      this._pool = new ConnectionPool(url, user, passwd, poolSize, poolSize,
+                                      POOL_BORROW_TIMEOUT_MS, POOL_IDLE_TIMEOUT_MS, STATEMENT_CACHE_SIZE);
+      this._router = ReplicaRouter.create(replicas, this._pool, url, user, passwd, poolSize);
+   }//end DBProject
+
    /**
     * Method to execute an update SQL statement.  Update SQL instructions
     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -72,14 +305,52 @@ public class DBProject {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection pc = borrow (sql);
+      QueryStats.Sample sample = this._statementStats.start (sql);
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
+
+         // issues the update instruction
+         sample.done (stmt.executeUpdate (sql));
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+         // close the instruction
+         stmt.close ();
+      }catch (SQLException e){
+         pc.markBroken ();
+         throw e;
+      }finally{
+         this._statementStats.finish (sample, pc.getConnection ());
+         release (sql, pc);
+      }//end try
+   }//end executeUpdate
 
-      // close the instruction
-      stmt.close ();
+   /**
+    * Method to execute a parameterized update SQL statement.  The statement
+    * is taken from the statement cache, so repeated calls with the same SQL
+    * shape are only parsed and planned once by the server.
+    *
+    * @param sql the input SQL string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String sql, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = borrow (sql);
+      QueryStats.Sample sample = this._statementStats.start (sql, params);
+      try{
+         int rowCount = running (prepare (pc, sql, params)).executeUpdate ();
+         sample.done (rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         pc.getStatements ().invalidate (sql);
+         pc.markBroken ();
+         throw e;
+      }finally{
+         this._running.remove (Thread.currentThread ());
+         this._statementStats.finish (sample, pc.getConnection ());
+         release (sql, pc);
+      }//end try
    }//end executeUpdate
 
    /**
@@ -92,12 +363,470 @@ public class DBProject {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQuery (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      ConnectionPool.PooledConnection pc = borrow (query);
+      QueryStats.Sample sample = this._statementStats.start (query);
+      try{
+         // creates a statement object
+         Statement stmt = pc.getConnection ().createStatement ();
+
+         // issues the query instruction
+         ResultSet rs = stmt.executeQuery (query);
+         int rowCount = printResult (rs, sample);
+         stmt.close ();
+         sample.done (rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         pc.markBroken ();
+         throw e;
+      }finally{
+         this._statementStats.finish (sample, pc.getConnection ());
+         release (query, pc);
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+    * through the statement cache.  This method issues the query to the DBMS
+    * and outputs the results to standard out.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = borrow (query);
+      QueryStats.Sample sample = this._statementStats.start (query, params);
+      ResultSet rs = null;
+      try{
+         rs = running (prepare (pc, query, params)).executeQuery ();
+         int rowCount = printResult (rs, sample);
+         sample.done (rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         pc.getStatements ().invalidate (query);
+         pc.markBroken ();
+         throw e;
+      }finally{
+         this._running.remove (Thread.currentThread ());
+         if (rs != null) rs.close ();
+         this._statementStats.finish (sample, pc.getConnection ());
+         release (query, pc);
+      }//end try
+   }//end executeQuery
+
+   /**
+    * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+    * and return its rows instead of printing them.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param params the values bound to the placeholders, in order
+    * @return the result rows, each row a list of column values as strings
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = borrow (query);
+      QueryStats.Sample sample = this._statementStats.start (query, params);
+      ResultSet rs = null;
+      try{
+         rs = running (prepare (pc, query, params)).executeQuery ();
+         int numCol = rs.getMetaData ().getColumnCount ();
+         List<List<String>> result = new ArrayList<List<String>> ();
+         while (rs.next ()){
+            List<String> record = new ArrayList<String> (numCol);
+            for (int i=1; i<=numCol; ++i){
+               String value = rs.getString (i);
+               sample.read (value);
+               record.add (value);
+            }
+            result.add (record);
+         }//end while
+         sample.done (result.size ());
+         return result;
+      }catch (SQLException e){
+         pc.getStatements ().invalidate (query);
+         pc.markBroken ();
+         throw e;
+      }finally{
+         this._running.remove (Thread.currentThread ());
+         if (rs != null) rs.close ();
+         this._statementStats.finish (sample, pc.getConnection ());
+         release (query, pc);
+      }//end try
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Leases a connection for a statement: from a replica for a read when
+    * replicas are configured and one has caught up, from the primary
+    * otherwise.
+    */
+   private ConnectionPool.PooledConnection borrow (String sql) throws SQLException {
+      return this._router != null ? this._router.borrow (sql) : this._pool.borrow ();
+   }//end borrow
+
+   /**
+    * Returns a connection leased by borrow() for the statement.
+    */
+   private void release (String sql, ConnectionPool.PooledConnection pc) {
+      if (this._router != null) this._router.release (sql, pc); else this._pool.release (pc);
+   }//end release
+
+   /**
+    * Records that another session changed the database, so the next reads
+    * do not go to a replica that has not replayed the change yet.
+    */
+   void changedElsewhere () {
+      if (this._router != null) this._router.written ();
+   }//end changedElsewhere
+
+   /**
+    * Returns the cached statement for the given SQL on a leased connection,
+    * with the parameters bound.
+    */
+   static PreparedStatement prepare (ConnectionPool.PooledConnection pc, String sql, Object[] params) throws SQLException {
+      PreparedStatement stmt = pc.getStatements ().prepare (sql);
+      bind (stmt, params);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Records the statement the calling thread is about to execute, until
+    * the caller removes it.
+    */
+   private PreparedStatement running (PreparedStatement stmt) {
+      this._running.put (Thread.currentThread (), stmt);
+      return stmt;
+   }//end running
+
+   /**
+    * Cancels the statement a thread is executing, if any, on the server.
+    *
+    * @param thread a thread inside one of the prepared execute methods
+    */
+   public void cancelStatement (Thread thread) {
+      Statement stmt = this._running.get (thread);
+      if (stmt == null) return;
+      try{
+         stmt.cancel ();
+      }catch (SQLException e){
+         // the statement then runs to completion.
+         System.err.println ("Error - Unable to cancel a statement: " + e.getMessage ());
+      }//end try
+   }//end cancelStatement
+
+   /**
+    * Starts running a query in the background, e.g. a call of one of the
+    * operations, next to the queries of other threads.  At most
+    * dbproject.async.threads queries run at once.
+    *
+    * @param query the query to run
+    * @return its result once done; cancel(true) also cancels its statement
+    * @throws java.util.concurrent.RejectedExecutionException when too many
+    *         queries are waiting or the database is closed
+    */
+   public <T> Future<T> submit (Callable<T> query) {
+      AsyncQueries async;
+      synchronized (this) {
+         if (this._async == null) this._async = new AsyncQueries (this, AsyncQueries.THREADS, AsyncQueries.QUEUE_SIZE);
+         async = this._async;
+      }//end synchronized
+      return async.submit (query);
+   }//end submit
+
+   /**
+    * Binds parameter values to a statement by their Java type.
+    */
+   static void bind (PreparedStatement stmt, Object[] params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object param = params[i];
+         if (param == null)
+            stmt.setNull (i + 1, Types.VARCHAR);
+         else if (param instanceof Integer)
+            stmt.setInt (i + 1, ((Integer) param).intValue ());
+         else if (param instanceof Long)
+            stmt.setLong (i + 1, ((Long) param).longValue ());
+         else if (param instanceof BigDecimal)
+            stmt.setBigDecimal (i + 1, (BigDecimal) param);
+         else if (param instanceof Boolean)
+            stmt.setBoolean (i + 1, ((Boolean) param).booleanValue ());
+         else if (param instanceof java.sql.Date)
+            stmt.setDate (i + 1, (java.sql.Date) param);
+         else
+            stmt.setString (i + 1, param.toString ());
+      }//end for
+   }//end bind
+
+   /**
+    * Receives the rows of a cursor query one fetched batch at a time.
+    */
+   public interface ResultHandler {
+      /**
+       * @param rs the rows of one FETCH, positioned before the first row
+       * @return the number of rows consumed from rs
+       */
+      int handle (ResultSet rs) throws SQLException;
+   }//end ResultHandler
+
+   /**
+    * Moves back and forth through a listing one page at a time.
+    */
+   public interface Pager {
+      /**
+       * @return the next page, the first one on the first call, or an
+       *         empty list past the last page
+       */
+      List<List<String>> next () throws SQLException;
+
+      /**
+       * @return the previous page, or an empty list before the first page
+       */
+      List<List<String>> previous () throws SQLException;
+
+      boolean hasNext ();
+
+      boolean hasPrevious ();
+   }//end Pager
+
+   /**
+    * Pages through rows already held in memory, such as a top-K result.
+    */
+   static class ListPager implements Pager {
+      private final List<List<String>> _rows;
+      private final int _pageSize;
+      // index of the first row of the current page, -1 before the first page.
+      private int _offset = -1;
+
+      ListPager (List<List<String>> rows, int pageSize) {
+         this._rows = rows;
+         this._pageSize = Math.max (1, pageSize);
+      }//end ListPager
+
+      public List<List<String>> next () {
+         if (!hasNext ()) return new ArrayList<List<String>> ();
+         this._offset = this._offset < 0 ? 0 : this._offset + this._pageSize;
+         return page ();
+      }//end next
+
+      public List<List<String>> previous () {
+         if (!hasPrevious ()) return new ArrayList<List<String>> ();
+         this._offset -= this._pageSize;
+         return page ();
+      }//end previous
+
+      public boolean hasNext () {
+         return this._offset < 0 ? !this._rows.isEmpty () : this._offset + this._pageSize < this._rows.size ();
+      }//end hasNext
+
+      public boolean hasPrevious () {
+         return this._offset > 0;
+      }//end hasPrevious
+
+      private List<List<String>> page () {
+         return this._rows.subList (this._offset, Math.min (this._offset + this._pageSize, this._rows.size ()));
+      }//end page
+   }//end ListPager
+
+   /**
+    * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+    * through a server-side cursor.  Rows are fetched fetchSize at a time and
+    * written to standard out through one buffered sink, so memory use does
+    * not depend on the size of the result.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param fetchSize the number of rows fetched per round trip
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryStreaming (String query, int fetchSize, Object... params) throws SQLException {
+      final PrintWriter out = newSink ();
+      try{
+         return executeQueryCursor (query, fetchSize, new ResultHandler () {
+            private boolean first = true;
+            public int handle (ResultSet rs) throws SQLException {
+               int fetched = printRows (rs, out, first, null);
+               if (fetched > 0) first = false;
+               // hand each batch to the terminal as soon as it is fetched.
+               out.flush ();
+               return fetched;
+            }
+         }, params);
+      }finally{
+         out.flush ();
+      }//end try
+   }//end executeQueryStreaming
+
+   /**
+    * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+    * through a server-side cursor, passing every fetched batch of at most
+    * fetchSize rows to the handler.
+    *
+    * @param query the input query string with '?' placeholders
+    * @param fetchSize the number of rows fetched per round trip
+    * @param handler receives each fetched batch
+    * @param params the values bound to the placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryCursor (String query, int fetchSize, ResultHandler handler, Object... params) throws SQLException {
+      ConnectionPool.PooledConnection pc = borrow (query);
+      Connection conn = pc.getConnection ();
+      PreparedStatement declare = null;
+      Statement fetch = null;
+      boolean autoCommit = true;
+      QueryStats.Sample sample = this._statementStats.start (query, params);
+      try{
+         // a cursor only lives inside a transaction block.
+         autoCommit = conn.getAutoCommit ();
+         conn.setAutoCommit (false);
+
+         // DECLARE cannot be prepared on the server, so it bypasses the cache.
+         declare = conn.prepareStatement ("DECLARE dbproject_cursor NO SCROLL CURSOR FOR " + query);
+         bind (declare, params);
+         declare.execute ();
+
+         fetch = conn.createStatement ();
+         int batch = Math.max(1, fetchSize);
+         String fetchSql = "FETCH FORWARD " + batch + " FROM dbproject_cursor";
+         int rowCount = 0;
+         while (true){
+            ResultSet rs = fetch.executeQuery (fetchSql);
+            int fetched = handler.handle (rs);
+            rs.close ();
+            rowCount += fetched;
+            if (fetched < batch) break;
+         }//end while
+         fetch.execute ("CLOSE dbproject_cursor");
+         conn.commit ();
+         sample.done (rowCount);
+         return rowCount;
+      }catch (SQLException e){
+         try{
+            conn.rollback ();
+         }catch (SQLException ignored){
+            pc.markBroken ();
+         }//end try
+         throw e;
+      }finally{
+         if (declare != null) declare.close ();
+         if (fetch != null) fetch.close ();
+         try{
+            conn.setAutoCommit (autoCommit);
+         }catch (SQLException e){
+            pc.markBroken ();
+         }//end try
+         this._statementStats.finish (sample, conn);
+         release (query, pc);
+      }//end try
+   }//end executeQueryCursor
+
+   /**
+    * Outputs a result set to standard out, with a header line of column
+    * names before the first row.
+    *
+    * @param sample counts the bytes read
+    * @return the number of rows printed
+    */
+   private static int printResult (ResultSet rs, QueryStats.Sample sample) throws SQLException {
+      PrintWriter out = newSink ();
+      try{
+         return printRows (rs, out, true, sample);
+      }finally{
+         out.flush ();
+      }//end try
+   }//end printResult
+
+   /**
+    * Outputs rows computed outside the database to standard out in the same
+    * layout as printResult.
+    *
+    * @param columns the column names, written before the first row
+    * @param rows the rows to write
+    * @return the number of rows printed
+    */
+   static int printTable (String[] columns, List<List<String>> rows) {
+      if (rows.isEmpty ()) return 0;
+      PrintWriter out = newSink ();
+      for (String column : columns){
+         out.print (column);
+         out.print ('\t');
+      }
+      out.println ();
+      for (List<String> row : rows){
+         for (String value : row){
+            out.print (value);
+            out.print ('\t');
+         }
+         out.println ();
+      }
+      out.flush ();
+      return rows.size ();
+   }//end printTable
+
+   /**
+    * Prints a listing one page at a time and lets the user move to the next
+    * or previous page until they quit or the listing fits on one page.
+    *
+    * @param columns the column names, written before every page
+    * @param pager the listing
+    * @throws java.sql.SQLException when a page cannot be read
+    */
+   static void browse (String[] columns, Pager pager) throws SQLException {
+      List<List<String>> page = pager.next ();
+      int pageNo = 1;
+      while (true) {
+         printTable (columns, page);
+         if (!pager.hasNext () && !pager.hasPrevious ()) {
+            System.out.println ("Total row(s): " + page.size ());
+            return;
+         }//end if
+         System.out.print ("Page " + pageNo + " - " +
+                           (pager.hasNext () ? "[n]ext, " : "") +
+                           (pager.hasPrevious () ? "[p]revious, " : "") + "[q]uit: ");
+         String choice;
+         try{
+            choice = in.readLine ();
+         }catch (IOException e){
+            choice = null;
+         }//end try
+         if (choice == null || choice.trim ().equalsIgnoreCase ("q")) return;
+         if (choice.trim ().equalsIgnoreCase ("n") && pager.hasNext ()) {
+            page = pager.next ();
+            ++pageNo;
+         }else if (choice.trim ().equalsIgnoreCase ("p") && pager.hasPrevious ()) {
+            page = pager.previous ();
+            --pageNo;
+         }else{
+            System.out.println ("Unrecognized choice!");
+         }//end if
+      }//end while
+   }//end browse
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Prints in-memory rows, a page at a time when paging is enabled.
+    *
+    * @return the number of rows
+    */
+   static int list (String[] columns, List<List<String>> rows) throws SQLException {
+      if (PAGE_SIZE > 0 && rows.size () > PAGE_SIZE) {
+         browse (columns, new ListPager (rows, PAGE_SIZE));
+      }else{
+         printTable (columns, rows);
+      }//end if
+      return rows.size ();
+   }//end list
 
+   /**
+    * Writes the rows of a result set to the given sink as tab separated
+    * values.
+    *
+    * @param rs the result set, positioned before its first row
+    * @param out the sink to write to
+    * @param outputHeader whether to write the column names before the first row
+    * @param sample counts the bytes read, or null
+    * @return the number of rows written
+    */
+   private static int printRows (ResultSet rs, PrintWriter out, boolean outputHeader, QueryStats.Sample sample) throws SQLException {
       /*
        ** obtains the metadata object for the returned result set.  The metadata
        ** contains row and column info.
@@ -106,36 +835,251 @@ public class DBProject {
       int numCol = rsmd.getColumnCount ();
       int rowCount = 0;
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
+      // iterates through the result set and output them to the sink.
       while (rs.next()){
 	 if(outputHeader){
 	    for(int i = 1; i <= numCol; i++){
-		System.out.print(rsmd.getColumnName(i) + "\t");
+		out.print(rsmd.getColumnName(i));
+		out.print('\t');
 	    }
-	    System.out.println();
+	    out.println();
 	    outputHeader = false;
 	 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
+         for (int i=1; i<=numCol; ++i){
+            String value = rs.getString (i);
+            if (sample != null) sample.read (value);
+            out.print (value);
+            out.print ('\t');
+         }
+         out.println ();
          ++rowCount;
       }//end while
-      stmt.close ();
       return rowCount;
-   }//end executeQuery
+   }//end printRows
+
+   /**
+    * Returns a buffered writer over standard out.  It is flushed, never
+    * closed, by its users.
+    */
+   private static PrintWriter newSink () {
+      return new PrintWriter (new BufferedWriter (new OutputStreamWriter (System.out), OUTPUT_BUFFER_SIZE), false);
+   }//end newSink
+
+   /**
+    * Builds the occupancy index from the Room and Booking tables and starts
+    * its periodic rebuilds.  Until it is loaded, availability questions go
+    * to the database.
+    *
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void loadOccupancyIndex () throws SQLException {
+      OccupancyIndex occupancy = new OccupancyIndex ();
+      occupancy.rebuild (this);
+      occupancy.startRebuilds (this);
+      this._occupancy = occupancy;
+   }//end loadOccupancyIndex
+
+   /**
+    * Returns the occupancy index, or null if it is not loaded.
+    */
+   public OccupancyIndex getOccupancyIndex () {
+      return this._occupancy;
+   }//end getOccupancyIndex
+
+   /**
+    * Loads the repair count of every maintenance company and starts its
+    * periodic reloads.  Until it is loaded, topKMaintenanceCompany goes to
+    * the database.
+    *
+    * @throws java.sql.SQLException when the counts cannot be read
+    */
+   public void loadRepairLeaderboard () throws SQLException {
+      RepairLeaderboard leaderboard = new RepairLeaderboard ();
+      leaderboard.load (this);
+      leaderboard.startReloads (this);
+      this._leaderboard = leaderboard;
+   }//end loadRepairLeaderboard
+
+   /**
+    * Returns the repair leaderboard, or null if it is not loaded.
+    */
+   public RepairLeaderboard getRepairLeaderboard () {
+      return this._leaderboard;
+   }//end getRepairLeaderboard
+
+   /**
+    * Reads the shard map of this database.  Until it is loaded, every
+    * hotel is on this database.
+    *
+    * @param user the user name used to login to the shards
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when the map cannot be read
+    */
+   public void loadShardMap (String user, String passwd) throws SQLException {
+      this._shardMap = new ShardMap (this, user, passwd, POOL_MAX_SIZE);
+   }//end loadShardMap
+
+   /**
+    * Returns the shard map, or null if it is not loaded.
+    */
+   public ShardMap getShardMap () {
+      return this._shardMap;
+   }//end getShardMap
+
+   /**
+    * Returns the database holding a hotel: its shard, or this database when
+    * there is no shard map.
+    *
+    * @param write whether the caller is about to change the hotel's rows
+    * @throws java.sql.SQLException when no shard holds the hotel, or it is
+    *         being moved and write is set
+    */
+   public DBProject shard (int hotelID, boolean write) throws SQLException {
+      return this._shardMap == null ? this : this._shardMap.shard (hotelID, write);
+   }//end shard
+
+   /**
+    * Loads Booking into the booking snapshot.  Until it is loaded,
+    * totalCostForCustomer goes to the database.
+    *
+    * @throws java.sql.SQLException when the table cannot be read
+    */
+   public void loadBookingSnapshot () throws SQLException {
+      BookingSnapshot snapshot = new BookingSnapshot ();
+      snapshot.rebuild (this);
+      snapshot.startRebuilds (this);
+      this._snapshot = snapshot;
+   }//end loadBookingSnapshot
+
+   /**
+    * Returns the booking snapshot, or null if it is not loaded.
+    */
+   public BookingSnapshot getBookingSnapshot () {
+      return this._snapshot;
+   }//end getBookingSnapshot
+
+   /**
+    * Returns the cached reference lookups, or null if caching is disabled.
+    */
+   public ReferenceData getReferenceData () {
+      return this._references;
+   }//end getReferenceData
+
+   /**
+    * Starts dropping cached reference lookups when another session changes
+    * the tables behind them, through a LISTEN connection of their own.
+    *
+    * @throws java.sql.SQLException when the connection cannot be opened
+    */
+   public void listenForReferenceChanges () throws SQLException {
+      if (this._references != null) this._references.listen (this._pool.openUnpooled ());
+   }//end listenForReferenceChanges
 
    /**
-    * Method to close the physical connection if it is open.
+    * Returns the menu operations of this database.
+    */
+   public Operations operations () {
+      return this._operations;
+   }//end operations
+
+   /**
+    * Returns the customer name lookups of this database.
+    */
+   public CustomerNames customerNames () {
+      return this._customerNames;
+   }//end customerNames
+
+   /**
+    * Returns the allocator of the ids of a sequence, shared by all the
+    * threads using this database.
+    *
+    * @param sequence one of the *_IDS sequence names
+    */
+   public IdAllocator ids (String sequence) {
+      IdAllocator ids = this._ids.get (sequence);
+      if (ids == null) {
+         IdAllocator created = new IdAllocator (this, sequence);
+         ids = this._ids.putIfAbsent (sequence, created);
+         if (ids == null) ids = created;
+      }//end if
+      return ids;
+   }//end ids
+
+   /**
+    * Returns whether an index with the given name exists.  The answer is
+    * looked up once per name.
+    *
+    * @param name the index name, case insensitive
+    * @throws java.sql.SQLException when the catalog cannot be read
+    */
+   public boolean hasIndex (String name) throws SQLException {
+      String key = name.toLowerCase ();
+      Boolean exists = this._indexes.get (key);
+      if (exists == null) {
+         List<List<String>> rows = executeQueryAndReturnResult ("SELECT COUNT(*) FROM pg_indexes WHERE indexname = ?", key);
+         exists = Integer.parseInt (rows.get (0).get (0)) > 0;
+         this._indexes.put (key, exists);
+      }//end if
+      return exists.booleanValue ();
+   }//end hasIndex
+
+   /**
+    * Returns the counters of the statements run through this database.
+    */
+   public QueryStats statementStats () {
+      return this._statementStats;
+   }//end statementStats
+
+   /**
+    * Returns the counters of the menu operations run on this database.
+    */
+   public QueryStats operationStats () {
+      return this._operationStats;
+   }//end operationStats
+
+   /**
+    * Returns the statement cache counters, e.g. for printing on exit.
+    */
+   public String statementCacheStats () {
+      return this._pool.statementCacheStats ();
+   }//end statementCacheStats
+
+   /**
+    * Returns the connection pool counters, e.g. for printing on exit.
+    */
+   public String connectionPoolStats () {
+      if (this._router != null) return this._pool.stats () + "\n" + this._router.stats ();
+      return this._pool.stats ();
+   }//end connectionPoolStats
+
+   /**
+    * Method to close the pooled physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      synchronized (this) {
+         if (this._async != null) this._async.close ();
+      }//end synchronized
+      if (this._references != null){
+         this._references.stop ();
+      }//end if
+      if (this._snapshot != null){
+         this._snapshot.stop ();
+      }//end if
+      if (this._occupancy != null){
+         this._occupancy.stop ();
+      }//end if
+      if (this._leaderboard != null){
+         this._leaderboard.stop ();
+      }//end if
+      if (this._shardMap != null){
+         this._shardMap.close ();
+      }//end if
+      if (this._router != null){
+         this._router.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -165,6 +1109,74 @@ public class DBProject {
          String user = args[2];
          esql = new DBProject (dbname, dbport, user, "");
 
+         if (USE_SHARDS) {
+            System.out.print("Loading shard map...");
+            try{
+               esql.loadShardMap (user, "");
+               System.out.println("Done\n" + esql.getShardMap ().stats ());
+            }catch (SQLException e){
+               // every hotel is then read from and written to this database.
+               System.err.println("Error - Unable to load shard map: " + e.getMessage ());
+            }//end try
+         }//end if
+
+         // the in-memory engines below only read this database, so a sharded one answers from the shards.
+         boolean sharded = esql.getShardMap () != null;
+
+         if (USE_OCCUPANCY_INDEX && !sharded) {
+            System.out.print("Loading occupancy index...");
+            try{
+               esql.loadOccupancyIndex ();
+               System.out.println("Done\n" + esql.getOccupancyIndex ().stats ());
+            }catch (SQLException e){
+               // availability falls back to querying the database.
+               System.err.println("Error - Unable to load occupancy index: " + e.getMessage ());
+            }//end try
+         }//end if
+
+         if (USE_REPAIR_LEADERBOARD && !sharded) {
+            System.out.print("Loading repair leaderboard...");
+            try{
+               esql.loadRepairLeaderboard ();
+               System.out.println("Done\n" + esql.getRepairLeaderboard ().stats ());
+            }catch (SQLException e){
+               // topKMaintenanceCompany falls back to querying the database.
+               System.err.println("Error - Unable to load repair leaderboard: " + e.getMessage ());
+            }//end try
+         }//end if
+
+         if (USE_BOOKING_SNAPSHOT && !sharded) {
+            System.out.print("Loading booking snapshot...");
+            try{
+               esql.loadBookingSnapshot ();
+               System.out.println("Done\n" + esql.getBookingSnapshot ().stats ());
+            }catch (SQLException e){
+               // totalCostForCustomer falls back to querying the database.
+               System.err.println("Error - Unable to load booking snapshot: " + e.getMessage ());
+            }//end try
+         }//end if
+
+         if (USE_REFERENCE_CACHE) {
+            try{
+               esql.listenForReferenceChanges ();
+            }catch (SQLException e){
+               // cached lookups then only expire with their time to live.
+               System.err.println("Error - Unable to listen for reference changes: " + e.getMessage ());
+            }//end try
+         }//end if
+
+         if (PartitionMaintenance.YEARS_AHEAD >= 0) {
+            try{
+               // keeps new bookings and repairs out of the default partitions (migration 008).
+               if (PartitionMaintenance.isPartitioned (esql)) {
+                  int created = PartitionMaintenance.ensure (esql, PartitionMaintenance.YEARS_AHEAD);
+                  if (created > 0) System.out.println("Created " + created + " Booking and Repair partition(s)");
+               }//end if
+            }catch (SQLException e){
+               System.err.println("Error - Unable to create partitions: " + e.getMessage ());
+            }//end try
+         }//end if
+
          boolean keepon = true;
          while(keepon) {
             // These are sample SQL statements
@@ -186,7 +1198,8 @@ public class DBProject {
 				System.out.println("14. List the repairs made by maintenance company");
 				System.out.println("15. Get top k maintenance companies based on repair count");
 				System.out.println("16. Get number of repairs occurred per year for a given hotel room");
-				System.out.println("17. < EXIT");
+				System.out.println("17. Dashboard of a hotel room");
+				System.out.println("18. < EXIT");
 
             switch (readChoice()){
 				   case 1: addCustomer(esql); break;
@@ -205,7 +1218,8 @@ public class DBProject {
 				   case 14: listRepairsMade(esql); break;
 				   case 15: topKMaintenanceCompany(esql); break;
 				   case 16: numberOfRepairsForEachRoomPerYear(esql); break;
-				   case 17: keepon = false; break;
+				   case 17: dashboard(esql); break;
+				   case 18: keepon = false; break;
 				   default : System.out.println("Unrecognized choice!"); break;
             }//end switch
          }//end while
@@ -215,6 +1229,12 @@ public class DBProject {
          // make sure to cleanup the created table and close the connection.
          try{
             if(esql != null) {
+               System.out.println(esql.operationStats ().report ("operation"));
+               System.out.println(esql.statementStats ().report ("statement"));
+               System.out.println(esql.statementCacheStats ());
+               System.out.println(esql.connectionPoolStats ());
+               if (esql.getReferenceData () != null) System.out.println(esql.getReferenceData ().stats ());
+               if (esql.getShardMap () != null) System.out.println(esql.getShardMap ().stats ());
                System.out.print("Disconnecting from database...");
                esql.cleanup ();
                System.out.println("Done\n\nBye !");
@@ -255,7 +1275,6 @@ public class DBProject {
    
    public static void addCustomer(DBProject esql){
     // Given customer details add the customer in the DB 
- 	int customerID;
 	String phNo;
 	String fName;
 	String lName;
@@ -263,18 +1282,6 @@ public class DBProject {
 	String DOB;
 	String gender;
 
-	do{
-		System.out.print("Customer ID: ");
-		try{
-			customerID = Integer.parseInt(in.readLine());
-			break;
-		}catch(Exception e) {
-			System.err.println(e.getMessage());
-			continue;
-		}
-	}while(true);
-
-
         do{
                 System.out.print("First Name: ");
                 try{
@@ -354,16 +1361,14 @@ public class DBProject {
                 }
         }while(true);
 
-	try {
-     		String query = "INSERT INTO Customer VALUES (" + customerID + ", \'" + fName + "\', \'" + lName + "\', \'" +
-				 address + "\', " + phNo + ",\'" + DOB + "\',\'" + gender + "\')";
-		esql.executeQuery(query);
-	}catch(Exception e) {
-		System.err.println(e.getMessage());		
-	}	
-   }//end addCustomer
-
-   public static void addRoom(DBProject esql){
+        try {
+                System.out.println("Customer ID: " + esql.operations().addCustomer(fName, lName, address, phNo, DOB, gender));
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
+   }//end addCustomer
+
+   public static void addRoom(DBProject esql){
       // Given room details add the room in the DB
       int hotelID;
       int roomNo;
@@ -407,8 +1412,7 @@ public class DBProject {
 
 
         try {
-                String query = "INSERT INTO Room VALUES (" + hotelID + ", " + roomNo + ", \'" + roomType  + "\')";
-                esql.executeQuery(query);
+                esql.operations().addRoom(hotelID, roomNo, roomType);
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -416,22 +1420,10 @@ public class DBProject {
 
    public static void addMaintenanceCompany(DBProject esql){
         // Given maintenance Company details add the maintenance company in the DB
-        int cmpID;
         String name;
         String address;
 	String isCertified;
 
-        do{
-                System.out.print("Company ID: ");
-                try{
-                        cmpID = Integer.parseInt(in.readLine());
-                        break;
-                }catch(Exception e) {
-                        System.err.println(e.getMessage());
-                        continue;
-                }
-        }while(true);
-
         do{
                 System.out.print("Name: ");
                 try{
@@ -469,8 +1461,7 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "INSERT INTO MaintenanceCompany VALUES (" + cmpID + ",\'" + name + "\', \'" + address + "\'," + isCertified +")";
-                esql.executeQuery(query);
+                System.out.println("Company ID: " + esql.operations().addMaintenanceCompany(name, address, isCertified));
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -478,7 +1469,6 @@ public class DBProject {
 
    public static void addRepair(DBProject esql){
     // Given repair details add repair in the DB
-	int rID;
 	int hotelID;
 	int roomNo;
 	int mCompany;
@@ -486,17 +1476,6 @@ public class DBProject {
 	String description;
 	String repairType;
 	 
-	do{
-                System.out.print("Repair ID: ");
-                try{
-                        rID = Integer.parseInt(in.readLine());
-                        break;
-                }catch(Exception e) {
-                        System.err.println(e.getMessage());
-                        continue;
-                }
-        }while(true);
-
         do{
                 System.out.print("Hotel ID: ");
                 try{
@@ -568,18 +1547,14 @@ public class DBProject {
 
 
         try {
-		String query = "INSERT INTO Repair VALUES (" + rID + "," + hotelID + "," + roomNo + "," + mCompany + 
-					",\'" + repairDate + "\',\'" + description + "\',\'" + repairType + "\')";
-                esql.executeQuery(query);
+                System.out.println("Repair ID: " + esql.operations().addRepair(hotelID, roomNo, mCompany, repairDate, description, repairType));
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
-   
    }//end addRepair
 
    public static void bookRoom(DBProject esql){
       // Given hotelID, roomNo and customer Name create a booking in the DB 
-        int bID;
         int customer;
         int hotelID;
         int roomNo;
@@ -587,16 +1562,6 @@ public class DBProject {
         int price;
         String bookingDate;
   
-        do{
-            System.out.print("Booking ID: ");
-            try{
-              bID = Integer.parseInt(in.readLine());
-              break;
-            }catch(Exception e) {
-              System.err.println(e.getMessage());
-              continue;
-            }
-        }while(true);
   
   
         do{
@@ -669,12 +1634,15 @@ public class DBProject {
         }while(true);
   
         try {
-               String query = "INSERT INTO Booking VALUES (" + bID + ", " + customer + ", " + hotelID + 
-                                  ", " + roomNo + ",\'" + bookingDate + "\'," + noOfPeople + "," + price + ")";
-		esql.executeQuery(query);
+                long bID = esql.operations().bookRoom(customer, hotelID, roomNo, bookingDate, noOfPeople, price);
+                if (bID == 0) {
+                        System.out.println("Room " + roomNo + " of hotel " + hotelID + " is already booked on " + bookingDate);
+                }else{
+                        System.out.println("Booking ID: " + bID);
+                }
         }catch(Exception e) {
-                System.err.println(e.getMessage());   
-        } 
+                System.err.println(e.getMessage());
+        }
    }//end bookRoom
 
    public static void assignHouseCleaningToRoom(DBProject esql){
@@ -717,8 +1685,7 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "UPDATE Assigned SET roomNo = " + roomNo + " WHERE hotelID = " + hotelID + " and staffID = " + staffID;
-                esql.executeQuery(query);
+                esql.operations().assignHouseCleaningToRoom(staffID, hotelID, roomNo);
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -729,9 +1696,6 @@ public class DBProject {
         int hotelID;
         int ssn;
         int roomNo;
-
-        int reqID;
-        int managerID;
         int repairID;
         String requestDate;
         String description;
@@ -804,24 +1768,18 @@ public class DBProject {
           }
           while(true);
 
-          ResultSet rs = esql.executeQuery("SELECT h.manager FROM Hotel h WHERE h.hID = " + hotelID);
-          managerID = ((Number) rs.getObject(1)).intValue();
-
-          rs = esql.executeQuery("SELECT MAX(r.reqID) FROM Request");
-          reqID = ((Number) rs.getObject(1)).intValue() + 1;
-
-      try {
-            String query = "INSERT INTO Request VALUES (" + reqID + ", " + managerID + ", " + repairID + ", \'" +
-                                requestDate + "\', \'" + description + "\')";
-            esql.executeQuery(query);
-      }catch(Exception e) {
-          System.err.println(e.getMessage());
-      }
+        try {
+                System.out.println("Request ID: " + esql.operations().repairRequest(hotelID, repairID, requestDate, description));
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
    }//end repairRequest
    
    public static void numberOfAvailableRooms(DBProject esql){
-      // Given a hotelID, get the count of rooms available 
+      // Given a hotelID and date, get the count of rooms available 
         int hotelID;
+        String date;
+        int day;
         
         do{
                 System.out.print("Hotel ID: ");
@@ -833,14 +1791,23 @@ public class DBProject {
                         continue;
                 }
         }while(true);
+
+        do{
+                System.out.print("Date (YYYY-MM-DD): ");
+                try{
+                        date = in.readLine();
+                        day = OccupancyIndex.epochDay(date);
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
         
         try {
-                String query = "SELECT COUNT(*) FROM Room r WHERE r.roomNo IN (SELECT r.roomNo FROM Room r WHERE r.hotelID = " +
-                                    hotelID + ") AND r.roomNo NOT IN (SELECT r.roomNo FROM Room r, Booking b WHERE r.roomNo = b.roomNo AND b.hotelID = " +
-                                        hotelID + ")";
-                int rowCount = esql.executeQuery(query);
-                System.out.println("total row(s):" + rowCount);
-	}catch(Exception e) {
+                int available = esql.operations().numberOfAvailableRooms(hotelID, date);
+                System.out.println("Available rooms: " + available);
+        }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
    }//end numberOfAvailableRooms
@@ -861,9 +1828,8 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "SELECT COUNT(*) FROM Booking b WHERE b.hotelID = " + hotelID;
-                int rowCount = esql.executeQuery(query);
-		System.out.println("Total row(s): " + rowCount);
+                long booked = esql.operations().numberOfBookedRooms(hotelID);
+                System.out.println("Booked rooms: " + booked);
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -871,31 +1837,271 @@ public class DBProject {
    
    public static void listHotelRoomBookingsForAWeek(DBProject esql){
 	  // Given a hotelID, date - list all the rooms available for a week(including the input date) 
-      // Your code goes here.
-      // ...
-      // ...
+        int hotelID;
+        String startDate;
+        int firstDay;
+
+        do{
+                System.out.print("Hotel ID: ");
+                try{
+                        hotelID = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("Start Date (YYYY-MM-DD): ");
+                try{
+                        startDate = in.readLine();
+                        firstDay = OccupancyIndex.epochDay(startDate);
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        try {
+                if(PAGE_SIZE > 0) {
+                        browse(new String[] {"roomno", "roomtype"},
+                               esql.operations().listHotelRoomBookingsForAWeek(hotelID, startDate, PAGE_SIZE));
+                        return;
+                }
+                if(esql.getOccupancyIndex() != null) {
+                        List<List<String>> rooms = esql.operations().listHotelRoomBookingsForAWeek(hotelID, startDate);
+                        System.out.println("Total row(s): " + printTable(new String[] {"roomno", "roomtype"}, rooms));
+                        return;
+                }
+                String query = ROOMS_AVAILABLE_FOR_WEEK_SQL;
+                int rowCount = esql.shard(hotelID, false).executeQueryStreaming(query, FETCH_SIZE, hotelID, startDate, startDate);
+                System.out.println("Total row(s): " + rowCount);
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
    }//end listHotelRoomBookingsForAWeek
    
    public static void topKHighestRoomPriceForADateRange(DBProject esql){
 	  // List Top K Rooms with the highest price for a given date range
-      // Your code goes here.
-      // ...
-      // ...
+        String startDate;
+        String endDate;
+        int k;
+
+        do{
+                System.out.print("Start Date (YYYY-MM-DD): ");
+                try{
+                        startDate = in.readLine();
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("End Date (YYYY-MM-DD): ");
+                try{
+                        endDate = in.readLine();
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("K: ");
+                try{
+                        k = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        try {
+                List<List<String>> top = esql.operations().topKHighestRoomPriceForADateRange(startDate, endDate, k);
+                list(new String[] {"hotelid", "roomno", "bookingdate", "price"}, top);
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
    }//end topKHighestRoomPriceForADateRange
    
    public static void topKHighestPriceBookingsForACustomer(DBProject esql){
 	  // Given a customer Name, List Top K highest booking price for a customer 
-      // Your code goes here.
-      // ...
-      // ...
+        String fName;
+        String lName;
+        int k;
+
+        do{
+                System.out.print("First Name: ");
+                try{
+                        fName = in.readLine();
+                        if(fName.length() <= 0 || fName.length() > 30) {
+                                throw new RuntimeException("Invalid input: input is null or exceeds 30 characters...");
+                        }
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("Last Name: ");
+                try{
+                        lName = in.readLine();
+                        if(lName.length() <= 0 || lName.length() > 30) {
+                                throw new RuntimeException("Invalid input: input is null or exceeds 30 characters...");
+                        }
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("K: ");
+                try{
+                        k = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        try {
+                List<Integer> customers = chooseCustomers(esql, fName, lName);
+                if(customers.isEmpty()) return;
+                List<List<String>> top = esql.operations().topKHighestPriceBookingsForACustomer(customers, k);
+                list(new String[] {"bid", "hotelid", "roomno", "bookingdate", "price"}, top);
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
    }//end topKHighestPriceBookingsForACustomer
    
    public static void totalCostForCustomer(DBProject esql){
 	  // Given a hotelID, customer Name and date range get the total cost incurred by the customer
-      // Your code goes here.
-      // ...
-      // ...
+        int hotelID;
+        String fName;
+        String lName;
+        String startDate;
+        String endDate;
+
+        do{
+                System.out.print("Hotel ID: ");
+                try{
+                        hotelID = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("First Name: ");
+                try{
+                        fName = in.readLine();
+                        if(fName.length() <= 0 || fName.length() > 30) {
+                                throw new RuntimeException("Invalid input: input is null or exceeds 30 characters...");
+                        }
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("Last Name: ");
+                try{
+                        lName = in.readLine();
+                        if(lName.length() <= 0 || lName.length() > 30) {
+                                throw new RuntimeException("Invalid input: input is null or exceeds 30 characters...");
+                        }
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("Start Date (YYYY-MM-DD): ");
+                try{
+                        startDate = in.readLine();
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("End Date (YYYY-MM-DD): ");
+                try{
+                        endDate = in.readLine();
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        try {
+                List<Integer> customers = chooseCustomers(esql, fName, lName);
+                if(customers.isEmpty()) return;
+                String totalCost = esql.operations().totalCostForCustomer(hotelID, customers, startDate, endDate);
+                printTable(new String[] {"totalcost"}, Arrays.asList(Arrays.asList(totalCost)));
+                if(esql.getBookingSnapshot() != null) {
+                        System.out.println("From the booking snapshot: other desks' bookings count as of its last rebuild");
+                }
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
    }//end totalCostForCustomer
+
+   /**
+    * Finds the customers with a name.  When several share it, they are
+    * listed and one of them, or all, can be chosen; when none has it, the
+    * names that start with or look like it are listed instead.
+    *
+    * @return the customerIDs to report on, empty when no customer has the name
+    */
+   private static List<Integer> chooseCustomers(DBProject esql, String fName, String lName) throws SQLException, IOException {
+        CustomerNames names = esql.customerNames();
+        List<Integer> customers = names.resolve(fName, lName);
+        if(customers.isEmpty()) {
+                System.out.println("No customer named " + fName + " " + lName);
+                List<List<String>> similar = names.suggest(fName + " " + lName, CustomerNames.SUGGESTIONS);
+                if(!similar.isEmpty()) {
+                        System.out.println("Did you mean:");
+                        printTable(CustomerNames.COLUMNS, similar);
+                }
+                return customers;
+        }
+        if(customers.size() == 1) return customers;
+
+        printTable(CustomerNames.COLUMNS, names.details(customers));
+        do{
+                System.out.print(customers.size() + " customers share the name. Customer ID (empty for all of them): ");
+                String choice = in.readLine();
+                if(choice == null || choice.trim().isEmpty()) return customers;
+                try{
+                        Integer customerID = Integer.valueOf(choice.trim());
+                        if(customers.contains(customerID)) return Arrays.asList(customerID);
+                        System.err.println("Customer " + customerID + " is not one of them...");
+                }catch(NumberFormatException e) {
+                        System.err.println(e.getMessage());
+                }
+        }while(true);
+   }//end chooseCustomers
    
    public static void listRepairsMade(DBProject esql){
       // Given a Maintenance company name list all the repairs along with repairType, hotelID and roomNo
@@ -916,8 +2122,19 @@ public class DBProject {
         }while(true);
 
         try {
-                String query = "SELECT r.repairType, r.hotelID, r.roomNo FROM Repair r, MaintenanceCompany m WHERE r.mCompany = m.cmpID AND m.name = " + name;
-                esql.executeQuery(query);
+                if(PAGE_SIZE > 0) {
+                        browse(new String[] {"hotelid", "roomno", "rid", "repairtype"},
+                               esql.operations().listRepairsMade(name, PAGE_SIZE));
+                        return;
+                }
+                if(esql.getShardMap() != null) {
+                        List<List<String>> repairs = esql.operations().listRepairsMade(name);
+                        System.out.println("Total row(s): " + printTable(new String[] {"repairtype", "hotelid", "roomno"}, repairs));
+                        return;
+                }
+                String query = REPAIRS_MADE_SQL;
+                int rowCount = esql.executeQueryStreaming(query, FETCH_SIZE, name);
+                System.out.println("Total row(s): " + rowCount);
         }catch(Exception e) {
                 System.err.println(e.getMessage());
         }
@@ -925,16 +2142,145 @@ public class DBProject {
    
    public static void topKMaintenanceCompany(DBProject esql){
 	  // List Top K Maintenance Company Names based on total repair count (descending order)
-      // Your code goes here.
-      // ...
-      // ...
+        int k;
+
+        do{
+                System.out.print("K: ");
+                try{
+                        k = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        try {
+                List<List<String>> top = esql.operations().topKMaintenanceCompany(k);
+                list(new String[] {"name", "repaircount"}, top);
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
    }//end topKMaintenanceCompany
    
    public static void numberOfRepairsForEachRoomPerYear(DBProject esql){
 	  // Given a hotelID, roomNo, get the count of repairs per year
-      // Your code goes here.
-      // ...
-      // ...
+        int hotelID;
+        int roomNo;
+
+        do{
+                System.out.print("Hotel ID: ");
+                try{
+                        hotelID = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("Room Number: ");
+                try{
+                        roomNo = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        try {
+                List<List<String>> years = esql.operations().numberOfRepairsForEachRoomPerYear(hotelID, roomNo);
+                printTable(new String[] {"repairyear", "repaircount"}, years);
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
    }//end listRepairsMade
 
+   @SuppressWarnings("unchecked")
+   public static void dashboard(DBProject esql){
+      // Given a hotelID, roomNo and K, run the booked rooms, repairs per year and top K companies reports at once
+        int hotelID;
+        int roomNo;
+        int k;
+
+        do{
+                System.out.print("Hotel ID: ");
+                try{
+                        hotelID = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("Room Number: ");
+                try{
+                        roomNo = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        do{
+                System.out.print("K: ");
+                try{
+                        k = Integer.parseInt(in.readLine());
+                        break;
+                }catch(Exception e) {
+                        System.err.println(e.getMessage());
+                        continue;
+                }
+        }while(true);
+
+        try {
+                final Operations operations = esql.operations();
+                final int h = hotelID, r = roomNo, top = k;
+                List<Future<?>> reports = new ArrayList<Future<?>>();
+                reports.add(esql.submit(new Callable<Long>() {
+                        public Long call() throws Exception {
+                                return operations.numberOfBookedRooms(h);
+                        }
+                }));
+                reports.add(esql.submit(new Callable<List<List<String>>>() {
+                        public List<List<String>> call() throws Exception {
+                                return operations.numberOfRepairsForEachRoomPerYear(h, r);
+                        }
+                }));
+                reports.add(esql.submit(new Callable<List<List<String>>>() {
+                        public List<List<String>> call() throws Exception {
+                                return operations.topKMaintenanceCompany(top);
+                        }
+                }));
+                long start = System.nanoTime();
+                List<Object> results = AsyncQueries.join(reports, DASHBOARD_TIMEOUT_MS);
+
+                System.out.println("Booked rooms of hotel " + hotelID + ":");
+                if (results.get(0) instanceof Throwable) System.err.println(((Throwable) results.get(0)).getMessage());
+                else System.out.println(results.get(0));
+                System.out.println("Repairs per year of room " + roomNo + ":");
+                if (results.get(1) instanceof Throwable) System.err.println(((Throwable) results.get(1)).getMessage());
+                else printTable(new String[] {"repairyear", "repaircount"}, (List<List<String>>) results.get(1));
+                System.out.println("Top " + k + " maintenance companies:");
+                if (results.get(2) instanceof Throwable) System.err.println(((Throwable) results.get(2)).getMessage());
+                else printTable(new String[] {"name", "repaircount"}, (List<List<String>>) results.get(2));
+                if (esql.getBookingSnapshot() != null) {
+                        // summed in memory, so not worth a query of its own.
+                        int year = Calendar.getInstance().get(Calendar.YEAR);
+                        System.out.println("Revenue of hotel " + hotelID + " in " + year + ": " +
+                                           esql.getBookingSnapshot().revenue(hotelID, OccupancyIndex.epochDay(year + "-01-01"),
+                                                                             OccupancyIndex.epochDay(year + "-12-31")) +
+                                           " (other desks' bookings as of the last snapshot rebuild)");
+                }
+                System.out.println(String.format("Dashboard done in %.1f ms", (System.nanoTime() - start) / 1e6));
+        }catch(Exception e) {
+                System.err.println(e.getMessage());
+        }
+   }//end dashboard
+
 }//end DBProject
@@ -0,0 +1,382 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class writes the nine csv files of the data folder at any multiple
+ * of the size of the bundled data set, with the same shape:
+ *
+ *   - every hotel has 10 rooms (50% Economy, 30% Suite, 20% Deluxe) and 5
+ *     staff (a manager, 2 receptionists, 2 house cleaners), and its
+ *     manager is left \N for the back-fill UPDATE of create.sql,
+ *   - every customer has 2 bookings, priced 500 to 1999 on dates from 2000
+ *     to 2018 with three times as many bookings per day from 2010 on, and
+ *     no room is booked twice on a day,
+ *   - repairs, requests and assignments refer to existing rooms, repairs
+ *     and staff, requests are raised by the manager of the repaired hotel,
+ *   - every file starts with the row-0 "default" sentinel.
+ *
+ * Every row is computed from its table and row number alone, so the rows
+ * are produced in chunks on all cores and written in order while only a
+ * few chunks per thread are held in memory.
+ *
+ */
+public class DataGenerator {
+
+   static final int THREADS = Integer.getInteger("dbproject.gen.threads",
+                                                 Runtime.getRuntime().availableProcessors());
+   static final long SEED = Long.getLong("dbproject.gen.seed", 166L);
+   // booking prices are 500 + 1500 * u^PRICE_SKEW; 1 is uniform like the bundled data.
+   static final double PRICE_SKEW = Double.parseDouble(System.getProperty("dbproject.gen.priceSkew", "1"));
+   // rows generated per task.
+   static final int CHUNK_ROWS = 65536;
+
+   // rows of the bundled data set, excluding the sentinels.
+   static final long HOTELS = 1000, CUSTOMERS = 2000, COMPANIES = 20, BOOKINGS = 4000,
+                     REPAIRS = 2000, REQUESTS = 2000, ASSIGNMENTS = 2000;
+   static final int ROOMS_PER_HOTEL = 10, STAFF_PER_HOTEL = 5;
+   static final String[] STAFF_ROLES = {"Manager", "Receptionist", "HouseCleaning", "Receptionist", "HouseCleaning"};
+
+   // booking days: 2000-2009 once, 2010-2018 three times.
+   static final int BOOKING_FIRST_DAY = OccupancyIndex.epochDay("2000-01-01");
+   static final int BOOKING_BUSY_DAY = OccupancyIndex.epochDay("2010-01-01");
+   static final int BOOKING_DAYS = OccupancyIndex.epochDay("2019-01-01") - BOOKING_FIRST_DAY;
+   // step between the bookings of one room, coprime to BOOKING_DAYS.
+   static final int BOOKING_DAY_STRIDE = 389;
+
+   /**
+    * One generated table.
+    */
+   private interface Table {
+      /**
+       * Appends row i, 0 being the sentinel, without a line break.
+       */
+      void row (long i, Rng rng, StringBuilder out);
+   }//end Table
+
+   /**
+    * The random values of one row, a splitmix64 sequence seeded from the
+    * table and row number.
+    */
+   static class Rng {
+      private long _state;
+
+      Rng (long seed, int table, long row) {
+         this._state = mix (seed ^ mix (table * 0x632BE59BD9B4E019L + row));
+      }//end Rng
+
+      long nextLong () {
+         this._state += 0x9E3779B97F4A7C15L;
+         return mix (this._state);
+      }//end nextLong
+
+      /**
+       * Returns a value in [0, n).
+       */
+      long nextLong (long n) {
+         return (nextLong () >>> 1) % n;
+      }//end nextLong
+
+      double nextDouble () {
+         return (nextLong () >>> 11) * 0x1.0p-53;
+      }//end nextDouble
+
+      void letters (int n, StringBuilder out) {
+         for (int i = 0; i < n; ++i) out.append ((char) ('a' + nextLong (26)));
+      }//end letters
+
+      private static long mix (long z) {
+         z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+         z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+         return z ^ (z >>> 31);
+      }//end mix
+   }//end Rng
+
+   private final File _folder;
+   private final long _hotels, _customers, _companies, _bookings, _repairs, _requests, _assignments;
+   private final long _rooms;
+   private final long _roomStep, _customerStep;
+
+   /**
+    * Creates a generator
+    *
+    * @param scale the multiple of the bundled data set
+    * @param folder the folder the csv files are written to
+    */
+   public DataGenerator (double scale, File folder) {
+      this._folder = folder;
+      this._hotels = scaled (HOTELS, scale);
+      this._customers = scaled (CUSTOMERS, scale);
+      this._companies = scaled (COMPANIES, scale);
+      this._bookings = scaled (BOOKINGS, scale);
+      this._repairs = scaled (REPAIRS, scale);
+      this._requests = Math.min (scaled (REQUESTS, scale), this._repairs);
+      this._assignments = scaled (ASSIGNMENTS, scale);
+      this._rooms = this._hotels * ROOMS_PER_HOTEL;
+      if (this._bookings > this._rooms * BOOKING_DAYS) {
+         throw new IllegalArgumentException ("Too many bookings for " + this._rooms + " rooms");
+      }//end if
+      // steps coprime to the counts walk every room and customer once per round.
+      this._roomStep = coprimeStep (this._rooms);
+      this._customerStep = coprimeStep (this._customers);
+   }//end DataGenerator
+
+   /**
+    * Writes the nine csv files.
+    */
+   public void run () throws Exception {
+      if (!this._folder.isDirectory () && !this._folder.mkdirs ()) {
+         throw new IllegalArgumentException ("Cannot create " + this._folder);
+      }//end if
+      ExecutorService pool = Executors.newFixedThreadPool (Math.max (1, THREADS));
+      try{
+         write (pool, "hotel.csv", 1, this._hotels, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,default,\\N"); return; }
+               out.append (i).append (',');
+               rng.letters (6, out);
+               out.append (",\\N");
+            }
+         });
+         write (pool, "staff.csv", 2, this._hotels * STAFF_PER_HOTEL, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,default,default,default,Manager,0"); return; }
+               out.append (i).append (',');
+               rng.letters (4, out);
+               out.append (',');
+               rng.letters (4, out);
+               out.append (',');
+               rng.letters (6, out);
+               out.append (',').append (STAFF_ROLES[(int) ((i - 1) % STAFF_PER_HOTEL)]);
+               out.append (',').append ((i - 1) / STAFF_PER_HOTEL + 1);
+            }
+         });
+         write (pool, "room.csv", 3, this._rooms, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,0,default"); return; }
+               out.append ((i - 1) / ROOMS_PER_HOTEL + 1).append (',').append ((i - 1) % ROOMS_PER_HOTEL + 1);
+               long type = rng.nextLong (10);
+               out.append (type < 5 ? ",Economy" : type < 8 ? ",Suite" : ",Deluxe");
+            }
+         });
+         write (pool, "customer.csv", 4, this._customers, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,default,default,default,0,1/1/2000,Male"); return; }
+               out.append (i).append (',');
+               rng.letters (4, out);
+               out.append (',');
+               rng.letters (4, out);
+               out.append (',');
+               rng.letters (6, out);
+               // 8 to 10 digits, mostly 10
+               out.append (',').append (10000000L + rng.nextLong (9990000000L)).append (',');
+               usDate (OccupancyIndex.epochDay ("1900-01-01") + (int) rng.nextLong (36524), out);
+               long gender = rng.nextLong (20);
+               out.append (gender < 7 ? ",Female" : gender < 14 ? ",Male" : ",Other");
+            }
+         });
+         write (pool, "maintenanceCompany.csv", 5, this._companies, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,default,default,TRUE"); return; }
+               out.append (i).append (',');
+               rng.letters (4, out);
+               out.append (',');
+               rng.letters (6, out);
+               out.append (",TRUE");
+            }
+         });
+         write (pool, "booking.csv", 6, this._bookings, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,0,0,0,1/1/2000,0,0"); return; }
+               long k = i - 1;
+               long room = (k % _rooms) * _roomStep % _rooms;
+               long round = k / _rooms;
+               long customer = (k % _customers) * _customerStep % _customers + 1;
+               // the first booking day of a room is drawn from the skewed days, the next ones are spread from it.
+               Rng roomRng = new Rng (SEED, 6, -1 - room);
+               int day = (int) ((bookingDay (roomRng) + round * BOOKING_DAY_STRIDE) % BOOKING_DAYS);
+               out.append (i).append (',').append (customer);
+               out.append (',').append (room / ROOMS_PER_HOTEL + 1).append (',').append (room % ROOMS_PER_HOTEL + 1);
+               out.append (',');
+               usDate (BOOKING_FIRST_DAY + day, out);
+               out.append (',').append (1 + rng.nextLong (3));
+               out.append (',').append (500 + (long) (1500 * Math.pow (rng.nextDouble (), PRICE_SKEW)));
+            }
+         });
+         write (pool, "repair.csv", 7, this._repairs, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,0,0,0,1/1/2000,default,Small"); return; }
+               long hotel = repairHotel (i);
+               out.append (i).append (',').append (hotel).append (',').append (1 + rng.nextLong (ROOMS_PER_HOTEL));
+               out.append (',').append (1 + rng.nextLong (_companies)).append (',');
+               usDate (repairDay (i), out);
+               out.append (',');
+               rng.letters (4, out);
+               long type = rng.nextLong (100);
+               out.append (type < 36 ? ",Large" : type < 68 ? ",Medium" : ",Small");
+            }
+         });
+         write (pool, "request.csv", 8, this._requests, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,0,0,1/1/2000,default"); return; }
+               // request i is for repair i, raised by the manager of its hotel within 60 days
+               long manager = (repairHotel (i) - 1) * STAFF_PER_HOTEL + 1;
+               out.append (i).append (',').append (manager).append (',').append (i).append (',');
+               usDate (repairDay (i) + (int) rng.nextLong (61), out);
+               out.append (',');
+               rng.letters (4, out);
+            }
+         });
+         write (pool, "assigned.csv", 9, this._assignments, new Table () {
+            public void row (long i, Rng rng, StringBuilder out) {
+               if (i == 0) { out.append ("0,0,0,0"); return; }
+               long hotel = 1 + rng.nextLong (_hotels);
+               // the house cleaners are the 3rd and 5th staff member of a hotel
+               long staff = (hotel - 1) * STAFF_PER_HOTEL + (rng.nextLong (2) == 0 ? 3 : 5);
+               out.append (i).append (',').append (staff).append (',').append (hotel);
+               out.append (',').append (1 + rng.nextLong (ROOMS_PER_HOTEL));
+            }
+         });
+      }finally{
+         pool.shutdownNow ();
+      }//end try
+   }//end run
+
+   /**
+    * Writes rows 0 to rows of a table, generating chunks in parallel and
+    * writing them in order.
+    */
+   private void write (ExecutorService pool, String name, final int tableNo, long rows, final Table table) throws Exception {
+      long start = System.nanoTime ();
+      System.out.print ("Writing " + name + "...");
+      Writer out = new BufferedWriter (new OutputStreamWriter (new FileOutputStream (new File (this._folder, name)),
+                                                               "US-ASCII"), 1 << 16);
+      Deque<Future<String>> inFlight = new ArrayDeque<Future<String>> ();
+      try{
+         for (long first = 0; first <= rows; first += CHUNK_ROWS) {
+            final long from = first;
+            final long to = Math.min (rows, first + CHUNK_ROWS - 1);
+            // bounds memory to a few chunks per thread.
+            if (inFlight.size () >= 2 * THREADS) out.write (inFlight.poll ().get ());
+            inFlight.add (pool.submit (new Callable<String> () {
+               public String call () {
+                  StringBuilder chunk = new StringBuilder ((int) (to - from + 1) * 48);
+                  for (long i = from; i <= to; ++i) {
+                     table.row (i, new Rng (SEED, tableNo, i), chunk);
+                     chunk.append ("\r\n");
+                  }//end for
+                  return chunk.toString ();
+               }
+            }));
+         }//end for
+         while (!inFlight.isEmpty ()) out.write (inFlight.poll ().get ());
+      }finally{
+         out.close ();
+      }//end try
+      System.out.printf ("Done (%d rows, %.1f s)%n", rows + 1, (System.nanoTime () - start) / 1e9);
+   }//end write
+
+   /**
+    * Returns the hotel of repair i, which its request also needs.
+    */
+   private long repairHotel (long i) {
+      return 1 + new Rng (SEED, 7, -i).nextLong (this._hotels);
+   }//end repairHotel
+
+   /**
+    * Returns the day of repair i, from 2005 to 2018.
+    */
+   private static int repairDay (long i) {
+      Rng rng = new Rng (SEED, 7, -i);
+      rng.nextLong ();
+      return OccupancyIndex.epochDay ("2005-01-01") + (int) rng.nextLong (5113);
+   }//end repairDay
+
+   /**
+    * Draws a booking day, as days since BOOKING_FIRST_DAY, with every day
+    * from 2010 on weighted three times.
+    */
+   private static long bookingDay (Rng rng) {
+      long quiet = BOOKING_BUSY_DAY - BOOKING_FIRST_DAY;
+      long x = rng.nextLong (quiet + 3 * (BOOKING_DAYS - quiet));
+      return x < quiet ? x : quiet + (x - quiet) / 3;
+   }//end bookingDay
+
+   private static void usDate (int epochDay, StringBuilder out) {
+      int[] date = OccupancyIndex.civilDate (epochDay);
+      out.append (date[1]).append ('/').append (date[2]).append ('/').append (date[0]);
+   }//end usDate
+
+   private static long scaled (long rows, double scale) {
+      return Math.max (1, Math.round (rows * scale));
+   }//end scaled
+
+   /**
+    * Returns a large step with gcd(step, n) = 1, so i * step mod n visits
+    * every value below n once for i below n.
+    */
+   private static long coprimeStep (long n) {
+      long step = Math.max (1, (long) (n * 0.618));
+      while (gcd (step, n) != 1) ++step;
+      return step;
+   }//end coprimeStep
+
+   private static long gcd (long a, long b) {
+      while (b != 0) {
+         long t = a % b;
+         a = b;
+         b = t;
+      }//end while
+      return a;
+   }//end gcd
+
+   /**
+    * The main execution method
+    *
+    * @param args <scale factor> [output folder]
+    */
+   public static void main (String[] args) {
+      if (args.length < 1) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName () +
+            " <scale factor> [output folder]");
+         return;
+      }//end if
+
+      try{
+         double scale = Double.parseDouble (args[0]);
+         File folder = new File (args.length > 1 ? args[1] : "../data/sf" + args[0]);
+         long start = System.nanoTime ();
+         new DataGenerator (scale, folder).run ();
+         System.out.printf ("Generated scale factor %s in %s (%.1f s)%n", args[0], folder,
+                            (System.nanoTime () - start) / 1e9);
+      }catch (Exception e){
+         System.err.println ("Error - Generation failed: " + e.getMessage ());
+         System.exit(-1);
+      }//end try
+   }//end main
+
+}//end DataGenerator
@@ -0,0 +1,510 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * This class exports a whole table, a report or any SELECT to a file, in
+ * the layout of the data/*.csv files, so an export can be loaded again by
+ * BulkLoader or BatchImporter.  The rows are comma separated in COPY text
+ * format, without a header, with \N for NULL and ISO dates; a comma,
+ * backslash or line break within a value is escaped with a backslash,
+ * which both loaders read back.  With dbproject.export.format=binary the
+ * file is in the COPY binary format instead, which only COPY FROM reads.
+ * Output files ending in .gz are gzipped, and have to be gunzipped before
+ * they are loaded.
+ *
+ * Rows are streamed through COPY ... TO STDOUT when the JDBC driver on the
+ * classpath provides org.postgresql.copy.CopyManager.  The bundled 7.3
+ * driver does not, so with it the rows are read through a cursor,
+ * DBProject.FETCH_SIZE at a time, and written in COPY text format here;
+ * the binary format needs COPY.  Either way memory use does not grow with
+ * the rows.
+ *
+ * A table is exported in parts on dbproject.export.threads connections at
+ * once: one part per yearly partition of a partitioned table (migration
+ * 008), or one range of the first column per thread otherwise.  Every part
+ * reads the same exported snapshot, so the export is consistent, and the
+ * parts are written to files of their own that are joined in order at the
+ * end.  A binary export is one part, as the format has one header.
+ *
+ * Only the database exported from is read, so the exporter refuses to run
+ * once ShardMap puts hotels on other shards.
+ *
+ */
+public class Exporter {
+
+   // number of parts exported at the same time.
+   static final int THREADS = Integer.getInteger("dbproject.export.threads",
+                                                 Runtime.getRuntime().availableProcessors());
+
+   // csv, in the layout of data/*.csv, or binary.
+   static final String FORMAT = System.getProperty("dbproject.export.format", "csv");
+
+   // whether the output is gzipped even when its name does not end in .gz.
+   static final boolean GZIP = Boolean.parseBoolean(System.getProperty("dbproject.export.gzip", "false"));
+
+   static final int BUFFER_SIZE = 1 << 16;
+
+   private static final Pattern QUERY = Pattern.compile("\\s*(SELECT|WITH)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+   private static final Pattern IDENTIFIER = Pattern.compile("\\w+");
+
+   static final String PARTITIONS_SQL =
+      "SELECT c.relname FROM pg_inherits i, pg_class c " +
+      "WHERE i.inhparent = CAST(lower(?) AS regclass) AND c.oid = i.inhrelid ORDER BY c.relname";
+   static final String FIRST_COLUMN_SQL =
+      "SELECT a.attname, format_type(a.atttypid, NULL), a.attnotnull FROM pg_attribute a " +
+      "WHERE a.attrelid = CAST(lower(?) AS regclass) AND a.attnum = 1";
+
+   /**
+    * One query whose rows are written to one file.
+    */
+   static class Part {
+      final String name;
+      final String query;
+      File file;
+      Future<Long> done;
+
+      Part (String name, String query) {
+         this.name = name;
+         this.query = query;
+      }//end Part
+   }//end Part
+
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+   private final boolean _binary;
+   private final boolean _gzip;
+
+   /**
+    * Creates a new exporter
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param binary whether to write the COPY binary format instead of CSV
+    * @param gzip whether to gzip the output
+    */
+   public Exporter (String url, String user, String passwd, boolean binary, boolean gzip) {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._binary = binary;
+      this._gzip = gzip;
+   }//end Exporter
+
+   /**
+    * Exports a table, a report or a query to a file
+    *
+    * @param source a table name, the name of a DBProject report SQL such as
+    *        TOP_K_ROOM_PRICE_SQL, or a SELECT
+    * @param params the values of the ? parameters of a report or query
+    * @param out the file to write
+    * @return the number of rows exported
+    * @throws java.lang.Exception when a part cannot be read or written, or
+    *         the database has hotels on other shards
+    */
+   public long export (String source, List<String> params, File out) throws Exception {
+      long start = System.nanoTime();
+      Connection conn = connect();
+      try{
+         ShardMap.refuseSharded(conn, "export");
+         // the parts read the rows as of this transaction's snapshot.
+         conn.setAutoCommit(false);
+         execute(conn, "SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+         execute(conn, "SET DateStyle = 'ISO, MDY'");
+         String snapshot = single(conn, "SELECT pg_export_snapshot()");
+
+         List<Part> parts = parts(conn, source, params);
+         long rows;
+         if (parts.size() == 1) {
+            parts.get(0).file = out;
+            rows = exportPart(conn, parts.get(0));
+         }else{
+            // the parts are written next to the output, so joining them is a copy within the file system.
+            for (Part part : parts) {
+               part.file = File.createTempFile("export-" + part.name.replaceAll("\\W", "_") + "-", ".part",
+                                               out.getAbsoluteFile().getParentFile());
+               part.file.deleteOnExit();
+            }//end for
+            rows = exportParts(parts, snapshot);
+            join(parts, out);
+         }//end if
+         conn.commit();
+         System.out.printf("Exported %d rows to %s in %.1f ms%n", rows, out, (System.nanoTime() - start) / 1e6);
+         return rows;
+      }finally{
+         conn.close();
+      }//end try
+   }//end export
+
+   /**
+    * Splits the export of a source into parts.
+    */
+   private List<Part> parts (Connection conn, String source, List<String> params) throws Exception {
+      List<Part> parts = new ArrayList<Part>();
+      if (QUERY.matcher(source).matches()) {
+         parts.add(new Part("query", inline(source, params)));
+         return parts;
+      }//end if
+      String report = report(source);
+      if (report != null) {
+         parts.add(new Part(source, inline(report, params)));
+         return parts;
+      }//end if
+      if (!IDENTIFIER.matcher(source).matches()) {
+         throw new IllegalArgumentException("Not a table, report or SELECT: " + source);
+      }//end if
+      if (!params.isEmpty()) {
+         throw new IllegalArgumentException("A table export takes no parameters");
+      }//end if
+
+      String table = source.toLowerCase();
+      if (this._binary || THREADS <= 1) {
+         parts.add(new Part(table, "SELECT * FROM " + table));
+         return parts;
+      }//end if
+
+      // a partitioned table is read partition by partition.
+      for (List<String> row : query(conn, PARTITIONS_SQL, table)) {
+         String partition = row.get(0);
+         parts.add(new Part(partition, "SELECT * FROM " + partition));
+      }//end for
+      if (!parts.isEmpty()) return parts;
+
+      // any other table by ranges of an integer first column.
+      List<String> column = query(conn, FIRST_COLUMN_SQL, table).get(0);
+      String key = column.get(0);
+      boolean integer = Arrays.asList("smallint", "integer", "bigint").contains(column.get(1));
+      if (integer && column.get(2).startsWith("t")) {
+         List<String> bounds = query(conn, "SELECT MIN(" + key + "), MAX(" + key + ") FROM " + table).get(0);
+         if (bounds.get(0) != null) {
+            long min = Long.parseLong(bounds.get(0)), max = Long.parseLong(bounds.get(1));
+            long step = Math.max(1, (max - min) / THREADS + 1);
+            for (long lo = min; lo <= max; lo += step) {
+               String where = lo + step > max ? key + " >= " + lo : key + " >= " + lo + " AND " + key + " < " + (lo + step);
+               parts.add(new Part(table + "[" + lo + "]", "SELECT * FROM " + table + " WHERE " + where));
+            }//end for
+            return parts;
+         }//end if
+      }//end if
+      parts.add(new Part(table, "SELECT * FROM " + table));
+      return parts;
+   }//end parts
+
+   /**
+    * Exports every part to a file of its own next to the output, each on
+    * its own connection importing the given snapshot.
+    *
+    * @return the number of rows exported
+    */
+   private long exportParts (List<Part> parts, final String snapshot) throws Exception {
+      ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, parts.size())));
+      long rows = 0;
+      try{
+         for (Part part : parts) {
+            final Part current = part;
+            current.done = pool.submit(new Callable<Long>() {
+               public Long call () throws Exception {
+                  Connection conn = connect();
+                  try{
+                     conn.setAutoCommit(false);
+                     execute(conn, "SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+                     execute(conn, "SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+                     execute(conn, "SET DateStyle = 'ISO, MDY'");
+                     long t = System.nanoTime();
+                     long n = exportPart(conn, current);
+                     conn.commit();
+                     System.out.printf("   %-20s %10d rows in %8.1f ms%n", current.name, n, (System.nanoTime() - t) / 1e6);
+                     return n;
+                  }finally{
+                     conn.close();
+                  }//end try
+               }
+            });
+         }//end for
+         for (Part part : parts) {
+            rows += waitFor(part.done);
+         }//end for
+         return rows;
+      }finally{
+         pool.shutdownNow();
+      }//end try
+   }//end exportParts
+
+   /**
+    * Appends the part files to the output in order and deletes them.  Each
+    * part is a complete gzip member, and gzip readers read members joined
+    * one after another as one stream.
+    */
+   private void join (List<Part> parts, File out) throws IOException {
+      FileChannel to = new FileOutputStream(out).getChannel();
+      try{
+         for (Part part : parts) {
+            FileChannel from = new FileInputStream(part.file).getChannel();
+            try{
+               long size = from.size();
+               for (long done = 0; done < size; ) {
+                  done += from.transferTo(done, size - done, to);
+               }//end for
+            }finally{
+               from.close();
+            }//end try
+            part.file.delete();
+         }//end for
+      }finally{
+         to.close();
+      }//end try
+   }//end join
+
+   /**
+    * Writes the rows of one part to its file.
+    *
+    * @return the number of rows written
+    */
+   private long exportPart (Connection conn, Part part) throws Exception {
+      OutputStream out = new FileOutputStream(part.file);
+      if (this._gzip) out = new GZIPOutputStream(out, BUFFER_SIZE);
+      try{
+         Object copyManager = copyManager(conn);
+         if (copyManager != null) {
+            Method copyOut = copyManager.getClass().getMethod("copyOut", String.class, OutputStream.class);
+            String format = this._binary ? "(FORMAT binary)" : "(FORMAT text, DELIMITER ',')";
+            return ((Number) copyOut.invoke(copyManager, "COPY (" + part.query + ") TO STDOUT " + format, out)).longValue();
+         }//end if
+         if (this._binary) {
+            throw new SQLException("A binary export needs a JDBC driver with org.postgresql.copy.CopyManager");
+         }//end if
+         return cursor(conn, part.query, out);
+      }finally{
+         out.close();
+      }//end try
+   }//end exportPart
+
+   /**
+    * Reads the rows of a query through a cursor and writes them in COPY
+    * text format with a comma delimiter.
+    *
+    * @return the number of rows written
+    */
+   private static long cursor (Connection conn, String query, OutputStream out) throws SQLException, IOException {
+      Writer csv = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+      Statement stmt = conn.createStatement();
+      long rows = 0;
+      try{
+         stmt.execute("DECLARE export_cursor NO SCROLL CURSOR FOR " + query);
+         int batch = Math.max(1, DBProject.FETCH_SIZE);
+         String fetchSql = "FETCH FORWARD " + batch + " FROM export_cursor";
+         while (true) {
+            ResultSet rs = stmt.executeQuery(fetchSql);
+            int columns = rs.getMetaData().getColumnCount();
+            int fetched = 0;
+            while (rs.next()) {
+               for (int i = 1; i <= columns; ++i) {
+                  if (i > 1) csv.write(',');
+                  escape(csv, rs.getString(i));
+               }//end for
+               csv.write('\n');
+               ++fetched;
+            }//end while
+            rs.close();
+            rows += fetched;
+            if (fetched < batch) break;
+         }//end while
+         stmt.execute("CLOSE export_cursor");
+         csv.flush();
+         return rows;
+      }finally{
+         stmt.close();
+      }//end try
+   }//end cursor
+
+   /**
+    * Writes a value as COPY text format writes it with a comma delimiter.
+    */
+   static void escape (Writer out, String value) throws IOException {
+      if (value == null) {
+         out.write("\\N");
+         return;
+      }//end if
+      for (int i = 0; i < value.length(); ++i) {
+         char c = value.charAt(i);
+         switch (c) {
+            case '\\': out.write("\\\\"); break;
+            case ',': out.write("\\,"); break;
+            case '\n': out.write("\\n"); break;
+            case '\r': out.write("\\r"); break;
+            case '\t': out.write("\\t"); break;
+            default: out.write(c);
+         }//end switch
+      }//end for
+   }//end escape
+
+   /**
+    * Returns the SQL of a DBProject report by the name of its constant, or
+    * null if there is no such report.
+    */
+   static String report (String name) {
+      if (!name.endsWith("_SQL")) return null;
+      try{
+         Object sql = DBProject.class.getDeclaredField(name).get(null);
+         return sql instanceof String && QUERY.matcher((String) sql).matches() ? (String) sql : null;
+      }catch (Exception e){
+         return null;
+      }//end try
+   }//end report
+
+   /**
+    * Replaces the ? parameters of a query with quoted literals, as COPY
+    * takes no parameters.  Question marks inside quotes are left alone.
+    */
+   static String inline (String query, List<String> params) {
+      StringBuilder sql = new StringBuilder();
+      boolean inString = false;
+      int next = 0;
+      for (int i = 0; i < query.length(); ++i) {
+         char c = query.charAt(i);
+         if (c == '\'') inString = !inString;
+         if (c == '?' && !inString) {
+            if (next >= params.size()) {
+               throw new IllegalArgumentException("Missing a value for parameter " + (next + 1));
+            }//end if
+            sql.append('\'').append(params.get(next++).replace("'", "''")).append('\'');
+         }else{
+            sql.append(c);
+         }//end if
+      }//end for
+      if (next < params.size()) {
+         throw new IllegalArgumentException("The query takes " + next + " parameter(s), not " + params.size());
+      }//end if
+      return sql.toString();
+   }//end inline
+
+   /**
+    * Returns a CopyManager for the connection if the driver has one.
+    */
+   private static Object copyManager (Connection conn) {
+      try{
+         Class<?> base = Class.forName("org.postgresql.core.BaseConnection");
+         if (!base.isInstance(conn)) return null;
+         Class<?> manager = Class.forName("org.postgresql.copy.CopyManager");
+         return manager.getConstructor(base).newInstance(conn);
+      }catch (Exception e){
+         return null;
+      }//end try
+   }//end copyManager
+
+   private static List<List<String>> query (Connection conn, String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = conn.prepareStatement(sql);
+      try{
+         DBProject.bind(stmt, params);
+         ResultSet rs = stmt.executeQuery();
+         int columns = rs.getMetaData().getColumnCount();
+         List<List<String>> rows = new ArrayList<List<String>>();
+         while (rs.next()) {
+            List<String> row = new ArrayList<String>();
+            for (int i = 1; i <= columns; ++i) row.add(rs.getString(i));
+            rows.add(row);
+         }//end while
+         rs.close();
+         return rows;
+      }finally{
+         stmt.close();
+      }//end try
+   }//end query
+
+   private static String single (Connection conn, String sql) throws SQLException {
+      return query(conn, sql).get(0).get(0);
+   }//end single
+
+   private static void execute (Connection conn, String sql) throws SQLException {
+      Statement stmt = conn.createStatement();
+      try{
+         stmt.execute(sql);
+      }finally{
+         stmt.close();
+      }//end try
+   }//end execute
+
+   private static <T> T waitFor (Future<T> future) throws Exception {
+      try{
+         return future.get();
+      }catch (ExecutionException e){
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception) throw (Exception) cause;
+         throw e;
+      }//end try
+   }//end waitFor
+
+   private Connection connect () throws SQLException {
+      return DriverManager.getConnection(this._url, this._user, this._passwd);
+   }//end connect
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <table|report|query> <output file> [parameters...]
+    */
+   public static void main (String[] args) {
+      if (args.length < 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Exporter.class.getName () +
+            " <dbname> <port> <user> <table|report|query> <output file> [parameters...]");
+         return;
+      }//end if
+
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         File out = new File(args[4]);
+         boolean binary = FORMAT.equalsIgnoreCase("binary");
+         if (!binary && !FORMAT.equalsIgnoreCase("csv")) {
+            throw new IllegalArgumentException("Unknown format " + FORMAT + ": expected csv or binary");
+         }//end if
+         Exporter exporter = new Exporter(url, args[2], "", binary, GZIP || args[4].endsWith(".gz"));
+         exporter.export(args[3], Arrays.asList(args).subList(5, args.length), out);
+      }catch (Exception e){
+         System.err.println ("Error - Export failed: " + e.getMessage ());
+         System.exit(-1);
+      }//end try
+   }//end main
+
+}//end Exporter
@@ -0,0 +1,240 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class measures how the date-driven reports slow down as Booking and
+ * Repair gather history.  In rounds it adds whole years of bookings and
+ * repairs before the oldest year in the database, up to each count of
+ * dbproject.history.years, and times the reports over dates of the loaded
+ * data after every round.  With the yearly partitions of migration 008
+ * the reports over a date range read the same partitions whatever the
+ * history, so their latency stays flat; without them it grows with it.
+ * numberOfRepairsForEachRoomPerYear counts every year of a room, so it
+ * grows either way.
+ *
+ * The added rows have negative ids and are deleted again at the end,
+ * unless dbproject.history.keep=true.  Results are printed and appended as
+ * CSV to dbproject.history.out.
+ *
+ */
+public class HistoryBenchmark {
+
+   // total years of history added before each measurement.
+   static final String YEARS = System.getProperty("dbproject.history.years", "0,5,10,20");
+   static final int BOOKINGS_PER_ROOM = Integer.getInteger("dbproject.history.bookingsPerRoom", 12);
+   static final int REPAIRS_PER_ROOM = Integer.getInteger("dbproject.history.repairsPerRoom", 2);
+   // calls of every report per measurement, cycling through the samples.
+   static final int RUNS = Integer.getInteger("dbproject.history.runs", 50);
+   static final int K = Integer.getInteger("dbproject.bench.k", 10);
+   static final boolean KEEP = Boolean.parseBoolean(System.getProperty("dbproject.history.keep", "false"));
+   static final String OUT = System.getProperty("dbproject.history.out", "history-results.csv");
+
+   static final String CSV_HEADER = "history_years,partitioned,report,calls,p50_us,p99_us,max_us";
+
+   // the rows of a year get ids -(year * ID_SPACE + n).
+   static final long ID_SPACE = 1000000000L;
+
+   // spreads the bookings of every room over the days of a year, and its customers over all customers.
+   static final String BOOKING_HISTORY_SQL =
+      "WITH c AS (SELECT array_agg(customerID ORDER BY customerID) AS ids FROM Customer WHERE customerID > 0) " +
+      "INSERT INTO Booking SELECT -(CAST(? AS BIGINT) * " + ID_SPACE + " + row_number() OVER ()), " +
+      "c.ids[1 + (r.hotelID * 31 + r.roomNo * 7 + d.i) % array_length(c.ids, 1)], r.hotelID, r.roomNo, " +
+      "CAST(? AS DATE) + d.i * (365 / CAST(? AS INTEGER)), 1 + d.i % 3, 500 + (r.hotelID * 13 + d.i * 17) % 1500 " +
+      "FROM c, Room r, generate_series(0, CAST(? AS INTEGER) - 1) AS d(i) WHERE r.hotelID > 0";
+   static final String REPAIR_HISTORY_SQL =
+      "WITH m AS (SELECT array_agg(cmpID ORDER BY cmpID) AS ids FROM MaintenanceCompany WHERE cmpID > 0) " +
+      "INSERT INTO Repair SELECT -(CAST(? AS BIGINT) * " + ID_SPACE + " + row_number() OVER ()), r.hotelID, r.roomNo, " +
+      "m.ids[1 + (r.hotelID * 17 + r.roomNo * 5 + d.i) % array_length(m.ids, 1)], " +
+      "CAST(? AS DATE) + d.i * (365 / CAST(? AS INTEGER)) + r.roomNo % 7, 'history', " +
+      "(ARRAY['Small', 'Medium', 'Large'])[1 + d.i % 3] " +
+      "FROM m, Room r, generate_series(0, CAST(? AS INTEGER) - 1) AS d(i) WHERE r.hotelID > 0";
+   static final String FIRST_YEAR_SQL =
+      "SELECT EXTRACT(YEAR FROM LEAST((SELECT MIN(bookingDate) FROM Booking), (SELECT MIN(repairDate) FROM Repair)))";
+
+   private final DBProject _esql;
+   private final boolean _partitioned;
+
+   // inputs of the reports, each row sampled from the loaded data.
+   private List<List<String>> _bookings;
+   private List<List<String>> _repairs;
+
+   // the year before which history is added, and the years added so far.
+   private int _firstYear;
+   private int _added = 0;
+
+   /**
+    * Creates a benchmark of the given database
+    *
+    * @param esql the database
+    * @throws java.sql.SQLException when the database cannot be sampled
+    */
+   public HistoryBenchmark (DBProject esql) throws SQLException {
+      this._esql = esql;
+      this._partitioned = PartitionMaintenance.isPartitioned (esql);
+      this._bookings = sample ("SELECT b.hotelID, b.bookingDate, b.bookingDate + 90, b.customer " +
+                               "FROM Booking b WHERE b.bID > 0 ORDER BY random() LIMIT ?");
+      this._repairs = sample ("SELECT r.hotelID, r.roomNo FROM Repair r WHERE r.rID > 0 ORDER BY random() LIMIT ?");
+      String first = esql.executeQueryAndReturnResult (FIRST_YEAR_SQL).get (0).get (0);
+      this._firstYear = (int) Double.parseDouble (first.trim ());
+   }//end HistoryBenchmark
+
+   /**
+    * Adds years of history until there are the given number.
+    */
+   void addHistory (int years) throws SQLException {
+      while (this._added < years) {
+         int year = this._firstYear - 1 - this._added;
+         String yearStart = year + "-01-01";
+         if (this._partitioned) {
+            for (String table : PartitionMaintenance.TABLES) {
+               this._esql.executeQueryAndReturnResult ("SELECT ensureDatePartitions(?, CAST(? AS DATE), CAST(? AS DATE))",
+                                                       table, yearStart, yearStart);
+            }//end for
+         }//end if
+         long t = System.nanoTime ();
+         int bookings = this._esql.executeUpdate (BOOKING_HISTORY_SQL, year, yearStart, BOOKINGS_PER_ROOM, BOOKINGS_PER_ROOM);
+         int repairs = this._esql.executeUpdate (REPAIR_HISTORY_SQL, year, yearStart, REPAIRS_PER_ROOM, REPAIRS_PER_ROOM);
+         System.out.printf ("   %d: %d bookings, %d repairs in %.1f ms%n", year, bookings, repairs, (System.nanoTime () - t) / 1e6);
+         ++this._added;
+      }//end while
+      this._esql.executeUpdate ("ANALYZE Booking");
+      this._esql.executeUpdate ("ANALYZE Repair");
+   }//end addHistory
+
+   /**
+    * Times every report RUNS times.
+    *
+    * @return the latencies of every report
+    */
+   Map<String, LatencyHistogram> measure () throws SQLException {
+      Map<String, LatencyHistogram> results = new LinkedHashMap<String, LatencyHistogram> ();
+      for (int pass = -1; pass < 1; ++pass) {
+         // the first pass warms the caches and is not counted.
+         results.clear ();
+         LatencyHistogram week = new LatencyHistogram ();
+         LatencyHistogram cost = new LatencyHistogram ();
+         LatencyHistogram topK = new LatencyHistogram ();
+         LatencyHistogram repairs = new LatencyHistogram ();
+         results.put ("listHotelRoomBookingsForAWeek", week);
+         results.put ("totalCostForCustomer", cost);
+         results.put ("topKHighestRoomPriceForADateRange", topK);
+         results.put ("numberOfRepairsForEachRoomPerYear", repairs);
+         for (int i = 0; i < RUNS; ++i) {
+            List<String> b = this._bookings.get (i % this._bookings.size ());
+            List<String> r = this._repairs.get (i % this._repairs.size ());
+            int hotelID = Integer.parseInt (b.get (0).trim ());
+            time (week, DBProject.ROOMS_AVAILABLE_FOR_WEEK_SQL, hotelID, b.get (1), b.get (1));
+            time (cost, DBProject.TOTAL_COST_FOR_CUSTOMER_SQL, hotelID, "{" + b.get (3).trim () + "}", b.get (1), b.get (2));
+            time (topK, DBProject.TOP_K_ROOM_PRICE_SQL, b.get (1), b.get (2), K);
+            time (repairs, DBProject.REPAIRS_PER_YEAR_SQL, Integer.parseInt (r.get (0).trim ()), Integer.parseInt (r.get (1).trim ()));
+         }//end for
+      }//end for
+      return results;
+   }//end measure
+
+   private void time (LatencyHistogram latencies, String sql, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      this._esql.executeQueryAndReturnResult (sql, params);
+      latencies.record (System.nanoTime () - start);
+   }//end time
+
+   /**
+    * Deletes the added history.
+    */
+   void cleanup () throws SQLException {
+      this._esql.executeUpdate ("DELETE FROM Booking b WHERE b.bID < 0");
+      this._esql.executeUpdate ("DELETE FROM Repair r WHERE r.rID < 0");
+   }//end cleanup
+
+   private List<List<String>> sample (String query) throws SQLException {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult (query, Math.max (1, RUNS));
+      if (rows.isEmpty ()) throw new SQLException ("No sample rows for the benchmark: " + query);
+      return rows;
+   }//end sample
+
+   /**
+    * Prints the results and appends them to the CSV output.
+    */
+   void report (int years, Map<String, LatencyHistogram> results) throws IOException {
+      System.out.printf ("%n%-40s %10s %12s %12s%n", "report (" + years + " years of history)", "calls", "p50 us", "p99 us");
+      File out = new File (OUT);
+      boolean header = !out.exists () || out.length () == 0;
+      PrintWriter csv = new PrintWriter (new FileWriter (out, true));
+      try{
+         if (header) csv.println (CSV_HEADER);
+         for (Map.Entry<String, LatencyHistogram> entry : results.entrySet ()) {
+            LatencyHistogram h = entry.getValue ();
+            double p50 = h.percentile (0.50) / 1e3;
+            double p99 = h.percentile (0.99) / 1e3;
+            System.out.printf ("%-40s %10d %12.1f %12.1f%n", entry.getKey (), h.count (), p50, p99);
+            csv.printf ("%d,%s,%s,%d,%.1f,%.1f,%.1f%n", years, this._partitioned, entry.getKey (), h.count (), p50, p99,
+                        h.max () / 1e3);
+         }//end for
+      }finally{
+         csv.close ();
+      }//end try
+   }//end report
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user>
+    */
+   public static void main (String[] args) {
+      if (args.length != 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HistoryBenchmark.class.getName () +
+            " <dbname> <port> <user>");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      HistoryBenchmark benchmark = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         esql = new DBProject (url, args[2], "", 1);
+         benchmark = new HistoryBenchmark (esql);
+         System.out.println ("Booking and Repair are " + (benchmark._partitioned ? "" : "not ") + "partitioned");
+         List<Integer> rounds = new ArrayList<Integer> ();
+         for (String years : YEARS.split (",")) rounds.add (Integer.parseInt (years.trim ()));
+         for (int years : rounds) {
+            benchmark.addHistory (years);
+            benchmark.report (years, benchmark.measure ());
+         }//end for
+         System.out.println ("\nResults appended to " + OUT);
+      }catch (Exception e){
+         System.err.println ("Error - Benchmark failed: " + e.getMessage ());
+      }finally{
+         try{
+            if (benchmark != null && !KEEP) benchmark.cleanup ();
+         }catch (SQLException e){
+            System.err.println ("Error - Unable to delete the added history: " + e.getMessage ());
+         }//end try
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end HistoryBenchmark
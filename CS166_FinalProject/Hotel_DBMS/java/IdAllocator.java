@@ -0,0 +1,98 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class hands out the ids of one table in blocks reserved from a
+ * database sequence, in the hi/lo manner.  A call to nextval reserves the
+ * block [value, value + increment), whose ids are then given out from
+ * memory with an atomic increment; only the thread that finds the block
+ * used up goes back to the database, for the next block.
+ *
+ * Ids are never handed out twice, by this process or any other using the
+ * sequence, also across restarts.  The ids of a block not used up when the
+ * process stops are skipped.
+ *
+ */
+public class IdAllocator {
+
+   // reserves a block and reads its size in one round trip.
+   static final String NEXT_BLOCK_SQL =
+      "SELECT nextval(CAST(? AS regclass)), s.seqincrement FROM pg_sequence s WHERE s.seqrelid = CAST(? AS regclass)";
+
+   /**
+    * A reserved block of ids.
+    */
+   private static class Block {
+      final AtomicLong next;
+      final long end;
+
+      Block (long first, long end) {
+         this.next = new AtomicLong (first);
+         this.end = end;
+      }//end Block
+   }//end Block
+
+   private final DBProject _esql;
+   private final String _sequence;
+   private volatile Block _block = new Block (0, 0);
+
+   /**
+    * Creates an allocator of the ids of a sequence
+    *
+    * @param esql the database holding the sequence
+    * @param sequence the name of the sequence
+    */
+   public IdAllocator (DBProject esql, String sequence) {
+      this._esql = esql;
+      this._sequence = sequence;
+   }//end IdAllocator
+
+   /**
+    * Returns a new id.
+    *
+    * @throws java.sql.SQLException when a new block cannot be reserved
+    */
+   public long next () throws SQLException {
+      while (true) {
+         Block block = this._block;
+         long id = block.next.getAndIncrement ();
+         if (id < block.end) return id;
+         synchronized (this) {
+            // another thread may have reserved the next block meanwhile.
+            if (this._block == block) this._block = reserve ();
+         }//end synchronized
+      }//end while
+   }//end next
+
+   /**
+    * Returns a new id that fits an INTEGER column.
+    */
+   public int nextInt () throws SQLException {
+      long id = next ();
+      if (id > Integer.MAX_VALUE) throw new SQLException (this._sequence + " is past the INTEGER range");
+      return (int) id;
+   }//end nextInt
+
+   private Block reserve () throws SQLException {
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult (NEXT_BLOCK_SQL, this._sequence, this._sequence);
+      if (rows.isEmpty ()) throw new SQLException ("No sequence " + this._sequence + "; apply migration 006");
+      long first = Long.parseLong (rows.get (0).get (0).trim ());
+      long size = Long.parseLong (rows.get (0).get (1).trim ());
+      return new Block (first, first + Math.max (1, size));
+   }//end reserve
+
+}//end IdAllocator
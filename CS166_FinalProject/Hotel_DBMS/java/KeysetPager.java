@@ -0,0 +1,142 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class pages through a query by seeking on the key of the rows
+ * already shown instead of skipping them with OFFSET.  The next page starts
+ * after the last key of the current page and the previous page ends before
+ * its first key, so with an index on the key columns every page costs the
+ * same however deep the user pages.
+ *
+ * The query must have a WHERE clause and no ORDER BY, and its first
+ * columns must be the key columns, which must be integers.
+ *
+ */
+public class KeysetPager implements DBProject.Pager {
+
+   private final DBProject _esql;
+   private final Object[] _params;
+   private final int _keyCount;
+   private final int _pageSize;
+   private final String _firstSql;
+   private final String _forwardSql;
+   private final String _backwardSql;
+
+   // keys of the first and last row of the current page, null before the first page.
+   private Object[] _firstKey = null;
+   private Object[] _lastKey = null;
+   private boolean _hasNext = true;
+   private boolean _hasPrevious = false;
+
+   /**
+    * Creates a new pager positioned before the first page
+    *
+    * @param esql the database to query
+    * @param query the query to page through
+    * @param keys the key column expressions, e.g. r.hotelID, in key order
+    * @param pageSize the number of rows per page
+    * @param params the values bound to the placeholders of the query
+    */
+   public KeysetPager (DBProject esql, String query, String[] keys, int pageSize, Object... params) {
+      this._esql = esql;
+      this._params = params;
+      this._keyCount = keys.length;
+      this._pageSize = Math.max (1, pageSize);
+
+      StringBuilder columns = new StringBuilder ();
+      StringBuilder marks = new StringBuilder ();
+      StringBuilder ascending = new StringBuilder (" ORDER BY ");
+      StringBuilder descending = new StringBuilder (" ORDER BY ");
+      for (int i = 0; i < keys.length; ++i) {
+         String sep = i == 0 ? "" : ", ";
+         columns.append (sep).append (keys[i]);
+         marks.append (sep).append ('?');
+         ascending.append (sep).append (keys[i]);
+         descending.append (sep).append (keys[i]).append (" DESC");
+      }//end for
+      String seek = " AND (" + columns + ") %s (" + marks + ")";
+      this._firstSql = query + ascending + " LIMIT ?";
+      this._forwardSql = query + String.format (seek, ">") + ascending + " LIMIT ?";
+      this._backwardSql = query + String.format (seek, "<") + descending + " LIMIT ?";
+   }//end KeysetPager
+
+   /**
+    * Returns the page after the current one, or the first page when none
+    * has been read yet.
+    */
+   public List<List<String>> next () throws SQLException {
+      if (!this._hasNext) return new ArrayList<List<String>> ();
+      boolean started = this._lastKey != null;
+      List<List<String>> page = started ? fetch (this._forwardSql, this._lastKey)
+                                        : fetch (this._firstSql, null);
+      this._hasNext = page.size () > this._pageSize;
+      if (this._hasNext) page.remove (page.size () - 1);
+      if (page.isEmpty ()) return page;
+      this._hasPrevious = started;
+      position (page);
+      return page;
+   }//end next
+
+   /**
+    * Returns the page before the current one.
+    */
+   public List<List<String>> previous () throws SQLException {
+      if (!this._hasPrevious) return new ArrayList<List<String>> ();
+      List<List<String>> page = fetch (this._backwardSql, this._firstKey);
+      this._hasPrevious = page.size () > this._pageSize;
+      if (this._hasPrevious) page.remove (page.size () - 1);
+      if (page.isEmpty ()) return page;
+      Collections.reverse (page);
+      this._hasNext = true;
+      position (page);
+      return page;
+   }//end previous
+
+   public boolean hasNext () {
+      return this._hasNext;
+   }//end hasNext
+
+   public boolean hasPrevious () {
+      return this._hasPrevious;
+   }//end hasPrevious
+
+   /**
+    * Runs one page query, asking for one row more than a page to learn
+    * whether another page follows.
+    */
+   private List<List<String>> fetch (String sql, Object[] key) throws SQLException {
+      int keyCount = key == null ? 0 : key.length;
+      Object[] params = new Object[this._params.length + keyCount + 1];
+      System.arraycopy (this._params, 0, params, 0, this._params.length);
+      if (key != null) System.arraycopy (key, 0, params, this._params.length, keyCount);
+      params[params.length - 1] = this._pageSize + 1;
+      return this._esql.executeQueryAndReturnResult (sql, params);
+   }//end fetch
+
+   private void position (List<List<String>> page) {
+      this._firstKey = key (page.get (0));
+      this._lastKey = key (page.get (page.size () - 1));
+   }//end position
+
+   private Object[] key (List<String> row) {
+      Object[] key = new Object[this._keyCount];
+      for (int i = 0; i < this._keyCount; ++i) key[i] = Long.valueOf (row.get (i).trim ());
+      return key;
+   }//end key
+
+}//end KeysetPager
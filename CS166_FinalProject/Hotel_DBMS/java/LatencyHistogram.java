@@ -0,0 +1,111 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * This class counts latencies in log-linear buckets, in the manner of an
+ * HdrHistogram: values below 128 ns are counted exactly and every power of
+ * two above is split into 64 buckets, so a percentile is within 1.6% of the
+ * recorded value whatever its magnitude, in a fixed 30 KB.
+ *
+ * A histogram is not thread safe; give every thread its own and add them
+ * up afterwards.
+ *
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 7;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   private static final int HALF = SUB_BUCKETS / 2;
+   private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF;
+
+   private final long[] _counts = new long[BUCKETS];
+   private long _count = 0;
+   private long _sum = 0;
+   private long _max = 0;
+
+   /**
+    * Records one latency.
+    *
+    * @param nanos the latency in nanoseconds
+    */
+   public void record (long nanos) {
+      long value = Math.max (0, nanos);
+      ++this._counts[index (value)];
+      ++this._count;
+      this._sum += value;
+      if (value > this._max) this._max = value;
+   }//end record
+
+   /**
+    * Adds the latencies of another histogram to this one.
+    */
+   public void add (LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) this._counts[i] += other._counts[i];
+      this._count += other._count;
+      this._sum += other._sum;
+      this._max = Math.max (this._max, other._max);
+   }//end add
+
+   public long count () {
+      return this._count;
+   }//end count
+
+   /**
+    * Returns the largest latency recorded, in nanoseconds.
+    */
+   public long max () {
+      return this._max;
+   }//end max
+
+   /**
+    * Returns the mean latency in nanoseconds.
+    */
+   public double mean () {
+      return this._count == 0 ? 0 : (double) this._sum / this._count;
+   }//end mean
+
+   /**
+    * Returns the latency at or below which the given fraction of the
+    * recorded latencies are, in nanoseconds.
+    *
+    * @param p the fraction, from 0 to 1
+    */
+   public long percentile (double p) {
+      if (this._count == 0) return 0;
+      long rank = Math.max (1, (long) Math.ceil (p * this._count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += this._counts[i];
+         if (seen >= rank) return Math.min (highest (i), this._max);
+      }//end for
+      return this._max;
+   }//end percentile
+
+   private static int index (long value) {
+      if (value < SUB_BUCKETS) return (int) value;
+      int magnitude = 63 - Long.numberOfLeadingZeros (value);
+      int shift = magnitude - SUB_BUCKET_BITS + 1;
+      return SUB_BUCKETS + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+   }//end index
+
+   /**
+    * Returns the largest value counted in the given bucket.
+    */
+   private static long highest (int index) {
+      if (index < SUB_BUCKETS) return index;
+      int shift = (index - SUB_BUCKETS) / HALF + 1;
+      long mantissa = (index - SUB_BUCKETS) % HALF + HALF;
+      return ((mantissa + 1) << shift) - 1;
+   }//end highest
+
+}//end LatencyHistogram
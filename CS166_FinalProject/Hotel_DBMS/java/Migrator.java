@@ -0,0 +1,292 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class applies the versioned schema migrations in sql/migrations to
+ * an existing database.  A migration file is named <version>_<name>.sql and
+ * records itself in the SchemaVersion table, so every file is applied once,
+ * in version order.
+ *
+ * Before and after applying the pending migrations it times the SQL of the
+ * 16 menu operations against sample rows of the database and prints both
+ * timings side by side.  Writes are timed inside a transaction that is
+ * rolled back, so the report leaves the data unchanged.
+ *
+ */
+public class Migrator {
+
+   // executions per query; the median is reported.
+   static final int REPORT_RUNS = Integer.getInteger("dbproject.migrate.reportRuns", 5);
+
+   private static final Pattern MIGRATION_FILE = Pattern.compile("(\\d+)_.*\\.sql");
+
+   private final Connection _connection;
+   private final File _folder;
+
+   /**
+    * Creates a new migrator
+    *
+    * @param connection the database to migrate
+    * @param folder the folder holding the migration files
+    */
+   public Migrator (Connection connection, File folder) {
+      this._connection = connection;
+      this._folder = folder;
+   }//end Migrator
+
+   /**
+    * Returns the migration files not yet recorded in SchemaVersion, in
+    * version order.
+    */
+   public List<File> pending () throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      Set<Integer> applied = new HashSet<Integer>();
+      try{
+         stmt.execute("CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL, description TEXT, " +
+                      "appliedOn TIMESTAMP NOT NULL DEFAULT now(), PRIMARY KEY(version))");
+         ResultSet rs = stmt.executeQuery("SELECT version FROM SchemaVersion");
+         while (rs.next()) applied.add(rs.getInt(1));
+         rs.close();
+      }finally{
+         stmt.close();
+      }//end try
+
+      File[] files = this._folder.listFiles(new FilenameFilter() {
+         public boolean accept (File dir, String name) {
+            return MIGRATION_FILE.matcher(name).matches();
+         }
+      });
+      List<File> pending = new ArrayList<File>();
+      if (files == null) return pending;
+      Arrays.sort(files);
+      for (File file : files) {
+         if (!applied.contains(version(file))) pending.add(file);
+      }//end for
+      return pending;
+   }//end pending
+
+   /**
+    * Applies one migration file.  The file manages its own transaction; if a
+    * statement fails the transaction is rolled back.
+    */
+   public void apply (File migration) throws Exception {
+      Statement stmt = this._connection.createStatement();
+      try{
+         for (String sql : BulkLoader.readStatements(migration)) {
+            stmt.execute(sql);
+         }//end for
+      }catch (SQLException e){
+         try{
+            stmt.execute("ROLLBACK");
+         }catch (SQLException ignored){
+            // not inside a transaction.
+         }//end try
+         throw new SQLException(migration.getName() + ": " + e.getMessage());
+      }finally{
+         stmt.close();
+      }//end try
+   }//end apply
+
+   /**
+    * Times the SQL of every menu operation against sample rows of the
+    * database.
+    *
+    * @return median milliseconds per operation, in menu order
+    */
+   public Map<String, Double> timeMenuQueries () throws SQLException {
+      // sample rows every operation can use as its inputs
+      List<String> booking = sample("SELECT b.customer, b.hotelID, b.roomNo, b.bookingDate, c.fName, c.lName " +
+                                    "FROM Booking b, Customer c WHERE c.customerID = b.customer AND b.bID > 0 " +
+                                    "ORDER BY b.bID LIMIT 1");
+      List<String> repair = sample("SELECT r.rID, r.mCompany, m.name FROM Repair r, MaintenanceCompany m " +
+                                   "WHERE m.cmpID = r.mCompany AND r.rID > 0 ORDER BY r.rID LIMIT 1");
+      List<String> assigned = sample("SELECT a.staffID FROM Assigned a WHERE a.asgID > 0 ORDER BY a.asgID LIMIT 1");
+      int customer = Integer.parseInt(booking.get(0));
+      int hotelID = Integer.parseInt(booking.get(1));
+      int roomNo = Integer.parseInt(booking.get(2));
+      String date = booking.get(3);
+      String fName = booking.get(4).trim();
+      String lName = booking.get(5).trim();
+      long rID = Long.parseLong(repair.get(0));
+      int cmpID = Integer.parseInt(repair.get(1));
+      String company = repair.get(2).trim();
+      int staffID = Integer.parseInt(assigned.get(0));
+
+      Map<String, Double> timings = new LinkedHashMap<String, Double>();
+      boolean autoCommit = this._connection.getAutoCommit();
+      this._connection.setAutoCommit(false);
+      try{
+         time(timings, "1. addCustomer", DBProject.ADD_CUSTOMER_SQL,
+              -1, "report", "report", "report", "0", "2000-01-01", "Other");
+         time(timings, "2. addRoom", DBProject.ADD_ROOM_SQL, hotelID, -1, "Suite");
+         time(timings, "3. addMaintenanceCompany", DBProject.ADD_MAINTENANCE_COMPANY_SQL,
+              -1, "report", "report", "TRUE");
+         time(timings, "4. addRepair", DBProject.ADD_REPAIR_SQL,
+              -1, hotelID, roomNo, cmpID, date, "report", "Small");
+         // a day the room is free, or the insert does nothing once Booking is unique on room and date
+         time(timings, "5. bookRoom", DBProject.BOOK_ROOM_SQL, -1, customer, hotelID, roomNo, "2100-01-01", 1, 100);
+         time(timings, "6. assignHouseCleaningToRoom", DBProject.ASSIGN_HOUSE_CLEANING_SQL, roomNo, hotelID, staffID);
+         time(timings, "7. repairRequest", DBProject.REPAIR_REQUEST_SQL, -1, rID, date, "report", hotelID);
+         time(timings, "8. numberOfAvailableRooms", DBProject.AVAILABLE_ROOMS_SQL, hotelID, date);
+         time(timings, "9. numberOfBookedRooms", DBProject.BOOKED_ROOMS_SQL, hotelID);
+         time(timings, "10. listHotelRoomBookingsForAWeek", DBProject.ROOMS_AVAILABLE_FOR_WEEK_SQL, hotelID, date, date);
+         time(timings, "11. topKHighestRoomPriceForADateRange", DBProject.TOP_K_ROOM_PRICE_SQL,
+              "2015-01-01", "2015-12-31", 10);
+         // 12 and 13 take the customerIDs of a name, looked up first
+         time(timings, "12/13. customer name lookup", DBProject.CUSTOMER_IDS_BY_NAME_SQL, fName, lName);
+         time(timings, "12. topKHighestPriceBookingsForACustomer", DBProject.TOP_K_CUSTOMER_BOOKINGS_SQL, "{" + customer + "}", 10, 10);
+         time(timings, "13. totalCostForCustomer", DBProject.TOTAL_COST_FOR_CUSTOMER_SQL,
+              hotelID, "{" + customer + "}", "2000-01-01", "2030-12-31");
+         time(timings, "14. listRepairsMade", DBProject.REPAIRS_MADE_SQL, company);
+         time(timings, "15. topKMaintenanceCompany", DBProject.TOP_K_MAINTENANCE_COMPANY_SQL, 10);
+         time(timings, "16. numberOfRepairsForEachRoomPerYear", DBProject.REPAIRS_PER_YEAR_SQL, hotelID, roomNo);
+      }finally{
+         this._connection.rollback();
+         this._connection.setAutoCommit(autoCommit);
+      }//end try
+      return timings;
+   }//end timeMenuQueries
+
+   /**
+    * Runs one statement REPORT_RUNS times, rolling back after every run, and
+    * records the median time.
+    */
+   private void time (Map<String, Double> timings, String name, String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = this._connection.prepareStatement(sql);
+      double[] runs = new double[Math.max(1, REPORT_RUNS)];
+      try{
+         for (int i = 0; i < runs.length; ++i) {
+            DBProject.bind(stmt, params);
+            long start = System.nanoTime();
+            if (stmt.execute()) {
+               ResultSet rs = stmt.getResultSet();
+               while (rs.next()) { }
+               rs.close();
+            }//end if
+            runs[i] = (System.nanoTime() - start) / 1e6;
+            this._connection.rollback();
+         }//end for
+      }catch (SQLException e){
+         this._connection.rollback();
+         throw new SQLException(name + ": " + e.getMessage());
+      }finally{
+         stmt.close();
+      }//end try
+      Arrays.sort(runs);
+      timings.put(name, runs[runs.length / 2]);
+   }//end time
+
+   private List<String> sample (String query) throws SQLException {
+      Statement stmt = this._connection.createStatement();
+      try{
+         ResultSet rs = stmt.executeQuery(query);
+         if (!rs.next()) throw new SQLException("No sample rows for the timing report: " + query);
+         List<String> row = new ArrayList<String>();
+         for (int i = 1; i <= rs.getMetaData().getColumnCount(); ++i) row.add(rs.getString(i));
+         rs.close();
+         return row;
+      }finally{
+         stmt.close();
+      }//end try
+   }//end sample
+
+   private static int version (File migration) {
+      Matcher m = MIGRATION_FILE.matcher(migration.getName());
+      m.matches();
+      return Integer.parseInt(m.group(1));
+   }//end version
+
+   /**
+    * Prints the before and after timings side by side.
+    */
+   static void printReport (Map<String, Double> before, Map<String, Double> after) {
+      System.out.printf("%-42s %12s %12s %9s%n", "operation", "before ms", "after ms", "speedup");
+      for (Map.Entry<String, Double> entry : after.entrySet()) {
+         Double old = before == null ? null : before.get(entry.getKey());
+         if (old == null) {
+            System.out.printf("%-42s %12s %12.3f %9s%n", entry.getKey(), "-", entry.getValue(), "-");
+         }else{
+            System.out.printf("%-42s %12.3f %12.3f %8.1fx%n", entry.getKey(), old, entry.getValue(),
+                              old / Math.max(entry.getValue(), 0.001));
+         }//end if
+      }//end for
+   }//end printReport
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [migrations folder]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Migrator.class.getName () +
+            " <dbname> <port> <user> [migrations folder]");
+         return;
+      }//end if
+
+      Connection conn = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         conn = DriverManager.getConnection(url, args[2], "");
+         Migrator migrator = new Migrator(conn, new File(args.length > 3 ? args[3] : "../sql/migrations"));
+
+         List<File> pending = migrator.pending();
+         if (pending.isEmpty()) {
+            System.out.println("Schema is up to date.");
+            printReport(null, migrator.timeMenuQueries());
+            return;
+         }//end if
+
+         Map<String, Double> before = migrator.timeMenuQueries();
+         for (File migration : pending) {
+            System.out.print("Applying " + migration.getName() + "...");
+            long start = System.nanoTime();
+            migrator.apply(migration);
+            System.out.printf("Done (%.1f ms)%n", (System.nanoTime() - start) / 1e6);
+         }//end for
+         printReport(before, migrator.timeMenuQueries());
+      }catch (Exception e){
+         System.err.println ("Error - Migration failed: " + e.getMessage ());
+         System.exit(-1);
+      }finally{
+         try{
+            if (conn != null) conn.close();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+}//end Migrator
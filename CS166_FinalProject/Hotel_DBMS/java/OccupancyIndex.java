@@ -0,0 +1,366 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class keeps an in-memory picture of which rooms are booked on which
+ * day.  For every hotel it holds a bitmap of its room numbers and, for every
+ * day with at least one booking, a bitmap of the rooms booked that day.
+ * Availability questions then become a few bitmap operations instead of a
+ * query.
+ *
+ * The index is built from the Room and Booking tables when the program
+ * starts and is updated by this process' own addRoom and bookRoom calls.
+ * It is rebuilt every dbproject.occupancyIndex.rebuildSec seconds, so the
+ * rooms and bookings other desks, WorkloadDriver or BatchImporter add are
+ * seen as taken at most that long after they commit.  The rooms and
+ * bookings this process adds while a rebuild reads are added to its
+ * result as well.
+ *
+ */
+public class OccupancyIndex {
+
+   // seconds between rebuilds from Room and Booking; 0 only builds it at startup.
+   static final long REBUILD_SEC = Long.getLong("dbproject.occupancyIndex.rebuildSec", 60L);
+
+   /**
+    * The rooms of one hotel and the days they are booked.
+    */
+   private static class Hotel {
+      final BitSet rooms = new BitSet();
+      final Map<Integer, String> roomTypes = new HashMap<Integer, String>();
+      // epoch day -> rooms booked on that day
+      final Map<Integer, BitSet> booked = new HashMap<Integer, BitSet>();
+   }//end Hotel
+
+   private static final Pattern ISO_DATE = Pattern.compile("(\\d{4})-(\\d{1,2})-(\\d{1,2})");
+   private static final Pattern US_DATE = Pattern.compile("(\\d{1,2})/(\\d{1,2})/(\\d{4})");
+
+   private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+   private Map<Integer, Hotel> _hotels = new HashMap<Integer, Hotel>();
+   private long _bookings = 0;
+   // the rooms {hotelID, roomNo, roomType} and bookings {hotelID, roomNo, day}
+   // added while a rebuild reads, or null when none is running.
+   private List<Object[]> _pendingRooms = null;
+   private List<int[]> _pendingBookings = null;
+   private Timer _rebuilder = null;
+   private long _rebuilds = 0;
+   private long _failedRebuilds = 0;
+
+   /**
+    * Replaces the contents of the index with the current Room and Booking
+    * tables.  Both tables are read through a cursor, so the result is never
+    * held in memory as rows.  Runs on one thread at a time: at startup, then
+    * on the rebuild timer.
+    *
+    * @param esql the database to read from
+    * @throws java.sql.SQLException when the tables cannot be read
+    */
+   public void rebuild (DBProject esql) throws SQLException {
+      this._lock.writeLock ().lock ();
+      try{
+         this._pendingRooms = new ArrayList<Object[]> ();
+         this._pendingBookings = new ArrayList<int[]> ();
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+      try{
+         swap (esql);
+      }finally{
+         this._lock.writeLock ().lock ();
+         try{
+            this._pendingRooms = null;
+            this._pendingBookings = null;
+         }finally{
+            this._lock.writeLock ().unlock ();
+         }//end try
+      }//end try
+   }//end rebuild
+
+   /**
+    * Reads the tables and replaces the contents of the index with them and
+    * the changes made during the read.
+    */
+   private void swap (DBProject esql) throws SQLException {
+      final Map<Integer, Hotel> hotels = new HashMap<Integer, Hotel>();
+      esql.executeQueryCursor ("SELECT r.hotelID, r.roomNo, r.roomType FROM Room r", DBProject.FETCH_SIZE,
+                               new DBProject.ResultHandler () {
+         public int handle (ResultSet rs) throws SQLException {
+            int n = 0;
+            while (rs.next ()) {
+               Hotel hotel = hotel (hotels, rs.getInt (1));
+               hotel.rooms.set (rs.getInt (2));
+               hotel.roomTypes.put (rs.getInt (2), trim (rs.getString (3)));
+               ++n;
+            }//end while
+            return n;
+         }
+      });
+
+      final long[] bookings = new long[1];
+      esql.executeQueryCursor ("SELECT b.hotelID, b.roomNo, b.bookingDate - DATE '1970-01-01' FROM Booking b",
+                               DBProject.FETCH_SIZE, new DBProject.ResultHandler () {
+         public int handle (ResultSet rs) throws SQLException {
+            int n = 0;
+            while (rs.next ()) {
+               book (hotel (hotels, rs.getInt (1)), rs.getInt (2), rs.getInt (3));
+               ++n;
+            }//end while
+            bookings[0] += n;
+            return n;
+         }
+      });
+
+      this._lock.writeLock ().lock ();
+      try{
+         // a change made before the read began is in it already; setting its bit again changes nothing.
+         for (Object[] room : this._pendingRooms) {
+            Hotel hotel = hotel (hotels, (Integer) room[0]);
+            hotel.rooms.set ((Integer) room[1]);
+            hotel.roomTypes.put ((Integer) room[1], (String) room[2]);
+         }//end for
+         for (int[] booking : this._pendingBookings) {
+            if (book (hotel (hotels, booking[0]), booking[1], booking[2])) ++bookings[0];
+         }//end for
+         this._hotels = hotels;
+         this._bookings = bookings[0];
+         ++this._rebuilds;
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end swap
+
+   /**
+    * Rebuilds the index every REBUILD_SEC seconds on a daemon thread.  A
+    * failed rebuild keeps the current contents until the next one.
+    *
+    * @param esql the database to read from
+    */
+   public synchronized void startRebuilds (final DBProject esql) {
+      if (REBUILD_SEC <= 0 || this._rebuilder != null) return;
+      this._rebuilder = new Timer ("OccupancyIndex-rebuild", true);
+      this._rebuilder.schedule (new TimerTask () {
+         public void run () {
+            try{
+               rebuild (esql);
+            }catch (SQLException e){
+               synchronized (OccupancyIndex.this) {
+                  ++_failedRebuilds;
+               }//end synchronized
+               System.err.println ("Error - Unable to rebuild occupancy index: " + e.getMessage ());
+            }//end try
+         }
+      }, REBUILD_SEC * 1000L, REBUILD_SEC * 1000L);
+   }//end startRebuilds
+
+   /**
+    * Stops the rebuilds.
+    */
+   public synchronized void stop () {
+      if (this._rebuilder != null) this._rebuilder.cancel ();
+      this._rebuilder = null;
+   }//end stop
+
+   /**
+    * Records a committed room insert.
+    */
+   public void addRoom (int hotelID, int roomNo, String roomType) {
+      this._lock.writeLock ().lock ();
+      try{
+         Hotel hotel = hotel (this._hotels, hotelID);
+         hotel.rooms.set (roomNo);
+         hotel.roomTypes.put (roomNo, trim (roomType));
+         if (this._pendingRooms != null) this._pendingRooms.add (new Object[] {hotelID, roomNo, trim (roomType)});
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end addRoom
+
+   /**
+    * Records a committed booking.
+    *
+    * @param day the booking date as days since 1970-01-01
+    */
+   public void addBooking (int hotelID, int roomNo, int day) {
+      this._lock.writeLock ().lock ();
+      try{
+         if (book (hotel (this._hotels, hotelID), roomNo, day)) ++this._bookings;
+         if (this._pendingBookings != null) this._pendingBookings.add (new int[] {hotelID, roomNo, day});
+      }finally{
+         this._lock.writeLock ().unlock ();
+      }//end try
+   }//end addBooking
+
+   /**
+    * Returns the number of rooms of a hotel not booked on the given day, or
+    * -1 if the hotel has no rooms.
+    */
+   public int availableRooms (int hotelID, int day) {
+      this._lock.readLock ().lock ();
+      try{
+         Hotel hotel = this._hotels.get (hotelID);
+         if (hotel == null) return -1;
+         BitSet booked = hotel.booked.get (day);
+         int total = hotel.rooms.cardinality ();
+         if (booked == null) return total;
+         BitSet free = (BitSet) hotel.rooms.clone ();
+         free.andNot (booked);
+         return free.cardinality ();
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end availableRooms
+
+   /**
+    * Returns the rooms of a hotel that are free on every one of the given
+    * days, as [roomNo, roomType] rows in room order, or null if the hotel
+    * has no rooms.
+    *
+    * @param firstDay the first day as days since 1970-01-01
+    * @param days the number of days, including the first
+    */
+   public List<List<String>> roomsAvailable (int hotelID, int firstDay, int days) {
+      this._lock.readLock ().lock ();
+      try{
+         Hotel hotel = this._hotels.get (hotelID);
+         if (hotel == null) return null;
+         BitSet free = (BitSet) hotel.rooms.clone ();
+         for (int day = firstDay; day < firstDay + days; ++day) {
+            BitSet booked = hotel.booked.get (day);
+            if (booked != null) free.andNot (booked);
+         }//end for
+         List<List<String>> rooms = new ArrayList<List<String>> (free.cardinality ());
+         for (int roomNo = free.nextSetBit (0); roomNo >= 0; roomNo = free.nextSetBit (roomNo + 1)) {
+            rooms.add (Arrays.asList (String.valueOf (roomNo), hotel.roomTypes.get (roomNo)));
+         }//end for
+         return rooms;
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end roomsAvailable
+
+   /**
+    * Returns a one line summary of the index size.
+    */
+   public String stats () {
+      this._lock.readLock ().lock ();
+      try{
+         int rooms = 0;
+         int days = 0;
+         for (Hotel hotel : this._hotels.values ()) {
+            rooms += hotel.rooms.cardinality ();
+            days += hotel.booked.size ();
+         }//end for
+         long failed;
+         synchronized (this) {
+            failed = this._failedRebuilds;
+         }//end synchronized
+         return String.format ("occupancy index: %d hotels, %d rooms, %d bookings, %d hotel-day bitmaps, %d rebuilds (%d failed)",
+                               this._hotels.size (), rooms, this._bookings, days, this._rebuilds, failed);
+      }finally{
+         this._lock.readLock ().unlock ();
+      }//end try
+   }//end stats
+
+   /**
+    * Converts a YYYY-MM-DD or M/D/YYYY date to days since 1970-01-01.
+    *
+    * @throws IllegalArgumentException when the date is in neither format
+    */
+   public static int epochDay (String date) {
+      int year, month, day;
+      Matcher m = ISO_DATE.matcher (date.trim ());
+      if (m.matches ()) {
+         year = Integer.parseInt (m.group (1));
+         month = Integer.parseInt (m.group (2));
+         day = Integer.parseInt (m.group (3));
+      }else if ((m = US_DATE.matcher (date.trim ())).matches ()) {
+         year = Integer.parseInt (m.group (3));
+         month = Integer.parseInt (m.group (1));
+         day = Integer.parseInt (m.group (2));
+      }else{
+         throw new IllegalArgumentException ("Invalid date: expected YYYY-MM-DD or M/D/YYYY...");
+      }//end if
+      if (month < 1 || month > 12 || day < 1 || day > 31) {
+         throw new IllegalArgumentException ("Invalid date: " + date);
+      }//end if
+      // days from civil, counting years from March so leap days come last.
+      int y = month <= 2 ? year - 1 : year;
+      int era = (y >= 0 ? y : y - 399) / 400;
+      int yearOfEra = y - era * 400;
+      int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+      int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+      return era * 146097 + dayOfEra - 719468;
+   }//end epochDay
+
+   /**
+    * Converts days since 1970-01-01 to a date, the inverse of epochDay.
+    *
+    * @return {year, month, day}
+    */
+   public static int[] civilDate (int epochDay) {
+      int z = epochDay + 719468;
+      int era = (z >= 0 ? z : z - 146096) / 146097;
+      int dayOfEra = z - era * 146097;
+      int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+      int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+      int mp = (5 * dayOfYear + 2) / 153;
+      int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+      int month = mp < 10 ? mp + 3 : mp - 9;
+      return new int[] { yearOfEra + era * 400 + (month <= 2 ? 1 : 0), month, day };
+   }//end civilDate
+
+   private static Hotel hotel (Map<Integer, Hotel> hotels, int hotelID) {
+      Hotel hotel = hotels.get (hotelID);
+      if (hotel == null) {
+         hotel = new Hotel ();
+         hotels.put (hotelID, hotel);
+      }//end if
+      return hotel;
+   }//end hotel
+
+   /**
+    * Marks a room booked on a day.
+    *
+    * @return false when it was marked already
+    */
+   private static boolean book (Hotel hotel, int roomNo, int day) {
+      BitSet booked = hotel.booked.get (day);
+      if (booked == null) {
+         booked = new BitSet ();
+         hotel.booked.put (day, booked);
+      }//end if
+      if (booked.get (roomNo)) return false;
+      booked.set (roomNo);
+      return true;
+   }//end book
+
+   private static String trim (String s) {
+      return s == null ? null : s.trim ();
+   }//end trim
+
+}//end OccupancyIndex
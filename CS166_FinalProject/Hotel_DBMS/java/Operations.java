@@ -0,0 +1,630 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * This class performs the 16 menu operations on already validated inputs.
+ * The menu methods of DBProject read the inputs from the keyboard and print
+ * what these methods return; tools that drive the operations without a
+ * keyboard, such as the benchmark, call them directly.
+ *
+ * Writes keep the in-memory occupancy index, repair leaderboard and
+ * booking snapshot of the DBProject in step with the database.
+ *
+ * When the DBProject has a shard map, the operations on one hotel run on
+ * its shard, customers and companies are added to every database, and the
+ * reports over every hotel gather and merge the results of all shards.
+ *
+ */
+public class Operations {
+
+   private final DBProject _esql;
+
+   /**
+    * Creates the operations of a database
+    *
+    * @param esql the database to operate on
+    */
+   public Operations (DBProject esql) {
+      this._esql = esql;
+   }//end Operations
+
+   /**
+    * 1. Adds a customer.
+    *
+    * @return the number of rows inserted
+    */
+   public int addCustomer (int customerID, String fName, String lName, String address, String phNo,
+                           String dob, String gender) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("addCustomer", customerID, fName, lName, address, phNo, dob, gender);
+      try{
+         int rows = broadcast (DBProject.ADD_CUSTOMER_SQL, DBProject.BROADCAST_CUSTOMER_SQL,
+                               customerID, fName, lName, address, phNo, dob, gender);
+         return op.result (rows);
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end addCustomer
+
+   /**
+    * 1. Adds a customer under a new id.
+    *
+    * @return the customerID of the customer
+    */
+   public int addCustomer (String fName, String lName, String address, String phNo, String dob, String gender) throws SQLException {
+      int customerID = this._esql.ids (DBProject.CUSTOMER_IDS).nextInt ();
+      addCustomer (customerID, fName, lName, address, phNo, dob, gender);
+      return customerID;
+   }//end addCustomer
+
+   /**
+    * 2. Adds a room to a hotel.
+    *
+    * @return the number of rows inserted
+    */
+   public int addRoom (int hotelID, int roomNo, String roomType) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("addRoom", hotelID, roomNo, roomType);
+      try{
+         int rows = this._esql.shard (hotelID, true).executeUpdate (DBProject.ADD_ROOM_SQL, hotelID, roomNo, roomType);
+         if (this._esql.getOccupancyIndex () != null) {
+            this._esql.getOccupancyIndex ().addRoom (hotelID, roomNo, roomType);
+         }//end if
+         if (this._esql.getReferenceData () != null) {
+            this._esql.getReferenceData ().roomChanged (hotelID, roomNo);
+         }//end if
+         return op.result (rows);
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end addRoom
+
+   /**
+    * 3. Adds a maintenance company.
+    *
+    * @param isCertified TRUE or FALSE
+    * @return the number of rows inserted
+    */
+   public int addMaintenanceCompany (int cmpID, String name, String address, String isCertified) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("addMaintenanceCompany", cmpID, name, address, isCertified);
+      try{
+         int rows = broadcast (DBProject.ADD_MAINTENANCE_COMPANY_SQL, DBProject.BROADCAST_MAINTENANCE_COMPANY_SQL,
+                               cmpID, name, address, isCertified);
+         if (this._esql.getRepairLeaderboard () != null) {
+            this._esql.getRepairLeaderboard ().addCompany (cmpID, name);
+         }//end if
+         if (this._esql.getReferenceData () != null) {
+            this._esql.getReferenceData ().companyChanged (name);
+         }//end if
+         return op.result (rows);
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end addMaintenanceCompany
+
+   /**
+    * 3. Adds a maintenance company under a new id.
+    *
+    * @param isCertified TRUE or FALSE
+    * @return the cmpID of the company
+    */
+   public int addMaintenanceCompany (String name, String address, String isCertified) throws SQLException {
+      int cmpID = this._esql.ids (DBProject.COMPANY_IDS).nextInt ();
+      addMaintenanceCompany (cmpID, name, address, isCertified);
+      return cmpID;
+   }//end addMaintenanceCompany
+
+   /**
+    * 4. Adds a repair of a room.
+    *
+    * @return the number of rows inserted
+    */
+   public int addRepair (long rID, int hotelID, int roomNo, int mCompany, String repairDate,
+                         String description, String repairType) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("addRepair", rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+      try{
+         int rows = this._esql.shard (hotelID, true).executeUpdate (DBProject.ADD_REPAIR_SQL, rID, hotelID, roomNo, mCompany,
+                                                                    repairDate, description, repairType);
+         if (this._esql.getRepairLeaderboard () != null) {
+            this._esql.getRepairLeaderboard ().recordRepairs (mCompany, rows);
+         }//end if
+         return op.result (rows);
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end addRepair
+
+   /**
+    * 4. Adds a repair of a room under a new id.
+    *
+    * @return the rID of the repair
+    */
+   public long addRepair (int hotelID, int roomNo, int mCompany, String repairDate,
+                          String description, String repairType) throws SQLException {
+      long rID = this._esql.ids (DBProject.REPAIR_IDS).next ();
+      addRepair (rID, hotelID, roomNo, mCompany, repairDate, description, repairType);
+      return rID;
+   }//end addRepair
+
+   /**
+    * 5. Books a room.  The room-date unique constraint on Booking makes a
+    * second booking of the room on the date insert nothing, so concurrent
+    * desks cannot double book it and need no locks.  Attempts aborted by a
+    * deadlock or serialization failure are retried after a random backoff.
+    *
+    * @return the number of rows inserted, 0 when the room is already booked on the date
+    * @throws java.sql.SQLException when the room does not exist, the bID is taken or every attempt failed
+    */
+   public int bookRoom (long bID, int customer, int hotelID, int roomNo, String bookingDate,
+                        int noOfPeople, int price) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("bookRoom", bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price);
+      try{
+         // a cached check, where the foreign key would only fail after a round trip.
+         ReferenceData references = this._esql.getReferenceData ();
+         if (references != null && references.roomType (hotelID, roomNo) == null) {
+            throw new SQLException ("Room " + roomNo + " of hotel " + hotelID + " does not exist");
+         }//end if
+         DBProject shard = this._esql.shard (hotelID, true);
+         // a snapshot rebuild does not start its read between the INSERT and addBooking.
+         Lock booking = this._esql.getBookingSnapshot () == null ? null : this._esql.getBookingSnapshot ().bookingLock ();
+         if (booking != null) booking.lock ();
+         try{
+            for (int attempt = 1; ; ++attempt) {
+               try{
+                  List<List<String>> booked = shard.executeQueryAndReturnResult (DBProject.BOOK_ROOM_SQL, bID, customer,
+                                                                                 hotelID, roomNo, bookingDate, noOfPeople, price);
+                  if (!booked.isEmpty ()) {
+                     int day = Integer.parseInt (booked.get (0).get (0));
+                     if (this._esql.getOccupancyIndex () != null) {
+                        this._esql.getOccupancyIndex ().addBooking (hotelID, roomNo, day);
+                     }//end if
+                     if (this._esql.getBookingSnapshot () != null) {
+                        this._esql.getBookingSnapshot ().addBooking (customer, hotelID, roomNo, day, price * 100);
+                     }//end if
+                     return op.result (booked.size ());
+                  }//end if
+                  // nothing inserted: find out which key was taken.
+                  if (!shard.executeQueryAndReturnResult (DBProject.ROOM_BOOKING_SQL, hotelID, roomNo, bookingDate).isEmpty ()) {
+                     return op.result (0);
+                  }//end if
+                  if (!shard.executeQueryAndReturnResult (DBProject.BOOKING_ID_SQL, bID).isEmpty ()) {
+                     throw new SQLException ("Booking " + bID + " already exists");
+                  }//end if
+                  // the conflicting booking was deleted in the meantime; try again.
+                  if (attempt >= DBProject.BOOKING_ATTEMPTS) {
+                     throw new SQLException ("Unable to book room " + roomNo + " of hotel " + hotelID + " after " + attempt + " attempts");
+                  }//end if
+               }catch (SQLException e){
+                  if (!isTransient (e) || attempt >= DBProject.BOOKING_ATTEMPTS) throw e;
+                  backoff (attempt);
+               }//end try
+            }//end for
+         }finally{
+            if (booking != null) booking.unlock ();
+         }//end try
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end bookRoom
+
+   /**
+    * 5. Books a room under a new id.
+    *
+    * @return the bID of the booking, 0 when the room is already booked on the date
+    */
+   public long bookRoom (int customer, int hotelID, int roomNo, String bookingDate,
+                         int noOfPeople, int price) throws SQLException {
+      long bID = this._esql.ids (DBProject.BOOKING_IDS).next ();
+      return bookRoom (bID, customer, hotelID, roomNo, bookingDate, noOfPeople, price) == 0 ? 0 : bID;
+   }//end bookRoom
+
+   /**
+    * 6. Assigns a house cleaning staff member of a hotel to a room.
+    *
+    * @return the number of assignments changed
+    */
+   public int assignHouseCleaningToRoom (int staffID, int hotelID, int roomNo) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("assignHouseCleaningToRoom", staffID, hotelID, roomNo);
+      try{
+         return op.result (this._esql.shard (hotelID, true).executeUpdate (DBProject.ASSIGN_HOUSE_CLEANING_SQL, roomNo, hotelID, staffID));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end assignHouseCleaningToRoom
+
+   /**
+    * 7. Raises a repair request on behalf of the manager of a hotel.
+    *
+    * @return the id of the new request
+    */
+   public long repairRequest (int hotelID, int repairID, String requestDate, String description) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("repairRequest", hotelID, repairID, requestDate, description);
+      try{
+         // the id comes from a reserved block, so only the insert reaches the server.
+         long reqID = this._esql.ids (DBProject.REQUEST_IDS).next ();
+
+         int inserted = this._esql.shard (hotelID, true).executeUpdate (DBProject.REPAIR_REQUEST_SQL, reqID, repairID,
+                                                                        requestDate, description, hotelID);
+         if (inserted == 0) {
+            throw new SQLException ("Hotel " + hotelID + " does not exist or has no manager...");
+         }//end if
+         return op.result (reqID);
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end repairRequest
+
+   /**
+    * 8. Counts the rooms of a hotel not booked on a date.
+    */
+   public int numberOfAvailableRooms (int hotelID, String date) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("numberOfAvailableRooms", hotelID, date);
+      try{
+         OccupancyIndex occupancy = this._esql.getOccupancyIndex ();
+         if (occupancy != null) {
+            return op.result (Math.max (0, occupancy.availableRooms (hotelID, OccupancyIndex.epochDay (date))));
+         }//end if
+         return op.result (Integer.parseInt (single (this._esql.shard (hotelID, false), DBProject.AVAILABLE_ROOMS_SQL, hotelID, date)));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end numberOfAvailableRooms
+
+   /**
+    * 9. Counts the bookings of a hotel.
+    */
+   public long numberOfBookedRooms (int hotelID) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("numberOfBookedRooms", hotelID);
+      try{
+         return op.result (Long.parseLong (single (this._esql.shard (hotelID, false), DBProject.BOOKED_ROOMS_SQL, hotelID)));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end numberOfBookedRooms
+
+   /**
+    * 10. Lists the rooms of a hotel free for the week starting on a date as
+    * [roomNo, roomType] rows.
+    */
+   public List<List<String>> listHotelRoomBookingsForAWeek (int hotelID, String startDate) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("listHotelRoomBookingsForAWeek", hotelID, startDate);
+      try{
+         OccupancyIndex occupancy = this._esql.getOccupancyIndex ();
+         if (occupancy != null) {
+            List<List<String>> rooms = occupancy.roomsAvailable (hotelID, OccupancyIndex.epochDay (startDate), 7);
+            return op.result (rooms == null ? new ArrayList<List<String>> () : rooms);
+         }//end if
+         return op.result (this._esql.shard (hotelID, false).executeQueryAndReturnResult (DBProject.ROOMS_AVAILABLE_FOR_WEEK_SQL,
+                                                                                          hotelID, startDate, startDate));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end listHotelRoomBookingsForAWeek
+
+   /**
+    * 10. Pages through the rooms of a hotel free for the week starting on a
+    * date.
+    */
+   public DBProject.Pager listHotelRoomBookingsForAWeek (int hotelID, String startDate, int pageSize) throws SQLException {
+      if (this._esql.getOccupancyIndex () != null) {
+         return new DBProject.ListPager (listHotelRoomBookingsForAWeek (hotelID, startDate), pageSize);
+      }//end if
+      return new KeysetPager (this._esql.shard (hotelID, false), DBProject.ROOMS_AVAILABLE_FOR_WEEK_PAGE_SQL, new String[] {"r.roomNo"},
+                              pageSize, hotelID, startDate, startDate);
+   }//end listHotelRoomBookingsForAWeek
+
+   /**
+    * 11. Returns the k highest priced bookings in a date range as
+    * [hotelID, roomNo, bookingDate, price] rows.
+    */
+   public List<List<String>> topKHighestRoomPriceForADateRange (String startDate, String endDate, int k) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("topKHighestRoomPriceForADateRange", startDate, endDate, k);
+      try{
+         return op.result (topK (DBProject.TOP_K_ROOM_PRICE, 3, k, startDate, endDate));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end topKHighestRoomPriceForADateRange
+
+   /**
+    * 12. Returns the k highest priced bookings of the customers with a name
+    * as [bID, hotelID, roomNo, bookingDate, price] rows.
+    */
+   public List<List<String>> topKHighestPriceBookingsForACustomer (String fName, String lName, int k) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("topKHighestPriceBookingsForACustomer", fName, lName, k);
+      try{
+         return op.result (topKCustomerBookings (this._esql.customerNames ().resolve (fName, lName), k));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   /**
+    * 12. Returns the k highest priced bookings of customers, e.g. the one
+    * chosen among several with the same name.
+    */
+   public List<List<String>> topKHighestPriceBookingsForACustomer (List<Integer> customerIDs, int k) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("topKHighestPriceBookingsForACustomer", customerIDs, k);
+      try{
+         return op.result (topKCustomerBookings (customerIDs, k));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end topKHighestPriceBookingsForACustomer
+
+   private List<List<String>> topKCustomerBookings (List<Integer> customerIDs, int k) throws SQLException {
+      if (customerIDs.isEmpty ()) return new ArrayList<List<String>> ();
+      return topK (DBProject.TOP_K_CUSTOMER_BOOKINGS, 4, k, CustomerNames.idArray (customerIDs));
+   }//end topKCustomerBookings
+
+   /**
+    * 13. Sums the bookings of the customers with a name at a hotel in a
+    * date range.
+    *
+    * @return the total, or null when there are none
+    */
+   public String totalCostForCustomer (int hotelID, String fName, String lName, String startDate, String endDate) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("totalCostForCustomer", hotelID, fName, lName, startDate, endDate);
+      try{
+         return op.result (totalCost (hotelID, this._esql.customerNames ().resolve (fName, lName), startDate, endDate));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end totalCostForCustomer
+
+   /**
+    * 13. Sums the bookings of customers at a hotel in a date range.
+    *
+    * @return the total, or null when there are none
+    */
+   public String totalCostForCustomer (int hotelID, List<Integer> customerIDs, String startDate, String endDate) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("totalCostForCustomer", hotelID, customerIDs, startDate, endDate);
+      try{
+         return op.result (totalCost (hotelID, customerIDs, startDate, endDate));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end totalCostForCustomer
+
+   /**
+    * Sums the bookings in memory when the booking snapshot is loaded.
+    */
+   private String totalCost (int hotelID, List<Integer> customerIDs, String startDate, String endDate) throws SQLException {
+      if (customerIDs.isEmpty ()) return null;
+      BookingSnapshot snapshot = this._esql.getBookingSnapshot ();
+      if (snapshot != null) {
+         return snapshot.totalCost (customerIDs, hotelID, OccupancyIndex.epochDay (startDate), OccupancyIndex.epochDay (endDate));
+      }//end if
+      return single (this._esql.shard (hotelID, false), DBProject.TOTAL_COST_FOR_CUSTOMER_SQL,
+                     hotelID, CustomerNames.idArray (customerIDs), startDate, endDate);
+   }//end totalCost
+
+   /**
+    * 14. Lists the repairs made by a maintenance company as
+    * [repairType, hotelID, roomNo] rows.
+    */
+   public List<List<String>> listRepairsMade (String name) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("listRepairsMade", name);
+      try{
+         String query = DBProject.REPAIRS_MADE_SQL;
+         Object param = name;
+         ReferenceData references = this._esql.getReferenceData ();
+         if (references != null) {
+            List<Integer> companies = references.companyIDs (name);
+            if (companies.isEmpty ()) return op.result (new ArrayList<List<String>> ());
+            if (companies.size () == 1) {
+               query = DBProject.REPAIRS_BY_COMPANY_SQL;
+               param = companies.get (0);
+            }//end if
+         }//end if
+         if (this._esql.getShardMap () == null) return op.result (this._esql.executeQueryAndReturnResult (query, param));
+
+         final String shardQuery = query;
+         final Object shardParam = param;
+         List<List<String>> repairs = new ArrayList<List<String>> ();
+         for (List<List<String>> rows : this._esql.getShardMap ().scatter (new ShardMap.ShardCall<List<List<String>>> () {
+            public List<List<String>> call (DBProject shard) throws SQLException {
+               return shard.executeQueryAndReturnResult (shardQuery, shardParam);
+            }
+         })) {
+            repairs.addAll (rows);
+         }//end for
+         return op.result (repairs);
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end listRepairsMade
+
+   /**
+    * 14. Pages through the repairs made by a maintenance company as
+    * [hotelID, roomNo, rID, repairType] rows.
+    */
+   public DBProject.Pager listRepairsMade (String name, int pageSize) throws SQLException {
+      String query = DBProject.REPAIRS_MADE_PAGE_SQL;
+      Object param = name;
+      ReferenceData references = this._esql.getReferenceData ();
+      if (references != null) {
+         List<Integer> companies = references.companyIDs (name);
+         if (companies.isEmpty ()) return new DBProject.ListPager (new ArrayList<List<String>> (), pageSize);
+         if (companies.size () == 1) {
+            query = DBProject.REPAIRS_BY_COMPANY_PAGE_SQL;
+            param = companies.get (0);
+         }//end if
+      }//end if
+      String[] keys = new String[] {"r.hotelID", "r.roomNo", "r.rID"};
+      if (this._esql.getShardMap () == null) return new KeysetPager (this._esql, query, keys, pageSize, param);
+
+      // every shard pages in (hotelID, roomNo, rID) order, so their pages merge in that order.
+      List<DBProject.Pager> pagers = new ArrayList<DBProject.Pager> ();
+      for (DBProject shard : this._esql.getShardMap ().shards ()) {
+         pagers.add (new KeysetPager (shard, query, keys, pageSize, param));
+      }//end for
+      return new ShardMap.MergedPager (pagers, ShardMap.ascending (3), pageSize);
+   }//end listRepairsMade
+
+   /**
+    * 15. Returns the k maintenance companies with the most repairs as
+    * [name, repairCount] rows.
+    */
+   public List<List<String>> topKMaintenanceCompany (int k) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("topKMaintenanceCompany", k);
+      try{
+         RepairLeaderboard leaderboard = this._esql.getRepairLeaderboard ();
+         if (leaderboard != null) return op.result (leaderboard.top (k));
+         if (this._esql.getShardMap () == null) {
+            return op.result (this._esql.executeQueryAndReturnResult (DBProject.TOP_K_MAINTENANCE_COMPANY_SQL, k));
+         }//end if
+
+         // a company repairs on several shards, so its counts are summed before ranking.
+         final Map<String, String> names = new HashMap<String, String> ();
+         final Map<String, Long> counts = new HashMap<String, Long> ();
+         for (List<List<String>> rows : this._esql.getShardMap ().scatter (new ShardMap.ShardCall<List<List<String>>> () {
+            public List<List<String>> call (DBProject shard) throws SQLException {
+               return shard.executeQueryAndReturnResult (DBProject.COMPANY_REPAIR_COUNTS_SQL);
+            }
+         })) {
+            for (List<String> row : rows) {
+               String cmpID = row.get (0).trim ();
+               Long count = counts.get (cmpID);
+               counts.put (cmpID, (count == null ? 0 : count) + Long.parseLong (row.get (2).trim ()));
+               names.put (cmpID, row.get (1));
+            }//end for
+         }//end for
+         List<String> ranked = new ArrayList<String> (counts.keySet ());
+         Collections.sort (ranked, new Comparator<String> () {
+            public int compare (String a, String b) {
+               return counts.get (b).compareTo (counts.get (a));
+            }
+         });
+         List<List<String>> top = new ArrayList<List<String>> ();
+         for (String cmpID : ranked.subList (0, Math.min (Math.max (k, 0), ranked.size ()))) {
+            List<String> row = new ArrayList<String> ();
+            row.add (names.get (cmpID));
+            row.add (String.valueOf (counts.get (cmpID)));
+            top.add (row);
+         }//end for
+         return op.result (top);
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end topKMaintenanceCompany
+
+   /**
+    * 16. Counts the repairs of a room per year as [repairYear, repairCount]
+    * rows.
+    */
+   public List<List<String>> numberOfRepairsForEachRoomPerYear (int hotelID, int roomNo) throws SQLException {
+      QueryStats.Sample op = this._esql.operationStats ().start ("numberOfRepairsForEachRoomPerYear", hotelID, roomNo);
+      try{
+         return op.result (this._esql.shard (hotelID, false).executeQueryAndReturnResult (DBProject.REPAIRS_PER_YEAR_SQL,
+                                                                                          hotelID, roomNo));
+      }finally{
+         this._esql.operationStats ().finish (op, null);
+      }//end try
+   }//end numberOfRepairsForEachRoomPerYear
+
+   /**
+    * Returns whether a statement was aborted by a deadlock or serialization
+    * failure and succeeds when tried again.
+    */
+   static boolean isTransient (SQLException e) {
+      String state = e.getSQLState ();
+      if ("40P01".equals (state) || "40001".equals (state)) return true;
+      // the 7.3 driver reports no SQLState.
+      String message = e.getMessage ();
+      return message != null && (message.contains ("deadlock detected") || message.contains ("could not serialize"));
+   }//end isTransient
+
+   /**
+    * Sleeps before the next attempt for a random time up to a backoff that
+    * doubles with every attempt, so the desks that collided do not collide
+    * again.
+    */
+   private static void backoff (int attempt) throws SQLException {
+      long limit = DBProject.BOOKING_BACKOFF_MS << Math.min (attempt - 1, 10);
+      try{
+         Thread.sleep ((long) (Math.random () * limit) + 1);
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while retrying");
+      }//end try
+   }//end backoff
+
+   /**
+    * Runs a top-K report on every shard and merges their k rows.
+    *
+    * @param price the column of the price the rows are ordered by
+    */
+   private List<List<String>> topK (final TopKQuery query, int price, final int k, final Object... params) throws SQLException {
+      if (this._esql.getShardMap () == null) return query.run (this._esql, k, params);
+      List<List<List<String>>> sorted = this._esql.getShardMap ().scatter (new ShardMap.ShardCall<List<List<String>>> () {
+         public List<List<String>> call (DBProject shard) throws SQLException {
+            return query.run (shard, k, params);
+         }
+      });
+      return ShardMap.merge (sorted, ShardMap.descending (price), k);
+   }//end topK
+
+   /**
+    * Inserts a row of a shared table: into this database, or into the
+    * directory and every shard.  A shard the insert fails on is tried again
+    * in the next of DBProject.BROADCAST_ATTEMPTS rounds; the broadcast
+    * statement skips a row that is already there, so the databases that
+    * have it are left alone and adding the row again after a failure
+    * completes it.
+    *
+    * @param sql the insert without shards
+    * @param broadcast the same insert, doing nothing when the key is taken
+    * @return the most rows inserted into one database
+    * @throws java.sql.SQLException when some database still lacks the row
+    */
+   private int broadcast (String sql, String broadcast, Object... params) throws SQLException {
+      if (this._esql.getShardMap () == null) return this._esql.executeUpdate (sql, params);
+      List<DBProject> missing = new ArrayList<DBProject> (this._esql.getShardMap ().everyDatabase ());
+      int databases = missing.size ();
+      int rows = 0;
+      SQLException failure = null;
+      for (int attempt = 1; ; ++attempt) {
+         for (Iterator<DBProject> it = missing.iterator (); it.hasNext (); ) {
+            try{
+               rows = Math.max (rows, it.next ().executeUpdate (broadcast, params));
+               it.remove ();
+            }catch (SQLException e){
+               failure = e;
+            }//end try
+         }//end for
+         if (missing.isEmpty ()) return rows;
+         if (attempt >= DBProject.BROADCAST_ATTEMPTS) break;
+         backoff (attempt);
+      }//end for
+      throw new SQLException ("The row reached " + (databases - missing.size ()) + " of " + databases +
+                              " databases, add it again with the same id to complete it: " + failure.getMessage ());
+   }//end broadcast
+
+   /**
+    * Returns the only value of a one row, one column query.
+    */
+   private String single (DBProject database, String query, Object... params) throws SQLException {
+      List<List<String>> rows = database.executeQueryAndReturnResult (query, params);
+      return rows.isEmpty () ? null : rows.get (0).get (0);
+   }//end single
+
+}//end Operations
@@ -0,0 +1,120 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * This class keeps the yearly partitions of Booking and Repair (migration
+ * 008) ahead of the calendar and archives the old ones.
+ *
+ * Rows dated after the last yearly partition land in the default
+ * partition, where every report has to read them; creating their year's
+ * partition moves them out again.  DBProject creates the partitions up to
+ * dbproject.partitions.yearsAhead years ahead when it starts; run this
+ * class, e.g. from cron, to do the same for a database nobody opens, or to
+ * archive the years before a date.  Archived partitions are detached into
+ * the archive schema, where they can be read, dumped or dropped.
+ *
+ */
+public class PartitionMaintenance {
+
+   // years of partitions kept ahead of today; a negative value disables it.
+   static final int YEARS_AHEAD = Integer.getInteger("dbproject.partitions.yearsAhead", 1);
+
+   static final String[] TABLES = {"Booking", "Repair"};
+
+   static final String PARTITIONED_SQL =
+      "SELECT COUNT(*) FROM pg_proc WHERE proname = 'ensuredatepartitions'";
+   static final String ENSURE_SQL =
+      "SELECT ensureDatePartitions(?, CURRENT_DATE, CAST(CURRENT_DATE + CAST(? AS INTEGER) * INTERVAL '1 year' AS DATE))";
+   static final String ARCHIVE_SQL =
+      "SELECT archiveDatePartitions(?, CAST(? AS DATE))";
+
+   /**
+    * Returns whether migration 008 is applied.
+    */
+   public static boolean isPartitioned (DBProject esql) throws SQLException {
+      List<List<String>> rows = esql.executeQueryAndReturnResult (PARTITIONED_SQL);
+      return Integer.parseInt (rows.get (0).get (0).trim ()) > 0;
+   }//end isPartitioned
+
+   /**
+    * Creates the missing yearly partitions of Booking and Repair up to a
+    * number of years from today
+    *
+    * @param yearsAhead the years after the current one to create
+    * @return the number of partitions created
+    * @throws java.sql.SQLException when a partition cannot be created
+    */
+   public static int ensure (DBProject esql, int yearsAhead) throws SQLException {
+      int created = 0;
+      for (String table : TABLES) {
+         List<List<String>> rows = esql.executeQueryAndReturnResult (ENSURE_SQL, table, yearsAhead);
+         created += Integer.parseInt (rows.get (0).get (0).trim ());
+      }//end for
+      return created;
+   }//end ensure
+
+   /**
+    * Detaches the yearly partitions of Booking and Repair that end on or
+    * before a date into the archive schema
+    *
+    * @param before the first date kept, e.g. 2010-01-01
+    * @return the number of partitions archived
+    * @throws java.sql.SQLException when a partition cannot be detached
+    */
+   public static int archive (DBProject esql, String before) throws SQLException {
+      int archived = 0;
+      for (String table : TABLES) {
+         List<List<String>> rows = esql.executeQueryAndReturnResult (ARCHIVE_SQL, table, before);
+         archived += Integer.parseInt (rows.get (0).get (0).trim ());
+      }//end for
+      return archived;
+   }//end archive
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [years ahead] [archive before date]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3 || args.length > 5) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PartitionMaintenance.class.getName () +
+            " <dbname> <port> <user> [years ahead] [archive before date]");
+         return;
+      }//end if
+
+      DBProject esql = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         esql = new DBProject (url, args[2], "", 1);
+         if (!isPartitioned (esql)) throw new SQLException ("Booking and Repair are not partitioned; apply migration 008");
+         int yearsAhead = args.length > 3 ? Integer.parseInt (args[3]) : Math.max (0, YEARS_AHEAD);
+         System.out.println ("Created " + ensure (esql, yearsAhead) + " partition(s)");
+         if (args.length > 4) {
+            System.out.println ("Archived " + archive (esql, args[4]) + " partition(s)");
+         }//end if
+      }catch (Exception e){
+         System.err.println ("Error - Partition maintenance failed: " + e.getMessage ());
+         System.exit(-1);
+      }finally{
+         if (esql != null) esql.cleanup ();
+      }//end try
+   }//end main
+
+}//end PartitionMaintenance
@@ -0,0 +1,272 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * This class counts the calls, errors, latencies, rows and bytes of SQL
+ * statements or menu operations, keyed by the SQL shape or operation name.
+ * Literals in SQL sent without placeholders are replaced by '?', so every
+ * execution of the same statement adds to the same counters.
+ *
+ * Calls slower than dbproject.slowQueryMs are appended to the slow query log
+ * with their parameters.  With dbproject.slowQueryExplain=true the log also
+ * gets the EXPLAIN (ANALYZE, BUFFERS) plan of a slow statement, taken by
+ * running the statement again inside a transaction that is rolled back.
+ *
+ */
+public class QueryStats {
+
+   // calls at least this slow are logged; a negative value disables the log.
+   static final long SLOW_QUERY_MS = Long.getLong("dbproject.slowQueryMs", 200L);
+   static final String SLOW_QUERY_LOG = System.getProperty("dbproject.slowQueryLog", "slow-queries.log");
+   static final boolean SLOW_QUERY_EXPLAIN = Boolean.parseBoolean(System.getProperty("dbproject.slowQueryExplain", "false"));
+
+   // rows of the report, slowest in total first.
+   static final int REPORT_ROWS = Integer.getInteger("dbproject.stats.reportRows", 20);
+
+   private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+   private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.])\\d+(?:\\.\\d+)?");
+
+   /**
+    * One call being measured.
+    */
+   public static class Sample {
+      final String key;
+      final Object[] params;
+      final long start = System.nanoTime ();
+      long rows = 0;
+      long bytes = 0;
+      boolean failed = true;
+
+      Sample (String key, Object[] params) {
+         this.key = key;
+         this.params = params;
+      }//end Sample
+
+      /**
+       * Adds a value read to the bytes read, counted in characters.
+       */
+      public void read (String value) {
+         if (value != null) this.bytes += value.length ();
+      }//end read
+
+      /**
+       * Marks the call as successful.
+       *
+       * @param rows the rows it returned or changed
+       */
+      public void done (long rows) {
+         this.rows = rows;
+         this.failed = false;
+      }//end done
+
+      /**
+       * Marks an operation as successful and passes its result through;
+       * a list result counts as its rows.
+       */
+      public <T> T result (T result) {
+         done (result instanceof List ? ((List<?>) result).size () : 0);
+         return result;
+      }//end result
+   }//end Sample
+
+   /**
+    * The counters of one key.
+    */
+   static class Entry {
+      final String key;
+      final LatencyHistogram latencies = new LatencyHistogram ();
+      long errors = 0;
+      long rows = 0;
+      long bytes = 0;
+
+      Entry (String key) {
+         this.key = key;
+      }//end Entry
+   }//end Entry
+
+   // keys whose shape is remembered, so their literals are only replaced once.
+   private static final int MAX_SHAPES = 1000;
+
+   private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry> ();
+   // key -> shape, for the first MAX_SHAPES keys.
+   private final ConcurrentMap<String, String> _shapes = new ConcurrentHashMap<String, String> ();
+
+   /**
+    * Starts measuring a call
+    *
+    * @param key the SQL or operation name
+    * @param params the parameters of the call, written to the slow query log
+    */
+   public Sample start (String key, Object... params) {
+      return new Sample (key, params);
+   }//end start
+
+   /**
+    * Stops measuring a call and adds it to the counters of its key.  A slow
+    * call is logged, with its plan when it is a statement that succeeded and
+    * conn is given.
+    *
+    * @param conn the connection the statement ran on, or null
+    */
+   public void finish (Sample sample, Connection conn) {
+      long nanos = System.nanoTime () - sample.start;
+      String key = this._shapes.get (sample.key);
+      if (key == null) {
+         key = shape (sample.key);
+         // SQL with literals inlined has as many keys as values; keep only the first ones.
+         if (this._shapes.size () < MAX_SHAPES) this._shapes.put (sample.key, key);
+      }//end if
+      Entry entry = this._entries.get (key);
+      if (entry == null) {
+         Entry created = new Entry (key);
+         entry = this._entries.putIfAbsent (key, created);
+         if (entry == null) entry = created;
+      }//end if
+      synchronized (entry) {
+         entry.latencies.record (nanos);
+         if (sample.failed) ++entry.errors;
+         entry.rows += sample.rows;
+         entry.bytes += sample.bytes;
+      }//end synchronized
+      if (SLOW_QUERY_MS >= 0 && nanos >= SLOW_QUERY_MS * 1000000L) {
+         logSlow (sample, nanos, SLOW_QUERY_EXPLAIN && !sample.failed ? conn : null);
+      }//end if
+   }//end finish
+
+   /**
+    * Returns the SQL with its literals replaced by '?'.
+    */
+   static String shape (String sql) {
+      String shape = STRING_LITERAL.matcher (sql).replaceAll ("?");
+      return NUMBER_LITERAL.matcher (shape).replaceAll ("?").replaceAll ("\\s+", " ").trim ();
+   }//end shape
+
+   /**
+    * Returns the counters as a table, slowest in total first.
+    *
+    * @param title the heading of the first column
+    */
+   public String report (String title) {
+      List<Entry> entries = new ArrayList<Entry> (this._entries.values ());
+      final Map<Entry, Double> totals = new HashMap<Entry, Double> ();
+      for (Entry entry : entries) {
+         synchronized (entry) {
+            totals.put (entry, entry.latencies.mean () * entry.latencies.count ());
+         }//end synchronized
+      }//end for
+      Collections.sort (entries, new Comparator<Entry> () {
+         public int compare (Entry a, Entry b) {
+            return Double.compare (totals.get (b), totals.get (a));
+         }
+      });
+
+      StringBuilder report = new StringBuilder ();
+      report.append (String.format ("%-60s %8s %6s %10s %8s %8s %8s %8s %10s %10s%n", title, "calls", "errors",
+                                    "total ms", "mean ms", "p50 ms", "p99 ms", "max ms", "rows", "bytes"));
+      int shown = 0;
+      for (Entry entry : entries) {
+         if (shown++ == REPORT_ROWS) break;
+         synchronized (entry) {
+            LatencyHistogram h = entry.latencies;
+            String key = entry.key.length () > 60 ? entry.key.substring (0, 57) + "..." : entry.key;
+            report.append (String.format ("%-60s %8d %6d %10.1f %8.2f %8.2f %8.2f %8.2f %10d %10d%n", key, h.count (),
+                                          entry.errors, totals.get (entry) / 1e6, h.mean () / 1e6,
+                                          h.percentile (0.50) / 1e6, h.percentile (0.99) / 1e6, h.max () / 1e6,
+                                          entry.rows, entry.bytes));
+         }//end synchronized
+      }//end for
+      return report.toString ();
+   }//end report
+
+   /**
+    * Appends a slow call to the slow query log.
+    */
+   private void logSlow (Sample sample, long nanos, Connection conn) {
+      StringBuilder entry = new StringBuilder ();
+      entry.append (String.format ("%s %.1f ms, %d rows%s: %s%n",
+                                   new SimpleDateFormat ("yyyy-MM-dd HH:mm:ss.SSS").format (new Date ()), nanos / 1e6,
+                                   sample.rows, sample.failed ? ", failed" : "", sample.key));
+      if (sample.params != null && sample.params.length > 0) {
+         entry.append ("  params: ").append (Arrays.toString (sample.params)).append (System.lineSeparator ());
+      }//end if
+      if (conn != null) {
+         entry.append ("  plan:").append (System.lineSeparator ());
+         try{
+            for (String line : explain (conn, sample.key, sample.params)) {
+               entry.append ("    ").append (line).append (System.lineSeparator ());
+            }//end for
+         }catch (SQLException e){
+            entry.append ("    unavailable: ").append (e.getMessage ()).append (System.lineSeparator ());
+         }//end try
+      }//end if
+
+      synchronized (QueryStats.class) {
+         try{
+            PrintWriter log = new PrintWriter (new FileWriter (SLOW_QUERY_LOG, true));
+            try{
+               log.print (entry);
+            }finally{
+               log.close ();
+            }//end try
+         }catch (IOException e){
+            System.err.println ("Error - Unable to write the slow query log: " + e.getMessage ());
+         }//end try
+      }//end synchronized
+   }//end logSlow
+
+   /**
+    * Runs the statement again under EXPLAIN (ANALYZE, BUFFERS) and rolls
+    * back whatever it changed.
+    *
+    * @return the lines of the plan
+    */
+   static List<String> explain (Connection conn, String sql, Object[] params) throws SQLException {
+      if (!conn.getAutoCommit ()) throw new SQLException ("the connection is inside a transaction");
+      List<String> plan = new ArrayList<String> ();
+      conn.setAutoCommit (false);
+      PreparedStatement stmt = null;
+      try{
+         stmt = conn.prepareStatement ("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+         DBProject.bind (stmt, params == null ? new Object[0] : params);
+         ResultSet rs = stmt.executeQuery ();
+         while (rs.next ()) plan.add (rs.getString (1));
+         rs.close ();
+      }finally{
+         if (stmt != null) stmt.close ();
+         conn.rollback ();
+         conn.setAutoCommit (true);
+      }//end try
+      return plan;
+   }//end explain
+
+}//end QueryStats
@@ -0,0 +1,144 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class defines a bounded read-through cache of lookups that rarely
+ * change.  A miss loads the value through the Loader and keeps it for the
+ * time to live; past the capacity the least recently used entry is evicted.
+ * Lookups that find nothing are not kept, so a row added later is found.
+ *
+ * A value loaded while the cache is invalidated is dropped instead of
+ * stored, so an invalidation is never undone by a load that read the row
+ * before the change.
+ *
+ */
+public class ReferenceCache<K, V> {
+
+   /**
+    * Reads a value from the database.
+    */
+   public interface Loader<K, V> {
+      /**
+       * @return the value, or null when there is none
+       */
+      V load (K key) throws SQLException;
+   }//end Loader
+
+   private static class Cached<V> {
+      final V value;
+      final long expiresAt;
+
+      Cached (V value, long expiresAt) {
+         this.value = value;
+         this.expiresAt = expiresAt;
+      }//end Cached
+   }//end Cached
+
+   private final String _name;
+   private final int _capacity;
+   private final long _ttlNanos;
+   private final Loader<K, V> _loader;
+   private final LinkedHashMap<K, Cached<V>> _entries;
+   // incremented by every invalidation.
+   private long _generation = 0;
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+   private long _invalidations = 0;
+
+   /**
+    * Creates an empty cache
+    *
+    * @param name the name printed with the counters
+    * @param capacity the most entries kept
+    * @param ttlMs how long an entry is kept after it is loaded
+    * @param loader reads the values of missed keys
+    */
+   public ReferenceCache (String name, int capacity, long ttlMs, Loader<K, V> loader) {
+      this._name = name;
+      this._capacity = Math.max (1, capacity);
+      this._ttlNanos = ttlMs * 1000000L;
+      this._loader = loader;
+      this._entries = new LinkedHashMap<K, Cached<V>> (16, 0.75f, true) {
+         protected boolean removeEldestEntry (Map.Entry<K, Cached<V>> eldest) {
+            if (size () <= _capacity) return false;
+            ++_evictions;
+            return true;
+         }
+      };
+   }//end ReferenceCache
+
+   /**
+    * Returns the value of a key, loading it on a miss.
+    *
+    * @return the value, or null when there is none
+    * @throws java.sql.SQLException when a missed value cannot be loaded
+    */
+   public V get (K key) throws SQLException {
+      long generation;
+      synchronized (this) {
+         Cached<V> entry = this._entries.get (key);
+         if (entry != null && entry.expiresAt - System.nanoTime () > 0) {
+            ++this._hits;
+            return entry.value;
+         }//end if
+         ++this._misses;
+         generation = this._generation;
+      }//end synchronized
+
+      // loaded outside the lock, so other keys are served meanwhile.
+      V value = this._loader.load (key);
+      if (value != null) {
+         synchronized (this) {
+            if (generation == this._generation) {
+               this._entries.put (key, new Cached<V> (value, System.nanoTime () + this._ttlNanos));
+            }//end if
+         }//end synchronized
+      }//end if
+      return value;
+   }//end get
+
+   /**
+    * Drops the value of a key.
+    */
+   public synchronized void invalidate (K key) {
+      ++this._generation;
+      ++this._invalidations;
+      this._entries.remove (key);
+   }//end invalidate
+
+   /**
+    * Drops every value.
+    */
+   public synchronized void clear () {
+      ++this._generation;
+      ++this._invalidations;
+      this._entries.clear ();
+   }//end clear
+
+   /**
+    * Returns the cache counters, e.g. for printing on exit.
+    */
+   public synchronized String stats () {
+      long lookups = this._hits + this._misses;
+      double hitRatio = lookups == 0 ? 0.0 : (100.0 * this._hits) / lookups;
+      return String.format ("%s cached: %d/%d, hits: %d, misses: %d, evictions: %d, invalidations: %d, hit ratio: %.1f%%",
+                            this._name, this._entries.size (), this._capacity, this._hits, this._misses,
+                            this._evictions, this._invalidations, hitRatio);
+   }//end stats
+
+}//end ReferenceCache
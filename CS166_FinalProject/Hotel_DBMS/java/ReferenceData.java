@@ -0,0 +1,212 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+/**
+ * This class caches the reference lookups of the menu operations: the
+ * cmpIDs of a company name and the type of a room.
+ * Each lookup goes through a ReferenceCache, so a repeated lookup does not
+ * reach the database.
+ *
+ * Cached values are dropped when this process changes the row, when they
+ * outlive their time to live, and, once listen() is called, when another
+ * session changes the table: the triggers of migration 007 NOTIFY a channel
+ * per table, and a daemon thread polls a LISTEN connection for them.
+ * repairRequest finds the manager inside its INSERT, so hotels are not
+ * cached (migration 011 drops their trigger).
+ *
+ * Settings:
+ *   -Ddbproject.cache=true           whether lookups are cached at all
+ *   -Ddbproject.cache.size=10000     entries per cache
+ *   -Ddbproject.cache.ttlSec=300     time to live of an entry
+ *   -Ddbproject.cache.pollMs=500     how often notifications are read
+ *
+ */
+public class ReferenceData {
+
+   static final int CACHE_SIZE = Integer.getInteger("dbproject.cache.size", 10000);
+   static final long CACHE_TTL_SEC = Long.getLong("dbproject.cache.ttlSec", 300L);
+   static final long POLL_MS = Long.getLong("dbproject.cache.pollMs", 500L);
+
+   static final String COMPANY_IDS_SQL =
+      "SELECT m.cmpID FROM MaintenanceCompany m WHERE m.name = ?";
+   static final String ROOM_TYPE_SQL =
+      "SELECT r.roomType FROM Room r WHERE r.hotelID = ? AND r.roomNo = ?";
+
+   // channels notified by the triggers of migration 007.
+   static final String ROOM_CHANNEL = "dbproject_room";
+   static final String COMPANY_CHANNEL = "dbproject_maintenancecompany";
+
+   private final DBProject _esql;
+   private final ReferenceCache<String, List<Integer>> _companies;
+   // keyed by hotelID and roomNo, see roomKey.
+   private final ReferenceCache<Long, String> _roomTypes;
+   private volatile Thread _listener = null;
+
+   /**
+    * Creates empty caches of the reference lookups of a database
+    *
+    * @param esql the database to read from
+    */
+   public ReferenceData (final DBProject esql) {
+      this._esql = esql;
+      long ttlMs = CACHE_TTL_SEC * 1000L;
+      this._companies = new ReferenceCache<String, List<Integer>> ("company names", CACHE_SIZE, ttlMs,
+         new ReferenceCache.Loader<String, List<Integer>> () {
+            public List<Integer> load (String name) throws SQLException {
+               // names are not unique; no company with the name is cached too.
+               List<Integer> ids = new ArrayList<Integer> ();
+               for (List<String> row : esql.executeQueryAndReturnResult (COMPANY_IDS_SQL, name)) {
+                  ids.add (Integer.valueOf (row.get (0).trim ()));
+               }//end for
+               return ids;
+            }
+         });
+      this._roomTypes = new ReferenceCache<Long, String> ("room types", CACHE_SIZE, ttlMs,
+         new ReferenceCache.Loader<Long, String> () {
+            public String load (Long room) throws SQLException {
+               int hotelID = (int) (room >> 32);
+               List<List<String>> rows = esql.shard (hotelID, false).executeQueryAndReturnResult (ROOM_TYPE_SQL, hotelID, (int) (long) room);
+               return rows.isEmpty () ? null : rows.get (0).get (0).trim ();
+            }
+         });
+   }//end ReferenceData
+
+   /**
+    * Returns the cmpIDs of the maintenance companies with a name.
+    */
+   public List<Integer> companyIDs (String name) throws SQLException {
+      return this._companies.get (name);
+   }//end companyIDs
+
+   /**
+    * Returns the type of a room, or null if there is no such room.
+    */
+   public String roomType (int hotelID, int roomNo) throws SQLException {
+      return this._roomTypes.get (roomKey (hotelID, roomNo));
+   }//end roomType
+
+   /**
+    * Records a committed Room insert or update.
+    */
+   public void roomChanged (int hotelID, int roomNo) {
+      this._roomTypes.invalidate (roomKey (hotelID, roomNo));
+   }//end roomChanged
+
+   /**
+    * Records a committed MaintenanceCompany insert or update.
+    */
+   public void companyChanged (String name) {
+      this._companies.invalidate (name);
+   }//end companyChanged
+
+   private static Long roomKey (int hotelID, int roomNo) {
+      return ((long) hotelID << 32) | (roomNo & 0xffffffffL);
+   }//end roomKey
+
+   /**
+    * Starts dropping the cached lookups of a table whenever another session
+    * changes it.
+    *
+    * @param conn a connection of its own, closed by stop()
+    * @throws java.sql.SQLException when the channels cannot be listened to
+    */
+   public void listen (final Connection conn) throws SQLException {
+      Statement stmt = conn.createStatement ();
+      try{
+         for (String channel : Arrays.asList (ROOM_CHANNEL, COMPANY_CHANNEL)) {
+            stmt.execute ("LISTEN " + channel);
+         }//end for
+      }finally{
+         stmt.close ();
+      }//end try
+
+      Thread listener = new Thread ("ReferenceData-listener") {
+         public void run () {
+            try{
+               Statement poll = conn.createStatement ();
+               while (!isInterrupted ()) {
+                  // the 7.3 driver only reads notifications while it reads a result.
+                  poll.executeQuery ("SELECT 1").close ();
+                  PGNotification[] notifications = ((PGConnection) conn).getNotifications ();
+                  if (notifications != null) {
+                     for (PGNotification notification : notifications) changed (notification.getName ());
+                  }//end if
+                  Thread.sleep (POLL_MS);
+               }//end while
+            }catch (InterruptedException e){
+               // stopped.
+            }catch (SQLException e){
+               // without notifications only the TTL bounds staleness.
+               System.err.println ("Error - Reference cache listener stopped: " + e.getMessage ());
+               clear ();
+            }finally{
+               try{
+                  conn.close ();
+               }catch (SQLException e){
+                  // ignored.
+               }//end try
+            }//end try
+         }
+      };
+      listener.setDaemon (true);
+      listener.start ();
+      this._listener = listener;
+   }//end listen
+
+   /**
+    * Stops listening for changes.
+    */
+   public void stop () {
+      Thread listener = this._listener;
+      if (listener != null) listener.interrupt ();
+   }//end stop
+
+   /**
+    * Drops the cached lookups of the table behind a channel.
+    */
+   void changed (String channel) {
+      // the reload of the lookups has to see the change, even on a replica.
+      this._esql.changedElsewhere ();
+      if (ROOM_CHANNEL.equalsIgnoreCase (channel)) {
+         this._roomTypes.clear ();
+      }else if (COMPANY_CHANNEL.equalsIgnoreCase (channel)) {
+         this._companies.clear ();
+      }//end if
+   }//end changed
+
+   /**
+    * Drops every cached lookup.
+    */
+   public void clear () {
+      this._companies.clear ();
+      this._roomTypes.clear ();
+   }//end clear
+
+   /**
+    * Returns the counters of the caches, e.g. for printing on exit.
+    */
+   public String stats () {
+      return this._companies.stats () + "\n" + this._roomTypes.stats ();
+   }//end stats
+
+}//end ReferenceData
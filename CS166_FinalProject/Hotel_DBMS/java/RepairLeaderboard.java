@@ -0,0 +1,201 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+
+/**
+ * This class ranks the maintenance companies by their number of repairs.
+ * The companies with at least one repair are kept sorted by count, so the
+ * top K are the first K entries of the ranking.
+ *
+ * The counts are loaded from the CompanyRepairCount table, which a trigger
+ * on Repair keeps current (migration 002), and are then updated by this
+ * process' own addRepair calls.  On a database without that migration the
+ * counts are aggregated from Repair instead.  They are loaded again every
+ * dbproject.leaderboard.reloadSec seconds, so the repairs other desks and
+ * BatchImporter add, and those archiveDatePartitions takes out, are
+ * counted at most that long after they commit.  A repair of this process
+ * that commits while the counts are read may count twice, or not at all,
+ * until the next load.
+ *
+ */
+public class RepairLeaderboard {
+
+   // seconds between loads of the counts; 0 only loads them at startup.
+   static final long RELOAD_SEC = Long.getLong("dbproject.leaderboard.reloadSec", 10L);
+
+   /**
+    * The repair count of one company.
+    */
+   private static class Company {
+      final int cmpID;
+      String name;
+      long repairs;
+
+      Company (int cmpID, String name, long repairs) {
+         this.cmpID = cmpID;
+         this.name = name;
+         this.repairs = repairs;
+      }//end Company
+   }//end Company
+
+   static final String LOAD_SQL =
+      "SELECT m.cmpID, m.name, COALESCE(c.repairCount, 0) FROM MaintenanceCompany m " +
+      "LEFT JOIN CompanyRepairCount c ON c.cmpID = m.cmpID";
+   static final String AGGREGATE_SQL =
+      "SELECT m.cmpID, m.name, COUNT(r.rID) FROM MaintenanceCompany m " +
+      "LEFT JOIN Repair r ON r.mCompany = m.cmpID GROUP BY m.cmpID, m.name";
+
+   // most repairs first, ties broken by company id.
+   private static final Comparator<Company> BY_REPAIRS = new Comparator<Company>() {
+      public int compare (Company a, Company b) {
+         if (a.repairs != b.repairs) return a.repairs > b.repairs ? -1 : 1;
+         return a.cmpID < b.cmpID ? -1 : (a.cmpID == b.cmpID ? 0 : 1);
+      }
+   };
+
+   private final Map<Integer, Company> _companies = new HashMap<Integer, Company>();
+   // companies with at least one repair, in rank order.
+   private final TreeSet<Company> _ranking = new TreeSet<Company>(BY_REPAIRS);
+   private boolean _fromAggregateTable = false;
+   private Timer _reloader = null;
+   private long _reloads = 0;
+   private long _failedReloads = 0;
+
+   /**
+    * Replaces the counts with the ones stored in the database.
+    *
+    * @param esql the database to read from
+    * @throws java.sql.SQLException when the counts cannot be read
+    */
+   public void load (DBProject esql) throws SQLException {
+      List<List<String>> rows;
+      boolean fromAggregateTable = true;
+      try{
+         rows = esql.executeQueryAndReturnResult (LOAD_SQL);
+      }catch (SQLException e){
+         // CompanyRepairCount does not exist before migration 002.
+         rows = esql.executeQueryAndReturnResult (AGGREGATE_SQL);
+         fromAggregateTable = false;
+      }//end try
+
+      synchronized (this) {
+         this._companies.clear ();
+         this._ranking.clear ();
+         for (List<String> row : rows) {
+            Company company = new Company (Integer.parseInt (row.get (0)), trim (row.get (1)),
+                                           Long.parseLong (row.get (2)));
+            this._companies.put (company.cmpID, company);
+            if (company.repairs > 0) this._ranking.add (company);
+         }//end for
+         this._fromAggregateTable = fromAggregateTable;
+         ++this._reloads;
+      }//end synchronized
+   }//end load
+
+   /**
+    * Loads the counts every RELOAD_SEC seconds on a daemon thread.  A failed
+    * load keeps the current counts until the next one.
+    *
+    * @param esql the database to read from
+    */
+   public synchronized void startReloads (final DBProject esql) {
+      if (RELOAD_SEC <= 0 || this._reloader != null) return;
+      this._reloader = new Timer ("RepairLeaderboard-reload", true);
+      this._reloader.schedule (new TimerTask () {
+         public void run () {
+            try{
+               load (esql);
+            }catch (SQLException e){
+               synchronized (RepairLeaderboard.this) {
+                  ++_failedReloads;
+               }//end synchronized
+               System.err.println ("Error - Unable to reload repair leaderboard: " + e.getMessage ());
+            }//end try
+         }
+      }, RELOAD_SEC * 1000L, RELOAD_SEC * 1000L);
+   }//end startReloads
+
+   /**
+    * Stops the reloads.
+    */
+   public synchronized void stop () {
+      if (this._reloader != null) this._reloader.cancel ();
+      this._reloader = null;
+   }//end stop
+
+   /**
+    * Records a committed maintenance company insert.
+    */
+   public synchronized void addCompany (int cmpID, String name) {
+      Company company = this._companies.get (cmpID);
+      if (company == null) {
+         this._companies.put (cmpID, new Company (cmpID, trim (name), 0));
+      }else{
+         company.name = trim (name);
+      }//end if
+   }//end addCompany
+
+   /**
+    * Records committed repair inserts (delta > 0) or deletes (delta < 0).
+    */
+   public synchronized void recordRepairs (int cmpID, long delta) {
+      Company company = this._companies.get (cmpID);
+      if (company == null) {
+         company = new Company (cmpID, String.valueOf (cmpID), 0);
+         this._companies.put (cmpID, company);
+      }//end if
+      // the ranking is ordered by count, so re-insert after changing it.
+      this._ranking.remove (company);
+      company.repairs = Math.max (0, company.repairs + delta);
+      if (company.repairs > 0) this._ranking.add (company);
+   }//end recordRepairs
+
+   /**
+    * Returns the k companies with the most repairs as [name, repairCount]
+    * rows, most repairs first.
+    */
+   public synchronized List<List<String>> top (int k) {
+      List<List<String>> top = new ArrayList<List<String>> (Math.max (0, Math.min (k, this._ranking.size ())));
+      Iterator<Company> it = this._ranking.iterator ();
+      while (top.size () < k && it.hasNext ()) {
+         Company company = it.next ();
+         top.add (Arrays.asList (company.name, String.valueOf (company.repairs)));
+      }//end while
+      return top;
+   }//end top
+
+   /**
+    * Returns a one line summary of the leaderboard.
+    */
+   public synchronized String stats () {
+      return String.format ("repair leaderboard: %d companies, %d with repairs, loaded from %s %d times (%d failed)",
+                            this._companies.size (), this._ranking.size (),
+                            this._fromAggregateTable ? "CompanyRepairCount" : "Repair", this._reloads, this._failedReloads);
+   }//end stats
+
+   private static String trim (String s) {
+      return s == null ? null : s.trim ();
+   }//end trim
+
+}//end RepairLeaderboard
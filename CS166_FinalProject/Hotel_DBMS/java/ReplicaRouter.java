@@ -0,0 +1,326 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * This class sends the reads of a DBProject to streaming replicas of its
+ * database and everything else to the primary.
+ *
+ * A statement is a read when it is a SELECT or WITH that neither writes
+ * nor takes ids or row locks; reports, lookups and cursor listings are all
+ * reads.  A read goes to the replica with the fewest connections in use
+ * among those that
+ *   - have replayed the primary's WAL up to where it was after the last
+ *     write of this DBProject, so a read sees every earlier write, and
+ *   - are at most dbproject.replicas.maxLagBytes of WAL behind the primary.
+ * When no replica qualifies the read goes to the primary.  The WAL
+ * positions of the primary and the replicas are polled every
+ * dbproject.replicas.pollMs; the primary's position after a write is only
+ * read when the next read is routed.
+ *
+ * Replicas are given as -Ddbproject.replicas=port,host:port,...; each is
+ * reached with the database name, user and password of the primary.  See
+ * postgresql/startReplica.sh for starting one next to the database of
+ * postgresql/startPostgreSQL.sh.
+ *
+ */
+public class ReplicaRouter {
+
+   // comma separated ports or host:ports of the replicas; empty disables routing.
+   static final String REPLICAS = System.getProperty("dbproject.replicas", "");
+   // the WAL bytes a replica may be behind the primary and still serve reads.
+   static final long MAX_LAG_BYTES = Long.getLong("dbproject.replicas.maxLagBytes", 16L * 1024 * 1024);
+   static final long POLL_MS = Long.getLong("dbproject.replicas.pollMs", 200L);
+
+   static final String PRIMARY_LSN_SQL = "SELECT pg_current_wal_lsn()";
+   // NULL on a server that is not a replica.
+   static final String REPLAY_LSN_SQL = "SELECT pg_last_wal_replay_lsn()";
+
+   private static final Pattern READ = Pattern.compile("\\s*(SELECT|WITH)\\b.*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+   private static final Pattern WRITE = Pattern.compile(
+      "\\b(INSERT|UPDATE|DELETE|FOR\\s+SHARE|nextval|setval|ensureDatePartitions|archiveDatePartitions|pg_export_snapshot)\\b",
+      Pattern.CASE_INSENSITIVE);
+   private static final Pattern AUTHORITY = Pattern.compile("//[^/]*/");
+
+   // statements classified so far; reads are classified once per SQL string.
+   private static final int MAX_CLASSIFIED = 1024;
+   private static final Map<String, Boolean> _classified = new ConcurrentHashMap<String, Boolean>();
+
+   /**
+    * A replica and what is known about its position.
+    */
+   static class Replica {
+      final String endpoint;
+      final ConnectionPool pool;
+      // the WAL position replayed at the last poll, and whether the poll succeeded.
+      volatile long replayLsn = -1;
+      volatile long polledAt = 0;
+      volatile boolean up = false;
+
+      Replica (String endpoint, ConnectionPool pool) {
+         this.endpoint = endpoint;
+         this.pool = pool;
+      }//end Replica
+   }//end Replica
+
+   private final ConnectionPool _primary;
+   private final List<Replica> _replicas = new ArrayList<Replica>();
+   private final Timer _monitor;
+
+   // writes finished on the primary, and how many of them _requiredLsn covers.
+   private final AtomicLong _writes = new AtomicLong();
+   private long _coveredWrites = 0;
+   // the primary's WAL position after the last write this DBProject saw.
+   private long _requiredLsn = 0;
+   // the primary's WAL position at the last poll.
+   private volatile long _primaryLsn = 0;
+
+   // statistics
+   private final AtomicLong _replicaReads = new AtomicLong();
+   private final AtomicLong _primaryReads = new AtomicLong();
+   private final AtomicLong _laggingReads = new AtomicLong();
+   private final AtomicLong _lsnReads = new AtomicLong();
+
+   /**
+    * Creates a router over replicas, or returns null when there are none.
+    *
+    * @param replicas comma separated ports or host:ports of replicas of
+    *        this primary, e.g. REPLICAS for the database DBProject is
+    *        started on
+    * @param primary the pool of the primary
+    * @param url the JDBC connection URL of the primary
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @param maxSize the maximum number of connections to each replica
+    * @throws java.sql.SQLException when a replica pool cannot be created
+    */
+   static ReplicaRouter create (String replicas, ConnectionPool primary, String url, String user, String passwd,
+                                int maxSize) throws SQLException {
+      if (replicas == null || replicas.trim().isEmpty()) return null;
+      List<String> endpoints = new ArrayList<String>();
+      for (String endpoint : replicas.split(",")) {
+         if (!endpoint.trim().isEmpty()) endpoints.add(endpoint.trim());
+      }//end for
+      return new ReplicaRouter(primary, url, user, passwd, endpoints, maxSize);
+   }//end create
+
+   ReplicaRouter (ConnectionPool primary, String url, String user, String passwd,
+                  List<String> endpoints, int maxSize) throws SQLException {
+      this._primary = primary;
+      for (String endpoint : endpoints) {
+         String authority = endpoint.contains(":") ? endpoint : "localhost:" + endpoint;
+         String replicaUrl = AUTHORITY.matcher(url).replaceFirst("//" + authority + "/");
+         // no connection is opened up front, so a replica that is down does not stop the program.
+         ConnectionPool pool = new ConnectionPool(replicaUrl, user, passwd, 0, maxSize,
+                                                  DBProject.POOL_BORROW_TIMEOUT_MS, DBProject.POOL_IDLE_TIMEOUT_MS,
+                                                  DBProject.STATEMENT_CACHE_SIZE);
+         this._replicas.add(new Replica(authority, pool));
+      }//end for
+
+      this._monitor = new Timer("ReplicaRouter-monitor", true);
+      this._monitor.schedule(new TimerTask() {
+         public void run () {
+            poll();
+         }
+      }, 0, Math.max(10, POLL_MS));
+   }//end ReplicaRouter
+
+   /**
+    * Returns whether a statement only reads and may run on a replica.
+    */
+   static boolean isRead (String sql) {
+      Boolean read = _classified.get(sql);
+      if (read == null) {
+         read = READ.matcher(sql).matches() && !WRITE.matcher(sql).find();
+         if (_classified.size() < MAX_CLASSIFIED) _classified.put(sql, read);
+      }//end if
+      return read;
+   }//end isRead
+
+   /**
+    * Leases a connection for a statement: from a replica for a read when
+    * one is recent enough, from the primary otherwise.
+    *
+    * @param sql the statement about to run
+    * @throws java.sql.SQLException when no connection could be leased in time
+    */
+   public ConnectionPool.PooledConnection borrow (String sql) throws SQLException {
+      if (!isRead(sql)) return this._primary.borrow();
+
+      long required = requiredLsn();
+      long stale = System.currentTimeMillis() - 10 * Math.max(10, POLL_MS) - 1000;
+      Replica best = null;
+      boolean lagging = false;
+      for (Replica replica : this._replicas) {
+         if (!replica.up || replica.polledAt < stale) continue;
+         if (replica.replayLsn < required || this._primaryLsn - replica.replayLsn > MAX_LAG_BYTES) {
+            lagging = true;
+            continue;
+         }//end if
+         if (best == null || replica.pool.active() < best.pool.active()) best = replica;
+      }//end for
+
+      if (best != null) {
+         try{
+            ConnectionPool.PooledConnection pc = best.pool.borrow();
+            this._replicaReads.incrementAndGet();
+            return pc;
+         }catch (SQLException e){
+            // the next poll finds out whether it is back.
+            best.up = false;
+         }//end try
+      }//end if
+      this._primaryReads.incrementAndGet();
+      if (lagging) this._laggingReads.incrementAndGet();
+      return this._primary.borrow();
+   }//end borrow
+
+   /**
+    * Returns a connection leased by borrow() to its pool.
+    *
+    * @param sql the statement it ran
+    * @param pc the connection
+    */
+   public void release (String sql, ConnectionPool.PooledConnection pc) {
+      if (pc == null) return;
+      if (pc.getOwner() == this._primary && !isRead(sql)) written();
+      pc.getOwner().release(pc);
+   }//end release
+
+   /**
+    * Records a write the following reads have to see, e.g. one announced
+    * by a notification from another session.
+    */
+   public void written () {
+      this._writes.incrementAndGet();
+   }//end written
+
+   /**
+    * Returns the WAL position a replica has to have replayed to serve a
+    * read, reading the primary's position if there were writes since it
+    * was last read.
+    */
+   private long requiredLsn () throws SQLException {
+      long writes = this._writes.get();
+      synchronized (this) {
+         if (writes == this._coveredWrites) return this._requiredLsn;
+      }//end synchronized
+      long lsn = lsn(this._primary, PRIMARY_LSN_SQL);
+      this._lsnReads.incrementAndGet();
+      synchronized (this) {
+         this._requiredLsn = Math.max(this._requiredLsn, lsn);
+         this._coveredWrites = Math.max(this._coveredWrites, writes);
+         this._primaryLsn = Math.max(this._primaryLsn, lsn);
+         return this._requiredLsn;
+      }//end synchronized
+   }//end requiredLsn
+
+   /**
+    * Reads the WAL positions of the primary and of every replica.
+    */
+   private void poll () {
+      try{
+         long lsn = lsn(this._primary, PRIMARY_LSN_SQL);
+         synchronized (this) {
+            this._primaryLsn = Math.max(this._primaryLsn, lsn);
+         }//end synchronized
+      }catch (SQLException e){
+         // the replicas are compared against the last known position.
+      }//end try
+      for (Replica replica : this._replicas) {
+         try{
+            long lsn = lsn(replica.pool, REPLAY_LSN_SQL);
+            replica.replayLsn = lsn;
+            replica.polledAt = System.currentTimeMillis();
+            // a server that is not replaying WAL is not a replica of the primary.
+            replica.up = lsn >= 0;
+         }catch (SQLException e){
+            replica.up = false;
+         }//end try
+      }//end for
+   }//end poll
+
+   /**
+    * Runs a query returning a WAL position on a pool.
+    *
+    * @return the position as a number of bytes, or -1 when it is NULL
+    */
+   private static long lsn (ConnectionPool pool, String sql) throws SQLException {
+      ConnectionPool.PooledConnection pc = pool.borrow();
+      try{
+         Statement stmt = pc.getConnection().createStatement();
+         try{
+            ResultSet rs = stmt.executeQuery(sql);
+            rs.next();
+            String lsn = rs.getString(1);
+            rs.close();
+            return parseLsn(lsn);
+         }finally{
+            stmt.close();
+         }//end try
+      }catch (SQLException e){
+         pc.markBroken();
+         throw e;
+      }finally{
+         pool.release(pc);
+      }//end try
+   }//end lsn
+
+   /**
+    * Converts a WAL position such as 16/B374D848 to a number of bytes.
+    *
+    * @return the position, or -1 for null
+    */
+   static long parseLsn (String lsn) {
+      if (lsn == null) return -1;
+      int slash = lsn.indexOf('/');
+      return (Long.parseLong(lsn.substring(0, slash).trim(), 16) << 32) | Long.parseLong(lsn.substring(slash + 1).trim(), 16);
+   }//end parseLsn
+
+   /**
+    * Returns a one line summary of the replicas and where reads went.
+    */
+   public String stats () {
+      StringBuilder replicas = new StringBuilder();
+      for (Replica replica : this._replicas) {
+         if (replica.pool != this._replicas.get(0).pool) replicas.append(", ");
+         replicas.append(replica.endpoint).append(replica.up ? " up" : " down");
+         if (replica.up) replicas.append(" lag ").append(Math.max(0, this._primaryLsn - replica.replayLsn)).append(" bytes");
+      }//end for
+      return String.format("replicas: %s; reads on replicas: %d, on the primary: %d (%d behind), primary positions read: %d",
+                           replicas, this._replicaReads.get(), this._primaryReads.get(), this._laggingReads.get(),
+                           this._lsnReads.get());
+   }//end stats
+
+   /**
+    * Stops polling and closes the replica connections.
+    */
+   public void close () {
+      this._monitor.cancel();
+      for (Replica replica : this._replicas) {
+         replica.pool.close();
+      }//end for
+   }//end close
+
+}//end ReplicaRouter
@@ -0,0 +1,438 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class maps ranges of hotelIDs to the databases, or shards, that
+ * hold their rows, as listed in the ShardMap table of migration 009 in the
+ * database DBProject is started on, the directory.
+ *
+ * The rows of a hotel (Hotel, Staff, Room, Booking, Repair, Request and
+ * Assigned) live on the shard of its range, so an operation on one hotel
+ * runs on that shard alone.  Customer and MaintenanceCompany are written
+ * to the directory and every shard.  Reports over every hotel run on all
+ * shards at once and their results are merged: a k-way merge for top-K
+ * and ordered listings, a sum per company for the repair counts.  Ids
+ * still come from the sequences of the directory, so they are unique
+ * across shards.
+ *
+ * A shard reads from the replicas listed in
+ * -Ddbproject.shards.replicas.<host:port/dbname>, and from none without
+ * it; the replicas of dbproject.replicas are those of the directory.
+ *
+ * The map is read again every dbproject.shards.refreshMs, so a range
+ * moved by ShardRebalancer is followed without a restart.  Writes to a
+ * range that is being moved are refused until the move is done; reads
+ * keep going to its old shard.  The old shard itself refuses them too,
+ * through the fence of migration 012, so a process that has not read the
+ * map yet cannot write there either.  When the map could not be read for
+ * dbproject.shards.maxStaleMs, writes are refused until it is read again.
+ *
+ */
+public class ShardMap {
+
+   static final long REFRESH_MS = Long.getLong("dbproject.shards.refreshMs", 1000L);
+   static final long MAX_STALE_MS = Long.getLong("dbproject.shards.maxStaleMs", 10 * REFRESH_MS);
+
+   static final String LOAD_SQL =
+      "SELECT s.firstHotel, s.lastHotel, s.shard, s.moving FROM ShardMap s ORDER BY s.firstHotel";
+   static final String MAP_TABLE_SQL =
+      "SELECT 1 FROM pg_class c WHERE c.relname = 'shardmap' AND pg_table_is_visible(c.oid)";
+   static final String SPREAD_SQL =
+      "SELECT 1 FROM ShardMap s WHERE s.shard IS NOT NULL OR s.moving LIMIT 1";
+
+   /**
+    * Runs on one shard.
+    */
+   public interface ShardCall<T> {
+      T call (DBProject shard) throws SQLException;
+   }//end ShardCall
+
+   /**
+    * A range of hotelIDs and the shard holding them.
+    */
+   static class Range {
+      final int first;
+      final int last;
+      // host:port/dbname, or null for the directory.
+      final String endpoint;
+      final boolean moving;
+
+      Range (int first, int last, String endpoint, boolean moving) {
+         this.first = first;
+         this.last = last;
+         this.endpoint = endpoint;
+         this.moving = moving;
+      }//end Range
+   }//end Range
+
+   private final DBProject _directory;
+   private final String _user;
+   private final String _passwd;
+   private final int _poolSize;
+
+   // the ranges in hotelID order; replaced as a whole on refresh.
+   private volatile List<Range> _ranges = new ArrayList<Range>();
+   // when the map was last read.
+   private volatile long _refreshed = 0L;
+   // endpoint -> its database, opened on first use.
+   private final Map<String, DBProject> _shards = new ConcurrentHashMap<String, DBProject>();
+   private final Timer _refresher;
+   private final ExecutorService _scatter;
+
+   /**
+    * Reads the shard map of a directory database
+    *
+    * @param directory the database holding the ShardMap table
+    * @param user the user name used to login to the shards
+    * @param passwd the user login password
+    * @param poolSize the connections kept open to each shard
+    * @throws java.sql.SQLException when the map cannot be read
+    */
+   public ShardMap (DBProject directory, String user, String passwd, int poolSize) throws SQLException {
+      this._directory = directory;
+      this._user = user;
+      this._passwd = passwd;
+      this._poolSize = poolSize;
+      refresh ();
+
+      this._refresher = new Timer ("ShardMap-refresh", true);
+      this._refresher.schedule (new TimerTask () {
+         public void run () {
+            try{
+               refresh ();
+            }catch (SQLException e){
+               // the last map read stays in use for reads; shard() refuses writes once it is too old.
+            }//end try
+         }
+      }, REFRESH_MS, REFRESH_MS);
+
+      final AtomicInteger threads = new AtomicInteger ();
+      this._scatter = Executors.newCachedThreadPool (new ThreadFactory () {
+         public Thread newThread (Runnable r) {
+            Thread t = new Thread (r, "ShardMap-scatter-" + threads.incrementAndGet ());
+            t.setDaemon (true);
+            return t;
+         }
+      });
+   }//end ShardMap
+
+   /**
+    * Reads the map again from the directory.
+    */
+   void refresh () throws SQLException {
+      List<Range> ranges = new ArrayList<Range> ();
+      for (List<String> row : this._directory.executeQueryAndReturnResult (LOAD_SQL)) {
+         ranges.add (new Range (Integer.parseInt (row.get (0).trim ()), Integer.parseInt (row.get (1).trim ()),
+                                row.get (2) == null || row.get (2).trim ().isEmpty () ? null : row.get (2).trim (),
+                                row.get (3).startsWith ("t")));
+      }//end for
+      this._ranges = ranges;
+      this._refreshed = System.currentTimeMillis ();
+   }//end refresh
+
+   /**
+    * Refuses a write when the map was last read too long ago, as a range
+    * may have moved since.
+    */
+   private void checkFresh () throws SQLException {
+      long age = System.currentTimeMillis () - this._refreshed;
+      if (age > MAX_STALE_MS) {
+         throw new SQLException ("The shard map could not be read for " + age / 1000 + " s, writes are refused until it is...");
+      }//end if
+   }//end checkFresh
+
+   /**
+    * Refuses to run a tool that reads or writes the hotel tables of one
+    * database when some hotels of it are on, or moving to, other shards.
+    *
+    * @param conn a connection to the database the tool runs on
+    * @param tool what the tool does, e.g. "import"
+    * @throws java.sql.SQLException when the database has hotels elsewhere
+    */
+   static void refuseSharded (Connection conn, String tool) throws SQLException {
+      Statement stmt = conn.createStatement ();
+      try{
+         ResultSet rs = stmt.executeQuery (MAP_TABLE_SQL);
+         if (!rs.next ()) return;
+         rs.close ();
+         if (stmt.executeQuery (SPREAD_SQL).next ()) {
+            throw new SQLException ("Hotels of this database are on other shards (ShardMap, migration 009); " +
+                                    "cannot " + tool + " while sharded, move them back with ShardRebalancer first");
+         }//end if
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end refuseSharded
+
+   /**
+    * Returns the shard holding a hotel
+    *
+    * @param write whether the caller is about to change the hotel's rows
+    * @throws java.sql.SQLException when no shard holds the hotel, or write is
+    *         set and it is being moved or the map is too old
+    */
+   public DBProject shard (int hotelID, boolean write) throws SQLException {
+      if (write) checkFresh ();
+      List<Range> ranges = this._ranges;
+      int lo = 0, hi = ranges.size () - 1;
+      while (lo <= hi) {
+         int mid = (lo + hi) >>> 1;
+         Range range = ranges.get (mid);
+         if (hotelID < range.first) {
+            hi = mid - 1;
+         }else if (hotelID > range.last) {
+            lo = mid + 1;
+         }else{
+            if (write && range.moving) {
+               throw new SQLException ("Hotel " + hotelID + " is being moved to another shard, try again shortly...");
+            }//end if
+            return database (range.endpoint);
+         }//end if
+      }//end while
+      throw new SQLException ("No shard holds hotel " + hotelID);
+   }//end shard
+
+   /**
+    * Returns every shard once, in the order of their first range.
+    */
+   public List<DBProject> shards () throws SQLException {
+      Map<DBProject, Boolean> seen = new IdentityHashMap<DBProject, Boolean> ();
+      List<DBProject> shards = new ArrayList<DBProject> ();
+      for (Range range : this._ranges) {
+         DBProject shard = database (range.endpoint);
+         if (seen.put (shard, Boolean.TRUE) == null) shards.add (shard);
+      }//end for
+      return shards;
+   }//end shards
+
+   /**
+    * Returns the directory and every shard once, the databases the shared
+    * tables are written to.
+    *
+    * @throws java.sql.SQLException when the map is too old to know them all
+    */
+   public List<DBProject> everyDatabase () throws SQLException {
+      checkFresh ();
+      List<DBProject> databases = shards ();
+      if (!databases.contains (this._directory)) databases.add (0, this._directory);
+      return databases;
+   }//end everyDatabase
+
+   /**
+    * Runs a call on every shard at once.
+    *
+    * @return the results in the order of shards()
+    * @throws java.sql.SQLException the first failure of a shard
+    */
+   public <T> List<T> scatter (final ShardCall<T> call) throws SQLException {
+      List<DBProject> shards = shards ();
+      if (shards.size () == 1) return Collections.singletonList (call.call (shards.get (0)));
+      List<Future<T>> futures = new ArrayList<Future<T>> ();
+      for (final DBProject shard : shards) {
+         futures.add (this._scatter.submit (new Callable<T> () {
+            public T call () throws SQLException {
+               return call.call (shard);
+            }
+         }));
+      }//end for
+      List<T> results = new ArrayList<T> ();
+      try{
+         for (Future<T> future : futures) results.add (future.get ());
+         return results;
+      }catch (ExecutionException e){
+         for (Future<T> future : futures) future.cancel (true);
+         if (e.getCause () instanceof SQLException) throw (SQLException) e.getCause ();
+         throw new SQLException (e.getCause ().getMessage ());
+      }catch (InterruptedException e){
+         for (Future<T> future : futures) future.cancel (true);
+         Thread.currentThread ().interrupt ();
+         throw new SQLException ("Interrupted while waiting for the shards");
+      }//end try
+   }//end scatter
+
+   /**
+    * Merges rows sorted by an order into one sorted list, taking one row
+    * at a time from the list whose next row comes first.
+    *
+    * @param sorted lists each sorted by order
+    * @param limit the most rows returned, e.g. K
+    */
+   public static List<List<String>> merge (final List<List<List<String>>> sorted, final Comparator<List<String>> order, int limit) {
+      // a cursor is {list, position}.
+      PriorityQueue<int[]> heads = new PriorityQueue<int[]> (Math.max (1, sorted.size ()), new Comparator<int[]> () {
+         public int compare (int[] a, int[] b) {
+            return order.compare (sorted.get (a[0]).get (a[1]), sorted.get (b[0]).get (b[1]));
+         }
+      });
+      for (int i = 0; i < sorted.size (); ++i) {
+         if (!sorted.get (i).isEmpty ()) heads.add (new int[] {i, 0});
+      }//end for
+      List<List<String>> merged = new ArrayList<List<String>> ();
+      while (!heads.isEmpty () && merged.size () < limit) {
+         int[] head = heads.poll ();
+         merged.add (sorted.get (head[0]).get (head[1]));
+         if (++head[1] < sorted.get (head[0]).size ()) heads.add (head);
+      }//end while
+      return merged;
+   }//end merge
+
+   /**
+    * Orders rows by a number column, e.g. a price, highest first.
+    */
+   public static Comparator<List<String>> descending (final int column) {
+      return new Comparator<List<String>> () {
+         public int compare (List<String> a, List<String> b) {
+            return Double.compare (Double.parseDouble (b.get (column).trim ()), Double.parseDouble (a.get (column).trim ()));
+         }
+      };
+   }//end descending
+
+   /**
+    * Orders rows by their first integer columns, lowest first.
+    */
+   public static Comparator<List<String>> ascending (final int columns) {
+      return new Comparator<List<String>> () {
+         public int compare (List<String> a, List<String> b) {
+            for (int i = 0; i < columns; ++i) {
+               int c = Long.compare (Long.parseLong (a.get (i).trim ()), Long.parseLong (b.get (i).trim ()));
+               if (c != 0) return c;
+            }//end for
+            return 0;
+         }
+      };
+   }//end ascending
+
+   /**
+    * Pages through the listings of every shard as one listing, merging
+    * pagers that are each sorted by the same order.  Pages already shown
+    * are kept, so going back does not query the shards again.
+    */
+   static class MergedPager implements DBProject.Pager {
+      private final List<DBProject.Pager> _pagers;
+      // rows fetched from each pager and not shown yet.
+      private final List<Deque<List<String>>> _heads = new ArrayList<Deque<List<String>>> ();
+      private final Comparator<List<String>> _order;
+      private final int _pageSize;
+      private final List<List<List<String>>> _pages = new ArrayList<List<List<String>>> ();
+      private int _current = -1;
+
+      MergedPager (List<DBProject.Pager> pagers, Comparator<List<String>> order, int pageSize) {
+         this._pagers = pagers;
+         this._order = order;
+         this._pageSize = Math.max (1, pageSize);
+         for (int i = 0; i < pagers.size (); ++i) this._heads.add (new ArrayDeque<List<String>> ());
+      }//end MergedPager
+
+      public List<List<String>> next () throws SQLException {
+         if (this._current + 1 < this._pages.size ()) return this._pages.get (++this._current);
+         List<List<String>> page = new ArrayList<List<String>> ();
+         while (page.size () < this._pageSize) {
+            int first = -1;
+            for (int i = 0; i < this._pagers.size (); ++i) {
+               Deque<List<String>> head = this._heads.get (i);
+               if (head.isEmpty () && this._pagers.get (i).hasNext ()) head.addAll (this._pagers.get (i).next ());
+               if (head.isEmpty ()) continue;
+               if (first < 0 || this._order.compare (head.peekFirst (), this._heads.get (first).peekFirst ()) < 0) first = i;
+            }//end for
+            if (first < 0) break;
+            page.add (this._heads.get (first).pollFirst ());
+         }//end while
+         if (page.isEmpty ()) return page;
+         this._pages.add (page);
+         return this._pages.get (++this._current);
+      }//end next
+
+      public List<List<String>> previous () {
+         if (!hasPrevious ()) return new ArrayList<List<String>> ();
+         return this._pages.get (--this._current);
+      }//end previous
+
+      public boolean hasNext () {
+         if (this._current + 1 < this._pages.size ()) return true;
+         for (int i = 0; i < this._pagers.size (); ++i) {
+            if (!this._heads.get (i).isEmpty () || this._pagers.get (i).hasNext ()) return true;
+         }//end for
+         return false;
+      }//end hasNext
+
+      public boolean hasPrevious () {
+         return this._current > 0;
+      }//end hasPrevious
+   }//end MergedPager
+
+   /**
+    * Returns the database of an endpoint, opening it on first use.
+    */
+   private DBProject database (String endpoint) throws SQLException {
+      if (endpoint == null) return this._directory;
+      DBProject shard = this._shards.get (endpoint);
+      if (shard != null) return shard;
+      synchronized (this._shards) {
+         shard = this._shards.get (endpoint);
+         if (shard == null) {
+            // dbproject.replicas lists replicas of the directory, so a shard only reads from its own.
+            shard = new DBProject ("jdbc:postgresql://" + endpoint, this._user, this._passwd, this._poolSize,
+                                   System.getProperty ("dbproject.shards.replicas." + endpoint, ""));
+            this._shards.put (endpoint, shard);
+         }//end if
+         return shard;
+      }//end synchronized
+   }//end database
+
+   /**
+    * Returns a one line summary of the map.
+    */
+   public String stats () {
+      StringBuilder map = new StringBuilder ();
+      for (Range range : this._ranges) {
+         if (map.length () > 0) map.append (", ");
+         map.append (range.first).append ('-').append (range.last).append (" on ")
+            .append (range.endpoint == null ? "the directory" : range.endpoint).append (range.moving ? " (moving)" : "");
+      }//end for
+      return "shards: " + map;
+   }//end stats
+
+   /**
+    * Stops refreshing the map and closes the shards.
+    */
+   public void close () {
+      this._refresher.cancel ();
+      this._scatter.shutdownNow ();
+      for (DBProject shard : this._shards.values ()) shard.cleanup ();
+   }//end close
+
+}//end ShardMap
@@ -0,0 +1,490 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class moves a range of hotelIDs to another shard while DBProject
+ * keeps running:
+ *   1. the ShardMap entry holding the range is split so the range has an
+ *      entry of its own, and the range is marked moving, which makes every
+ *      DBProject refuse writes to its hotels once it has read the map again;
+ *   2. the range is fenced on the old shard (migration 012): the fence lock
+ *      waits for the writes already running there to commit, and every
+ *      later write to the range fails there, however old the map its
+ *      writer has read;
+ *   3. the rows of the range are copied to the new shard in one transaction;
+ *   4. the entry is pointed at the new shard, and once every DBProject has
+ *      read the map again the rows are deleted from the old shard.  The
+ *      fence stays, as the range no longer belongs there.
+ * Reads of the range keep going to the old shard until step 4.  When the
+ * copy or the map update fails, what was copied is deleted again, the
+ * fence is lifted and the range stays where it was, unless the update did
+ * reach the directory and only its reply was lost.
+ *
+ * The new shard needs the tables of sql/create.sql and migrations 001-008
+ * and 012, and already every Customer and MaintenanceCompany, which
+ * DBProject adds to all shards.
+ *
+ */
+public class ShardRebalancer {
+
+   // rows per INSERT statement of the copy.
+   static final int INSERT_BATCH_ROWS = Integer.getInteger("dbproject.loader.batchRows", 1000);
+
+   // the rows of a range {first, last}, in the order they are copied; the managers are set after Staff.
+   static final String[][] COPY = {
+      {"Hotel", "SELECT h.hotelID, h.address, NULL FROM Hotel h WHERE h.hotelID BETWEEN %d AND %d"},
+      {"Staff", "SELECT s.SSN, s.fName, s.lName, s.address, s.role, s.employerID FROM Staff s " +
+                "WHERE s.employerID BETWEEN %d AND %d"},
+      {"Room", "SELECT r.hotelID, r.roomNo, r.roomType FROM Room r WHERE r.hotelID BETWEEN %d AND %d"},
+      {"Booking", "SELECT b.bID, b.customer, b.hotelID, b.roomNo, b.bookingDate, b.noOfPeople, b.price FROM Booking b " +
+                  "WHERE b.hotelID BETWEEN %d AND %d"},
+      {"Repair", "SELECT r.rID, r.hotelID, r.roomNo, r.mCompany, r.repairDate, r.description, r.repairType FROM Repair r " +
+                 "WHERE r.hotelID BETWEEN %d AND %d"},
+      {"Request", "SELECT q.reqID, q.managerID, q.repairID, q.requestDate, q.description FROM Request q, Repair r " +
+                  "WHERE r.rID = q.repairID AND r.hotelID BETWEEN %d AND %d"},
+      {"Assigned", "SELECT a.asgID, a.staffID, a.hotelID, a.roomNo FROM Assigned a WHERE a.hotelID BETWEEN %d AND %d"}
+   };
+   static final String MANAGERS_SQL = "SELECT h.hotelID, h.manager FROM Hotel h WHERE h.hotelID BETWEEN %d AND %d";
+
+   // deletes the rows of a range, referencing rows first.
+   static final String[] DELETE = {
+      "DELETE FROM Assigned WHERE hotelID BETWEEN %d AND %d",
+      "DELETE FROM Request WHERE repairID IN (SELECT r.rID FROM Repair r WHERE r.hotelID BETWEEN %d AND %d)",
+      "DELETE FROM Repair WHERE hotelID BETWEEN %d AND %d",
+      "DELETE FROM Booking WHERE hotelID BETWEEN %d AND %d",
+      "DELETE FROM Room WHERE hotelID BETWEEN %d AND %d",
+      "UPDATE Hotel SET manager = NULL WHERE hotelID BETWEEN %d AND %d",
+      "DELETE FROM Staff WHERE employerID BETWEEN %d AND %d",
+      "DELETE FROM Hotel WHERE hotelID BETWEEN %d AND %d"
+   };
+
+   // set for the transactions that copy and delete fenced rows.
+   static final String SHARD_MOVE_SQL = "SET LOCAL dbproject.shard_move = 'on'";
+   // taken shared by every write to the hotel tables.
+   static final String FENCE_LOCK_SQL = "SELECT pg_advisory_xact_lock(hashtext('ShardFence'))";
+   static final String FENCES_SQL =
+      "SELECT f.firstHotel, f.lastHotel FROM ShardFence f WHERE f.firstHotel <= %d AND f.lastHotel >= %d";
+
+   static final String ENTRY_SQL =
+      "SELECT s.firstHotel, s.lastHotel, s.shard, s.moving FROM ShardMap s WHERE s.firstHotel <= ? AND s.lastHotel >= ?";
+
+   // reopened when a failed move is put back.
+   private Connection _directory;
+   private final String _directoryUrl;
+   private final String _user;
+   private final String _passwd;
+
+   /**
+    * Creates a rebalancer of the shard map of a directory database
+    *
+    * @param url the JDBC connection URL of the directory
+    * @param user the user name used to login to the databases
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when the directory cannot be reached
+    */
+   public ShardRebalancer (String url, String user, String passwd) throws SQLException {
+      this._directoryUrl = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._directory = DriverManager.getConnection (url, user, passwd);
+   }//end ShardRebalancer
+
+   /**
+    * Moves the hotels firstHotel to lastHotel to a shard.
+    *
+    * @param target host:port/dbname of the shard, or "directory"
+    * @throws java.sql.SQLException when the move fails; the range then stays where it was
+    */
+   public void move (int firstHotel, int lastHotel, String target) throws SQLException {
+      if (firstHotel > lastHotel) throw new SQLException ("Hotels " + firstHotel + "-" + lastHotel + " are not a range");
+      String targetEndpoint = "directory".equals (target) ? null : target;
+      String source = split (firstHotel, lastHotel, targetEndpoint);
+      System.out.println ("Hotels " + firstHotel + "-" + lastHotel + " are moving from " + name (source) + " to " + name (targetEndpoint));
+
+      Connection from = null;
+      Connection to = null;
+      try{
+         try{
+            from = connect (source);
+            to = connect (targetEndpoint);
+            fence (from, firstHotel, lastHotel);
+            System.out.println ("Fenced them on " + name (source));
+            copy (from, to, firstHotel, lastHotel);
+            update ("UPDATE ShardMap SET shard = ?, moving = FALSE WHERE firstHotel = ?", targetEndpoint, firstHotel);
+         }catch (SQLException e){
+            if (!abandon (source, targetEndpoint, firstHotel, lastHotel, e)) throw e;
+            System.out.println ("The map update failed with \"" + e.getMessage () + "\" but was applied");
+         }catch (RuntimeException e){
+            abandon (source, targetEndpoint, firstHotel, lastHotel, e);
+            throw e;
+         }//end try
+         System.out.println ("Hotels " + firstHotel + "-" + lastHotel + " are now on " + name (targetEndpoint));
+
+         // readers that have not read the map again still read the source.
+         waitForRefresh ();
+         delete (from, firstHotel, lastHotel);
+         System.out.println ("Deleted them from " + name (source));
+      }finally{
+         close (from);
+         close (to);
+      }//end try
+   }//end move
+
+   /**
+    * Puts a range back where it was after a failed move: deletes what
+    * reached the target, lifts the fence on the source and clears moving.
+    * Runs on connections of its own, as the failure may have been one of
+    * those the move used.
+    *
+    * @param failure the failure of the move; what the cleanup fails on is added to it
+    * @return true when the map already points at the target, i.e. the move
+    *         was done and only the reply to its last update was lost
+    */
+   private boolean abandon (String source, String target, int firstHotel, int lastHotel, Exception failure) {
+      try{
+         try{
+            this._directory.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+         this._directory = DriverManager.getConnection (this._directoryUrl, this._user, this._passwd);
+         PreparedStatement stmt = this._directory.prepareStatement (ENTRY_SQL);
+         stmt.setInt (1, firstHotel);
+         stmt.setInt (2, firstHotel);
+         ResultSet rs = stmt.executeQuery ();
+         boolean moved = rs.next () && rs.getInt (1) == firstHotel && !rs.getBoolean (4) &&
+                         (rs.getString (3) == null ? target == null : rs.getString (3).equals (target));
+         stmt.close ();
+         if (moved) return true;
+      }catch (SQLException e){
+         // the steps below fail as well when the directory cannot be reached.
+      }//end try
+
+      // the map still points at the source, so what reached the target is not read by anyone.
+      Connection to = null;
+      try{
+         to = connect (target);
+         delete (to, firstHotel, lastHotel);
+      }catch (SQLException e){
+         putBackFailed (failure, e, "delete hotels " + firstHotel + "-" + lastHotel + " from " + name (target));
+      }finally{
+         close (to);
+      }//end try
+      Connection from = null;
+      try{
+         from = connect (source);
+         unfence (from, firstHotel, lastHotel, true);
+      }catch (SQLException e){
+         putBackFailed (failure, e, "delete the ShardFence rows of hotels " + firstHotel + "-" + lastHotel + " on " + name (source));
+      }finally{
+         close (from);
+      }//end try
+      try{
+         update ("UPDATE ShardMap SET moving = FALSE WHERE firstHotel = ?", firstHotel);
+      }catch (SQLException e){
+         putBackFailed (failure, e, "clear ShardMap.moving of hotels " + firstHotel + "-" + lastHotel);
+      }//end try
+      return false;
+   }//end abandon
+
+   private static void putBackFailed (Exception failure, SQLException e, String todo) {
+      failure.addSuppressed (e);
+      System.err.println ("Unable to put the move back (" + e.getMessage () + "), " + todo + " by hand");
+   }//end putBackFailed
+
+   private static void close (Connection conn) {
+      try{
+         if (conn != null) conn.close ();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end close
+
+   /**
+    * Gives the range its own map entry, marked moving.
+    *
+    * @return the endpoint of the shard holding the range
+    */
+   private String split (int firstHotel, int lastHotel, String target) throws SQLException {
+      this._directory.setAutoCommit (false);
+      try{
+         PreparedStatement stmt = this._directory.prepareStatement (ENTRY_SQL + " FOR UPDATE");
+         stmt.setInt (1, firstHotel);
+         stmt.setInt (2, lastHotel);
+         ResultSet rs = stmt.executeQuery ();
+         if (!rs.next ()) {
+            throw new SQLException ("Hotels " + firstHotel + "-" + lastHotel + " are not all on one shard, move them in parts");
+         }//end if
+         int first = rs.getInt (1);
+         int last = rs.getInt (2);
+         String shard = rs.getString (3);
+         boolean moving = rs.getBoolean (4);
+         stmt.close ();
+         if (moving) throw new SQLException ("Hotels " + first + "-" + last + " are already being moved");
+         if (shard == null ? target == null : shard.equals (target)) {
+            throw new SQLException ("Hotels " + firstHotel + "-" + lastHotel + " are already on " + name (target));
+         }//end if
+
+         update ("DELETE FROM ShardMap WHERE firstHotel = ?", first);
+         // the pieces either side of the range; the map spans the whole int range, so its ends are checked.
+         if (first < firstHotel && firstHotel > Integer.MIN_VALUE) {
+            update ("INSERT INTO ShardMap(firstHotel, lastHotel, shard) VALUES (?, ?, ?)", first, firstHotel - 1, shard);
+         }//end if
+         update ("INSERT INTO ShardMap(firstHotel, lastHotel, shard, moving) VALUES (?, ?, ?, TRUE)", firstHotel, lastHotel, shard);
+         if (lastHotel < last && lastHotel < Integer.MAX_VALUE) {
+            update ("INSERT INTO ShardMap(firstHotel, lastHotel, shard) VALUES (?, ?, ?)", lastHotel + 1, last, shard);
+         }//end if
+         this._directory.commit ();
+         return shard;
+      }catch (SQLException e){
+         this._directory.rollback ();
+         throw e;
+      }finally{
+         this._directory.setAutoCommit (true);
+      }//end try
+   }//end split
+
+   /**
+    * Fences a range on a database once the writes already running there
+    * have committed.
+    */
+   private static void fence (Connection conn, int firstHotel, int lastHotel) throws SQLException {
+      conn.setAutoCommit (false);
+      Statement stmt = conn.createStatement ();
+      try{
+         stmt.executeQuery (FENCE_LOCK_SQL).close ();
+         unfence (conn, firstHotel, lastHotel, false);
+         stmt.executeUpdate ("INSERT INTO ShardFence(firstHotel, lastHotel) VALUES (" + firstHotel + ", " + lastHotel + ")");
+         conn.commit ();
+      }catch (SQLException e){
+         conn.rollback ();
+         throw e;
+      }finally{
+         stmt.close ();
+         conn.setAutoCommit (true);
+      }//end try
+   }//end fence
+
+   /**
+    * Lifts the fences of a range on a database, keeping the parts of them
+    * outside the range.
+    *
+    * @param commit whether to run in a transaction of its own rather than the
+    *        one already open on conn
+    */
+   private static void unfence (Connection conn, int firstHotel, int lastHotel, boolean commit) throws SQLException {
+      if (commit) conn.setAutoCommit (false);
+      Statement select = conn.createStatement ();
+      Statement update = conn.createStatement ();
+      try{
+         ResultSet rs = select.executeQuery (String.format (FENCES_SQL, lastHotel, firstHotel));
+         while (rs.next ()) {
+            int first = rs.getInt (1);
+            int last = rs.getInt (2);
+            update.executeUpdate ("DELETE FROM ShardFence WHERE firstHotel = " + first);
+            if (first < firstHotel && firstHotel > Integer.MIN_VALUE) {
+               update.executeUpdate ("INSERT INTO ShardFence(firstHotel, lastHotel) VALUES (" + first + ", " + (firstHotel - 1) + ")");
+            }//end if
+            if (lastHotel < last && lastHotel < Integer.MAX_VALUE) {
+               update.executeUpdate ("INSERT INTO ShardFence(firstHotel, lastHotel) VALUES (" + (lastHotel + 1) + ", " + last + ")");
+            }//end if
+         }//end while
+         if (commit) conn.commit ();
+      }catch (SQLException e){
+         if (commit) conn.rollback ();
+         throw e;
+      }finally{
+         select.close ();
+         update.close ();
+         if (commit) conn.setAutoCommit (true);
+      }//end try
+   }//end unfence
+
+   /**
+    * Copies the rows of a range in one transaction of the target, lifting
+    * the fence left there by an earlier move of the range away from it.
+    */
+   private void copy (Connection from, Connection to, int firstHotel, int lastHotel) throws SQLException {
+      to.setAutoCommit (false);
+      try{
+         Statement move = to.createStatement ();
+         move.execute (SHARD_MOVE_SQL);
+         move.close ();
+         unfence (to, firstHotel, lastHotel, false);
+         for (String[] table : COPY) {
+            int rows = copyTable (from, to, table[0], String.format (table[1], firstHotel, lastHotel));
+            System.out.println ("   " + table[0] + ": " + rows + " row(s)");
+            if ("Staff".equals (table[0])) {
+               Statement select = from.createStatement ();
+               Statement update = to.createStatement ();
+               ResultSet rs = select.executeQuery (String.format (MANAGERS_SQL, firstHotel, lastHotel));
+               while (rs.next ()) {
+                  if (rs.getString (2) == null) continue;
+                  update.executeUpdate ("UPDATE Hotel SET manager = " + literal (rs.getString (2)) +
+                                        " WHERE hotelID = " + literal (rs.getString (1)));
+               }//end while
+               select.close ();
+               update.close ();
+            }//end if
+         }//end for
+         to.commit ();
+      }catch (SQLException e){
+         to.rollback ();
+         throw e;
+      }finally{
+         to.setAutoCommit (true);
+      }//end try
+   }//end copy
+
+   /**
+    * Copies the rows of a query into a table as multi-row INSERTs.
+    *
+    * @return the number of rows copied
+    */
+   private static int copyTable (Connection from, Connection to, String table, String query) throws SQLException {
+      Statement select = from.createStatement ();
+      Statement insert = to.createStatement ();
+      try{
+         ResultSet rs = select.executeQuery (query);
+         int columns = rs.getMetaData ().getColumnCount ();
+         String prefix = "INSERT INTO " + table + " VALUES ";
+         StringBuilder sql = new StringBuilder (prefix);
+         int rows = 0, batch = 0;
+         while (rs.next ()) {
+            if (batch > 0) sql.append (',');
+            sql.append ('(');
+            for (int i = 1; i <= columns; ++i) {
+               if (i > 1) sql.append (',');
+               sql.append (literal (rs.getString (i)));
+            }//end for
+            sql.append (')');
+            ++rows;
+            if (++batch == INSERT_BATCH_ROWS) {
+               insert.executeUpdate (sql.toString ());
+               sql.setLength (prefix.length ());
+               batch = 0;
+            }//end if
+         }//end while
+         if (batch > 0) insert.executeUpdate (sql.toString ());
+         return rows;
+      }finally{
+         select.close ();
+         insert.close ();
+      }//end try
+   }//end copyTable
+
+   /**
+    * Deletes the rows of a range from a database in one transaction.
+    */
+   private static void delete (Connection conn, int firstHotel, int lastHotel) throws SQLException {
+      conn.setAutoCommit (false);
+      Statement stmt = conn.createStatement ();
+      try{
+         stmt.execute (SHARD_MOVE_SQL);
+         for (String delete : DELETE) {
+            stmt.executeUpdate (String.format (delete, firstHotel, lastHotel));
+         }//end for
+         conn.commit ();
+      }catch (SQLException e){
+         conn.rollback ();
+         throw e;
+      }finally{
+         stmt.close ();
+         conn.setAutoCommit (true);
+      }//end try
+   }//end delete
+
+   /**
+    * Runs a statement on the directory.
+    */
+   private void update (String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = this._directory.prepareStatement (sql);
+      try{
+         for (int i = 0; i < params.length; ++i) {
+            if (params[i] == null) {
+               stmt.setNull (i + 1, java.sql.Types.VARCHAR);
+            }else{
+               stmt.setObject (i + 1, params[i]);
+            }//end if
+         }//end for
+         stmt.executeUpdate ();
+      }finally{
+         stmt.close ();
+      }//end try
+   }//end update
+
+   /**
+    * Waits until every DBProject has read the shard map again.
+    */
+   private static void waitForRefresh () {
+      try{
+         Thread.sleep (2 * ShardMap.REFRESH_MS + 500);
+      }catch (InterruptedException e){
+         Thread.currentThread ().interrupt ();
+      }//end try
+   }//end waitForRefresh
+
+   private Connection connect (String endpoint) throws SQLException {
+      String url = endpoint == null ? this._directoryUrl : "jdbc:postgresql://" + endpoint;
+      return DriverManager.getConnection (url, this._user, this._passwd);
+   }//end connect
+
+   private static String name (String endpoint) {
+      return endpoint == null ? "the directory" : endpoint;
+   }//end name
+
+   private static String literal (String value) {
+      return value == null ? "NULL" : "'" + value.replace ("'", "''") + "'";
+   }//end literal
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> <firstHotel> <lastHotel> <host:port/dbname | directory>
+    */
+   public static void main (String[] args) {
+      if (args.length != 6) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            ShardRebalancer.class.getName () +
+            " <dbname> <port> <user> <firstHotel> <lastHotel> <host:port/dbname | directory>");
+         return;
+      }//end if
+
+      ShardRebalancer rebalancer = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         rebalancer = new ShardRebalancer (url, args[2], "");
+         rebalancer.move (Integer.parseInt (args[3]), Integer.parseInt (args[4]), args[5]);
+      }catch (Exception e){
+         System.err.println ("Error - Move failed: " + e.getMessage ());
+         System.exit (-1);
+      }finally{
+         try{
+            if (rebalancer != null) rebalancer._directory.close ();
+         }catch (SQLException e){
+            // ignored.
+         }//end try
+      }//end try
+   }//end main
+
+}//end ShardRebalancer
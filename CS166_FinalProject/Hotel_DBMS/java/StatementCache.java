@@ -0,0 +1,149 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps a bounded, least-recently-used set of PreparedStatements
+ * for a single physical connection.  Statements are keyed by their SQL text,
+ * so every call that uses the same query shape (with '?' placeholders) reuses
+ * the statement the server has already parsed and planned.
+ *
+ */
+public class StatementCache {
+
+   // the connection every cached statement belongs to.
+   private final Connection _connection;
+
+   // maximum number of statements kept open at a time.
+   private final int _capacity;
+
+   // SQL text -> prepared statement, iterated in least-recently-used order.
+   private final LinkedHashMap<String, PreparedStatement> _statements;
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+
+   /**
+    * Creates a new statement cache for the given connection
+    *
+    * @param connection the physical connection to prepare statements on
+    * @param capacity the maximum number of statements kept open
+    */
+   public StatementCache (Connection connection, int capacity) {
+      this._connection = connection;
+      this._capacity = Math.max(1, capacity);
+      // access order makes get() move an entry to the most-recently-used end.
+      this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+   }//end StatementCache
+
+   /**
+    * Returns the prepared statement for the given SQL, preparing it on the
+    * server the first time the shape is seen.  The least recently used
+    * statement is closed when the cache is full.
+    *
+    * @param sql the SQL string with '?' placeholders
+    * @return a prepared statement with its parameters cleared
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public synchronized PreparedStatement prepare (String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt != null) {
+         ++this._hits;
+         stmt.clearParameters();
+         return stmt;
+      }//end if
+
+      ++this._misses;
+      stmt = this._connection.prepareStatement(sql);
+      if (stmt instanceof PGStatement) {
+         // ask the driver to PREPARE the statement on the server once and
+         // EXECUTE it afterwards, instead of re-sending the full query text.
+         ((PGStatement) stmt).setUseServerPrepare(true);
+      }//end if
+      this._statements.put(sql, stmt);
+
+      if (this._statements.size() > this._capacity) {
+         Iterator<Map.Entry<String, PreparedStatement>> eldest =
+            this._statements.entrySet().iterator();
+         closeQuietly(eldest.next().getValue());
+         eldest.remove();
+         ++this._evictions;
+      }//end if
+      return stmt;
+   }//end prepare
+
+   /**
+    * Drops a statement from the cache, e.g. after it failed on the server.
+    *
+    * @param sql the SQL string the statement was prepared with
+    */
+   public synchronized void invalidate (String sql) {
+      closeQuietly(this._statements.remove(sql));
+   }//end invalidate
+
+   public synchronized long getHits () {
+      return this._hits;
+   }//end getHits
+
+   public synchronized long getMisses () {
+      return this._misses;
+   }//end getMisses
+
+   public synchronized long getEvictions () {
+      return this._evictions;
+   }//end getEvictions
+
+   public synchronized int size () {
+      return this._statements.size();
+   }//end size
+
+   /**
+    * Returns a one line summary of the cache counters.
+    */
+   public synchronized String stats () {
+      long lookups = this._hits + this._misses;
+      double hitRatio = lookups == 0 ? 0.0 : (100.0 * this._hits) / lookups;
+      return String.format("statements cached: %d/%d, hits: %d, misses: %d, evictions: %d, hit ratio: %.1f%%",
+                           this._statements.size(), this._capacity, this._hits, this._misses,
+                           this._evictions, hitRatio);
+   }//end stats
+
+   /**
+    * Closes every cached statement.
+    */
+   public synchronized void close () {
+      for (PreparedStatement stmt : this._statements.values()) {
+         closeQuietly(stmt);
+      }//end for
+      this._statements.clear();
+   }//end close
+
+   private static void closeQuietly (PreparedStatement stmt) {
+      if (stmt == null) return;
+      try{
+         stmt.close();
+      }catch (SQLException e){
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
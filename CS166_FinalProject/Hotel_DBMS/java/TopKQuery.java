@@ -0,0 +1,124 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class answers "top K rows by some value" questions.
+ *
+ * When the index that orders the rows by that value exists, the query is
+ * pushed down as ORDER BY ... LIMIT K and the server stops reading the index
+ * after K matches, so the cost grows with K and not with the table.  When
+ * it does not, the candidate rows are streamed through a cursor into a
+ * bounded heap of K rows, which keeps client memory at O(K).
+ *
+ */
+public class TopKQuery {
+
+   private final String _pushdownSql;
+   private final String _scanSql;
+   private final String _supportIndex;
+   private final int _rankColumn;
+
+   /**
+    * Creates a new top-K query
+    *
+    * @param pushdownSql the ordered query; it takes the same parameters as
+    *        scanSql followed by one or more 'LIMIT ?' placeholders for K
+    * @param scanSql the unordered query returning every candidate row
+    * @param supportIndex the index pushdownSql needs to stop early
+    * @param rankColumn the 0-based column rows are ranked by, descending
+    */
+   public TopKQuery (String pushdownSql, String scanSql, String supportIndex, int rankColumn) {
+      this._pushdownSql = pushdownSql;
+      this._scanSql = scanSql;
+      this._supportIndex = supportIndex;
+      this._rankColumn = rankColumn;
+   }//end TopKQuery
+
+   /**
+    * Returns the K highest ranked rows, highest first.
+    *
+    * @param esql the database to query
+    * @param k the number of rows wanted
+    * @param params the parameters of the scan query
+    * @throws java.sql.SQLException when the query fails
+    */
+   public List<List<String>> run (DBProject esql, int k, Object... params) throws SQLException {
+      if (k <= 0) return new ArrayList<List<String>> ();
+      if (esql.hasIndex (this._supportIndex)) {
+         return esql.executeQueryAndReturnResult (this._pushdownSql, withLimits (params, k));
+      }//end if
+      return scan (esql, k, params);
+   }//end run
+
+   /**
+    * Streams every candidate row and keeps the K highest in a min-heap.
+    */
+   List<List<String>> scan (DBProject esql, final int k, Object... params) throws SQLException {
+      final Comparator<List<String>> byRank = new Comparator<List<String>> () {
+         public int compare (List<String> a, List<String> b) {
+            return rank (a).compareTo (rank (b));
+         }
+      };
+      // the lowest ranked of the current top K sits on top of the heap.
+      final PriorityQueue<List<String>> heap = new PriorityQueue<List<String>> (k + 1, byRank);
+      esql.executeQueryCursor (this._scanSql, DBProject.FETCH_SIZE, new DBProject.ResultHandler () {
+         public int handle (ResultSet rs) throws SQLException {
+            int numCol = rs.getMetaData ().getColumnCount ();
+            int n = 0;
+            while (rs.next ()) {
+               ++n;
+               BigDecimal value = rs.getBigDecimal (_rankColumn + 1);
+               if (value == null) continue;
+               if (heap.size () == k && value.compareTo (rank (heap.peek ())) <= 0) continue;
+               List<String> row = new ArrayList<String> (numCol);
+               for (int i = 1; i <= numCol; ++i) row.add (rs.getString (i));
+               heap.add (row);
+               if (heap.size () > k) heap.poll ();
+            }//end while
+            return n;
+         }
+      }, params);
+
+      List<List<String>> top = new ArrayList<List<String>> (heap);
+      Collections.sort (top, Collections.reverseOrder (byRank));
+      return top;
+   }//end scan
+
+   private BigDecimal rank (List<String> row) {
+      return new BigDecimal (row.get (this._rankColumn));
+   }//end rank
+
+   /**
+    * Appends K for every 'LIMIT ?' placeholder of the pushdown query.
+    */
+   private Object[] withLimits (Object[] params, int k) {
+      int placeholders = 0;
+      for (int i = 0; i < this._pushdownSql.length (); ++i) {
+         if (this._pushdownSql.charAt (i) == '?') ++placeholders;
+      }//end for
+      Object[] all = new Object[placeholders];
+      System.arraycopy (params, 0, all, 0, params.length);
+      for (int i = params.length; i < placeholders; ++i) all[i] = k;
+      return all;
+   }//end withLimits
+
+}//end TopKQuery
@@ -0,0 +1,282 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class simulates many front desks using the database at once.  Every
+ * client runs on its own connection and repeatedly picks a menu operation
+ * from a weighted mix, calls it and waits an exponentially distributed think
+ * time.  After a warm-up period the latencies of every operation type are
+ * counted in histograms, together with the errors and deadlocks.
+ *
+ * The clients do not load the occupancy index or the repair leaderboard,
+ * so every operation goes to the database.  The operations and their inputs
+ * are those of Benchmark, and the rows they insert are deleted at the end.
+ *
+ * Settings:
+ *   -Ddbproject.workload.mix=bookRoom:30,addCustomer:10,...  operation weights
+ *   -Ddbproject.workload.thinkMs=100   mean think time between calls
+ *   -Ddbproject.workload.warmupSec=5   calls not counted at the start
+ *   -Ddbproject.workload.out=workload-results.csv
+ *
+ */
+public class WorkloadDriver {
+
+   static final String MIX = System.getProperty("dbproject.workload.mix",
+      "bookRoom:25,addCustomer:10,repairRequest:10,numberOfAvailableRooms:15,numberOfBookedRooms:15," +
+      "listHotelRoomBookingsForAWeek:10,listRepairsMade:5,topKHighestPriceBookingsForACustomer:5," +
+      "totalCostForCustomer:5");
+   static final long THINK_MS = Long.getLong("dbproject.workload.thinkMs", 100L);
+   static final long WARMUP_SEC = Long.getLong("dbproject.workload.warmupSec", 5L);
+   static final String OUT = System.getProperty("dbproject.workload.out", "workload-results.csv");
+
+   static final String CSV_HEADER =
+      "clients,operation,calls,errors,deadlocks,throughput_ops_s,p50_us,p90_us,p99_us,p999_us,max_us";
+
+   /**
+    * The counters of one operation type.
+    */
+   static class Stats {
+      final LatencyHistogram latencies = new LatencyHistogram ();
+      long errors = 0;
+      long deadlocks = 0;
+      String firstError = null;
+
+      void add (Stats other) {
+         this.latencies.add (other.latencies);
+         this.errors += other.errors;
+         this.deadlocks += other.deadlocks;
+         if (this.firstError == null) this.firstError = other.firstError;
+      }//end add
+   }//end Stats
+
+   /**
+    * One simulated front desk.
+    */
+   private class Client extends Thread {
+      private final DBProject _esql;
+      private final Random _random;
+      private final Map<String, Stats> _stats = new LinkedHashMap<String, Stats> ();
+
+      Client (int n, DBProject esql) {
+         super ("client-" + n);
+         this._esql = esql;
+         this._random = new Random (n);
+         for (String name : _names) this._stats.put (name, new Stats ());
+      }//end Client
+
+      public void run () {
+         Operations ops = this._esql.operations ();
+         long now = System.nanoTime ();
+         while (now < _end) {
+            String name = pick (this._random);
+            long before = now;
+            boolean failed = false;
+            try{
+               _operations.get (name).run (ops, _calls.getAndIncrement ());
+            }catch (Exception e){
+               failed = true;
+               if (before >= _measureFrom) {
+                  Stats stats = this._stats.get (name);
+                  ++stats.errors;
+                  if (isDeadlock (e)) ++stats.deadlocks;
+                  if (stats.firstError == null) stats.firstError = e.getMessage ();
+               }//end if
+            }//end try
+            now = System.nanoTime ();
+            if (!failed && before >= _measureFrom && now <= _end) this._stats.get (name).latencies.record (now - before);
+
+            long think = (long) (-THINK_MS * Math.log (1 - this._random.nextDouble ()));
+            if (think > 0) {
+               try{
+                  Thread.sleep (think);
+               }catch (InterruptedException e){
+                  return;
+               }//end try
+            }//end if
+            now = System.nanoTime ();
+         }//end while
+      }//end run
+   }//end Client
+
+   private final Map<String, Benchmark.Operation> _operations;
+   private final List<String> _names = new ArrayList<String> ();
+   // cumulative weights of _names.
+   private final int[] _weights;
+   private final AtomicInteger _calls = new AtomicInteger ();
+   private long _measureFrom;
+   private long _end;
+
+   /**
+    * Creates a driver for the given operations
+    *
+    * @param operations the operations by name
+    * @param mix name:weight pairs separated by commas
+    */
+   public WorkloadDriver (Map<String, Benchmark.Operation> operations, String mix) {
+      this._operations = operations;
+      List<Integer> weights = new ArrayList<Integer> ();
+      int total = 0;
+      for (String entry : mix.split (",")) {
+         String[] pair = entry.trim ().split (":");
+         if (!operations.containsKey (pair[0])) {
+            throw new IllegalArgumentException ("Unknown operation in the mix: " + pair[0]);
+         }//end if
+         int weight = pair.length > 1 ? Integer.parseInt (pair[1].trim ()) : 1;
+         if (weight <= 0) continue;
+         total += weight;
+         this._names.add (pair[0]);
+         weights.add (total);
+      }//end for
+      if (total == 0) throw new IllegalArgumentException ("The mix is empty");
+      this._weights = new int[weights.size ()];
+      for (int i = 0; i < this._weights.length; ++i) this._weights[i] = weights.get (i);
+   }//end WorkloadDriver
+
+   /**
+    * Runs one client per database for the given time.
+    *
+    * @return the counters of every operation in the mix
+    */
+   public Map<String, Stats> run (List<DBProject> clients, long seconds) throws InterruptedException {
+      long start = System.nanoTime ();
+      this._measureFrom = start + WARMUP_SEC * 1000000000L;
+      this._end = this._measureFrom + seconds * 1000000000L;
+      List<Client> threads = new ArrayList<Client> ();
+      for (int n = 0; n < clients.size (); ++n) threads.add (new Client (n, clients.get (n)));
+      for (Client client : threads) client.start ();
+      for (Client client : threads) client.join ();
+
+      Map<String, Stats> total = new LinkedHashMap<String, Stats> ();
+      for (String name : this._names) total.put (name, new Stats ());
+      for (Client client : threads) {
+         for (Map.Entry<String, Stats> entry : client._stats.entrySet ()) total.get (entry.getKey ()).add (entry.getValue ());
+      }//end for
+      return total;
+   }//end run
+
+   private String pick (Random random) {
+      int x = random.nextInt (this._weights[this._weights.length - 1]);
+      for (int i = 0; i < this._weights.length; ++i) {
+         if (x < this._weights[i]) return this._names.get (i);
+      }//end for
+      return this._names.get (this._names.size () - 1);
+   }//end pick
+
+   /**
+    * Returns whether the server aborted the call to break a deadlock.
+    */
+   static boolean isDeadlock (Exception e) {
+      if (e instanceof SQLException && "40P01".equals (((SQLException) e).getSQLState ())) return true;
+      // the 7.3 driver reports no SQLState.
+      return e.getMessage () != null && e.getMessage ().contains ("deadlock detected");
+   }//end isDeadlock
+
+   /**
+    * Prints the counters and appends them to the CSV output.
+    */
+   static void report (int clients, long seconds, Map<String, Stats> results) throws IOException {
+      System.out.printf ("%n%-38s %9s %7s %9s %10s %10s %10s %10s %10s%n", "operation (" + clients + " clients)",
+                         "calls", "errors", "deadlocks", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+      Stats all = new Stats ();
+      File out = new File (OUT);
+      boolean header = !out.exists () || out.length () == 0;
+      PrintWriter csv = new PrintWriter (new FileWriter (out, true));
+      try{
+         if (header) csv.println (CSV_HEADER);
+         for (Map.Entry<String, Stats> entry : results.entrySet ()) {
+            print (clients, seconds, entry.getKey (), entry.getValue (), csv);
+            all.add (entry.getValue ());
+         }//end for
+         print (clients, seconds, "all", all, csv);
+      }finally{
+         csv.close ();
+      }//end try
+      for (Map.Entry<String, Stats> entry : results.entrySet ()) {
+         if (entry.getValue ().firstError != null) {
+            System.out.println ("First error of " + entry.getKey () + ": " + entry.getValue ().firstError);
+         }//end if
+      }//end for
+   }//end report
+
+   private static void print (int clients, long seconds, String name, Stats stats, PrintWriter csv) {
+      LatencyHistogram h = stats.latencies;
+      double throughput = (double) h.count () / seconds;
+      System.out.printf ("%-38s %9d %7d %9d %10.1f %10.2f %10.2f %10.2f %10.2f%n", name, h.count (), stats.errors,
+                         stats.deadlocks, throughput, h.percentile (0.50) / 1e6, h.percentile (0.99) / 1e6,
+                         h.percentile (0.999) / 1e6, h.max () / 1e6);
+      csv.printf ("%d,%s,%d,%d,%d,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f%n", clients, name, h.count (), stats.errors,
+                  stats.deadlocks, throughput, h.percentile (0.50) / 1e3, h.percentile (0.90) / 1e3,
+                  h.percentile (0.99) / 1e3, h.percentile (0.999) / 1e3, h.max () / 1e3);
+   }//end print
+
+   /**
+    * The main execution method
+    *
+    * @param args <dbname> <port> <user> [clients] [seconds]
+    */
+   public static void main (String[] args) {
+      if (args.length < 3) {
+         System.err.println (
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            WorkloadDriver.class.getName () +
+            " <dbname> <port> <user> [clients] [seconds]");
+         return;
+      }//end if
+
+      int clients = args.length > 3 ? Integer.parseInt (args[3]) : 10;
+      long seconds = args.length > 4 ? Long.parseLong (args[4]) : 60;
+      DBProject control = null;
+      List<DBProject> desks = new ArrayList<DBProject> ();
+      Benchmark inputs = null;
+      try{
+         Class.forName ("org.postgresql.Driver").newInstance ();
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         control = new DBProject (url, args[2], "", 1);
+         inputs = new Benchmark (control);
+         inputs.prepare ();
+         WorkloadDriver driver = new WorkloadDriver (inputs.operations (), MIX);
+
+         System.out.print ("Opening " + clients + " connections...");
+         for (int n = 0; n < clients; ++n) desks.add (new DBProject (url, args[2], "", 1));
+         System.out.println ("Done");
+
+         System.out.printf ("Running for %d s after a %d s warm-up...%n", seconds, WARMUP_SEC);
+         report (clients, seconds, driver.run (desks, seconds));
+         System.out.println ("\nResults appended to " + OUT);
+      }catch (Exception e){
+         System.err.println ("Error - Workload failed: " + e.getMessage ());
+      }finally{
+         for (DBProject desk : desks) desk.cleanup ();
+         try{
+            if (inputs != null) inputs.cleanup ();
+         }catch (SQLException e){
+            System.err.println ("Error - Unable to delete the inserted rows: " + e.getMessage ());
+         }//end try
+         if (control != null) control.cleanup ();
+      }//end try
+   }//end main
+
+}//end WorkloadDriver
@@ -0,0 +1,25 @@
+#! /bin/bash
+# Starts a streaming replica of the database started by startPostgreSQL.sh.
+# Usage: source ./startReplica.sh [n]   replica n (default 1) listens on port $PGPORT + n
+n=${1:-1}
+folder=/tmp/$USER
+replica=$folder/myReplica$n
+export REPLICA_PORT=$((PGPORT + n))
+
+echo $replica
+
+#Clear folder
+rm -rf $replica
+
+#Initialize folders
+mkdir $replica
+mkdir $replica/sockets
+sleep 1
+
+#Copy the primary and have it stream from it (-R writes the standby settings)
+pg_basebackup -h localhost -p $PGPORT -D $replica/data -R -X stream
+
+sleep 1
+#Start folder
+pg_ctl -o "-c unix_socket_directories=$replica/sockets -p $REPLICA_PORT" -D $replica/data -l $folder/replica$n.log start
+echo "Run DBProject with -Ddbproject.replicas=$REPLICA_PORT to read from it"
@@ -0,0 +1,4 @@
+#! /bin/bash
+# Stops replica n (default 1) started by startReplica.sh
+n=${1:-1}
+pg_ctl -D /tmp/$USER/myReplica$n/data stop
@@ -81,73 +81,6 @@ CREATE TABLE Assigned( asgID Numeric NOT NULL,
 					   roomNo Numeric NOT NULL DEFAULT 0,
 					   PRIMARY KEY(asgID));
 
--- The below sql statments creates necessary Foreign Key Constraints on the above created tables
-ALTER TABLE Hotel
-ADD CONSTRAINT managerConstraint
-FOREIGN KEY(manager)
-REFERENCES Staff(SSN)
-ON DELETE SET DEFAULT;
- 					
-ALTER TABLE Staff
-ADD CONSTRAINT employerConstraint
-FOREIGN KEY(employerID)
-REFERENCES Hotel(hotelID)
-ON DELETE CASCADE;
-
-					   
-ALTER TABLE Room
-ADD CONSTRAINT weakEntityConstraint
-FOREIGN KEY(hotelID)
-REFERENCES Hotel(hotelID)
-ON DELETE CASCADE;
-
-ALTER TABLE Booking
-ADD CONSTRAINT bookingCustomerConstraint
-FOREIGN KEY(customer)
-REFERENCES Customer(customerID)
-ON DELETE SET DEFAULT;
-
-ALTER TABLE Booking
-ADD CONSTRAINT bookingRoomConstraint
-FOREIGN KEY(hotelID, roomNo)
-REFERENCES Room(hotelID, roomNo)
-ON DELETE SET DEFAULT;	
-
-ALTER TABLE Repair
-ADD CONSTRAINT repairMcmpConstraint
-FOREIGN KEY(mCompany)
-REFERENCES MaintenanceCompany(cmpID)
-ON DELETE SET DEFAULT;
-
-ALTER TABLE Repair
-ADD CONSTRAINT repairRoomConstraint
-FOREIGN KEY(hotelID, roomNo)
-REFERENCES Room(hotelID, roomNo)
-ON DELETE SET DEFAULT;   
-
-ALTER TABLE Request
-ADD CONSTRAINT requestMngrConstraint
-FOREIGN KEY(managerID)
-REFERENCES Staff(SSN)
-ON DELETE SET DEFAULT;
-
-ALTER TABLE Request
-ADD CONSTRAINT requestRepairConstraint
-FOREIGN KEY(repairID)
-REFERENCES Repair(rID)
-ON DELETE SET DEFAULT;
-
-ALTER TABLE Assigned
-ADD CONSTRAINT assgndStaffConstraint
-FOREIGN KEY(staffID)
-REFERENCES Staff(SSN)
-ON DELETE SET DEFAULT;
-
-ALTER TABLE Assigned
-ADD CONSTRAINT assgndRoomConstraint
-FOREIGN KEY(hotelID, roomNo)
-REFERENCES Room(hotelID, roomNo)
-ON DELETE SET DEFAULT; 
 -- data copy				 
 COPY Hotel(	hotelID,			 
 			address,	   
@@ -227,5 +160,74 @@ COPY Assigned(asgID,
 			  hotelID,
 			  roomNo)
 FROM 'assigned.csv'
-WITH DELIMITER ',';		
-	
\ No newline at end of file
+WITH DELIMITER ',';
+
+-- The below sql statments creates necessary Foreign Key Constraints on the above created tables
+-- They are added after the data copy, so the loaded rows are checked once per constraint
+-- instead of once per row
+ALTER TABLE Hotel
+ADD CONSTRAINT managerConstraint
+FOREIGN KEY(manager)
+REFERENCES Staff(SSN)
+ON DELETE SET DEFAULT;
+ 					
+ALTER TABLE Staff
+ADD CONSTRAINT employerConstraint
+FOREIGN KEY(employerID)
+REFERENCES Hotel(hotelID)
+ON DELETE CASCADE;
+
+					   
+ALTER TABLE Room
+ADD CONSTRAINT weakEntityConstraint
+FOREIGN KEY(hotelID)
+REFERENCES Hotel(hotelID)
+ON DELETE CASCADE;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingCustomerConstraint
+FOREIGN KEY(customer)
+REFERENCES Customer(customerID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;	
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairMcmpConstraint
+FOREIGN KEY(mCompany)
+REFERENCES MaintenanceCompany(cmpID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;   
+
+ALTER TABLE Request
+ADD CONSTRAINT requestMngrConstraint
+FOREIGN KEY(managerID)
+REFERENCES Staff(SSN)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Request
+ADD CONSTRAINT requestRepairConstraint
+FOREIGN KEY(repairID)
+REFERENCES Repair(rID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Assigned
+ADD CONSTRAINT assgndStaffConstraint
+FOREIGN KEY(staffID)
+REFERENCES Staff(SSN)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Assigned
+ADD CONSTRAINT assgndRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT; 
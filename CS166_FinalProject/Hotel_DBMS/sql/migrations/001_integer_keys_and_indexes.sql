@@ -0,0 +1,151 @@
+-- Migration 001: integer keys and access-path indexes
+-- Applies to a database created by create.sql.  Run it with java Migrator, or with psql:
+--    psql -h localhost -p $PGPORT $USER"_DB" < 001_integer_keys_and_indexes.sql
+-- The whole migration is one transaction.  Running it a second time fails on the
+-- SchemaVersion primary key and leaves the database unchanged.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (1, 'integer keys and access-path indexes');
+
+-- The below sql statements drop the Foreign Key Constraints, so the key columns on both
+-- sides can change type together
+ALTER TABLE Hotel DROP CONSTRAINT managerConstraint;
+ALTER TABLE Staff DROP CONSTRAINT employerConstraint;
+ALTER TABLE Room DROP CONSTRAINT weakEntityConstraint;
+ALTER TABLE Booking DROP CONSTRAINT bookingCustomerConstraint;
+ALTER TABLE Booking DROP CONSTRAINT bookingRoomConstraint;
+ALTER TABLE Repair DROP CONSTRAINT repairMcmpConstraint;
+ALTER TABLE Repair DROP CONSTRAINT repairRoomConstraint;
+ALTER TABLE Request DROP CONSTRAINT requestMngrConstraint;
+ALTER TABLE Request DROP CONSTRAINT requestRepairConstraint;
+ALTER TABLE Assigned DROP CONSTRAINT assgndStaffConstraint;
+ALTER TABLE Assigned DROP CONSTRAINT assgndRoomConstraint;
+
+-- The below sql statements convert the Numeric key columns to fixed width integers.
+-- The high volume tables (Booking, Repair, Request, Assigned) get 64 bit ids
+ALTER TABLE Hotel
+ALTER COLUMN hotelID TYPE INTEGER,
+ALTER COLUMN manager TYPE INTEGER;
+
+ALTER TABLE Staff
+ALTER COLUMN SSN TYPE INTEGER,
+ALTER COLUMN employerID TYPE INTEGER;
+
+ALTER TABLE Room
+ALTER COLUMN hotelID TYPE INTEGER,
+ALTER COLUMN roomNo TYPE INTEGER;
+
+ALTER TABLE Customer
+ALTER COLUMN customerID TYPE INTEGER;
+
+ALTER TABLE MaintenanceCompany
+ALTER COLUMN cmpID TYPE INTEGER;
+
+ALTER TABLE Booking
+ALTER COLUMN bID TYPE BIGINT,
+ALTER COLUMN customer TYPE INTEGER,
+ALTER COLUMN hotelID TYPE INTEGER,
+ALTER COLUMN roomNo TYPE INTEGER;
+
+ALTER TABLE Repair
+ALTER COLUMN rID TYPE BIGINT,
+ALTER COLUMN hotelID TYPE INTEGER,
+ALTER COLUMN roomNo TYPE INTEGER,
+ALTER COLUMN mCompany TYPE INTEGER;
+
+ALTER TABLE Request
+ALTER COLUMN reqID TYPE BIGINT,
+ALTER COLUMN managerID TYPE INTEGER,
+ALTER COLUMN repairID TYPE BIGINT;
+
+ALTER TABLE Assigned
+ALTER COLUMN asgID TYPE BIGINT,
+ALTER COLUMN staffID TYPE INTEGER,
+ALTER COLUMN hotelID TYPE INTEGER,
+ALTER COLUMN roomNo TYPE INTEGER;
+
+-- The below sql statments re-create the Foreign Key Constraints on the converted columns
+ALTER TABLE Hotel
+ADD CONSTRAINT managerConstraint
+FOREIGN KEY(manager)
+REFERENCES Staff(SSN)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Staff
+ADD CONSTRAINT employerConstraint
+FOREIGN KEY(employerID)
+REFERENCES Hotel(hotelID)
+ON DELETE CASCADE;
+
+ALTER TABLE Room
+ADD CONSTRAINT weakEntityConstraint
+FOREIGN KEY(hotelID)
+REFERENCES Hotel(hotelID)
+ON DELETE CASCADE;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingCustomerConstraint
+FOREIGN KEY(customer)
+REFERENCES Customer(customerID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairMcmpConstraint
+FOREIGN KEY(mCompany)
+REFERENCES MaintenanceCompany(cmpID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Request
+ADD CONSTRAINT requestMngrConstraint
+FOREIGN KEY(managerID)
+REFERENCES Staff(SSN)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Request
+ADD CONSTRAINT requestRepairConstraint
+FOREIGN KEY(repairID)
+REFERENCES Repair(rID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Assigned
+ADD CONSTRAINT assgndStaffConstraint
+FOREIGN KEY(staffID)
+REFERENCES Staff(SSN)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Assigned
+ADD CONSTRAINT assgndRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+-- The below sql statements create the indexes the menu queries search by
+CREATE INDEX bookingHotelDateIndex ON Booking(hotelID, bookingDate);          -- numberOfBookedRooms, availability, totalCostForCustomer
+CREATE INDEX bookingCustomerPriceIndex ON Booking(customer, price);           -- topKHighestPriceBookingsForACustomer
+CREATE INDEX repairCompanyIndex ON Repair(mCompany);                          -- listRepairsMade, topKMaintenanceCompany
+CREATE INDEX repairRoomDateIndex ON Repair(hotelID, roomNo, repairDate);      -- numberOfRepairsForEachRoomPerYear
+CREATE INDEX customerNameIndex ON Customer(lName, fName);                     -- customer name lookups
+CREATE INDEX maintenanceCompanyNameIndex ON MaintenanceCompany(name);         -- listRepairsMade
+
+COMMIT;
+
+ANALYZE;
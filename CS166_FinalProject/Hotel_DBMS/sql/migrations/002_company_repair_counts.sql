@@ -0,0 +1,57 @@
+-- Migration 002: repair count per maintenance company
+-- Keeps CompanyRepairCount in step with Repair through a trigger, so topKMaintenanceCompany
+-- reads one row per company instead of aggregating the whole Repair table.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (2, 'repair count per maintenance company');
+
+CREATE TABLE CompanyRepairCount( cmpID INTEGER NOT NULL,
+                                 repairCount BIGINT NOT NULL DEFAULT 0,
+                                 PRIMARY KEY(cmpID));
+
+ALTER TABLE CompanyRepairCount
+ADD CONSTRAINT repairCountMcmpConstraint
+FOREIGN KEY(cmpID)
+REFERENCES MaintenanceCompany(cmpID)
+ON DELETE CASCADE;
+
+-- Moves a repair's count from its old company to its new one
+CREATE FUNCTION countRepairs() RETURNS TRIGGER AS $$
+BEGIN
+   IF TG_OP = 'UPDATE' AND OLD.mCompany = NEW.mCompany THEN
+      RETURN NULL;
+   END IF;
+   IF TG_OP IN ('DELETE', 'UPDATE') THEN
+      UPDATE CompanyRepairCount SET repairCount = repairCount - 1 WHERE cmpID = OLD.mCompany;
+   END IF;
+   IF TG_OP IN ('INSERT', 'UPDATE') THEN
+      INSERT INTO CompanyRepairCount(cmpID, repairCount) VALUES (NEW.mCompany, 1)
+      ON CONFLICT (cmpID) DO UPDATE SET repairCount = CompanyRepairCount.repairCount + 1;
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- CREATE TRIGGER blocks writes to Repair until COMMIT, so the initial counts below
+-- cannot miss a concurrent insert
+CREATE TRIGGER repairCountTrigger
+AFTER INSERT OR DELETE OR UPDATE OF mCompany ON Repair
+FOR EACH ROW EXECUTE PROCEDURE countRepairs();
+
+INSERT INTO CompanyRepairCount(cmpID, repairCount)
+SELECT r.mCompany, COUNT(*)
+FROM Repair r
+GROUP BY r.mCompany;
+
+CREATE INDEX companyRepairCountIndex ON CompanyRepairCount(repairCount DESC, cmpID);
+
+COMMIT;
+
+ANALYZE CompanyRepairCount;
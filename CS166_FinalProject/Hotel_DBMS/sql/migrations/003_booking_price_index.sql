@@ -0,0 +1,20 @@
+-- Migration 003: price ordered index on Booking
+-- Lets topKHighestRoomPriceForADateRange read Booking from the highest price down and stop
+-- after K rows in the date range instead of sorting every booking in it.  The per-customer
+-- report uses bookingCustomerPriceIndex from migration 001.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (3, 'price ordered index on Booking');
+
+CREATE INDEX bookingPriceIndex ON Booking(price DESC, bookingDate);
+
+COMMIT;
+
+ANALYZE Booking;
@@ -0,0 +1,21 @@
+-- Migration 004: company ordered index on Repair
+-- Lets the paged listRepairsMade seek straight to the page after the last (hotelID, roomNo, rID)
+-- shown for a company.  It covers every lookup repairCompanyIndex from migration 001 served,
+-- so that index is dropped.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (4, 'company ordered index on Repair');
+
+CREATE INDEX repairCompanyRoomIndex ON Repair(mCompany, hotelID, roomNo, rID);
+DROP INDEX repairCompanyIndex;
+
+COMMIT;
+
+ANALYZE Repair;
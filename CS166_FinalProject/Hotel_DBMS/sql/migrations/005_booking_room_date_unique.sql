@@ -0,0 +1,25 @@
+-- Migration 005: one booking per room and day
+-- Makes the database refuse a second booking of a room on a day, so bookRoom needs no locks to
+-- stay free of double bookings however many desks book at once.  The unique index also serves the
+-- availability probes on (hotelID, roomNo, bookingDate).
+-- The migration fails if the database already holds double bookings; list them with
+--    SELECT hotelID, roomNo, bookingDate, COUNT(*) FROM Booking
+--    GROUP BY hotelID, roomNo, bookingDate HAVING COUNT(*) > 1;
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (5, 'one booking per room and day');
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomDateConstraint
+UNIQUE(hotelID, roomNo, bookingDate);
+
+COMMIT;
+
+ANALYZE Booking;
@@ -0,0 +1,30 @@
+-- Migration 006: id sequences
+-- One sequence per table whose ids the application makes up.  A sequence hands out the first id
+-- of a block of 100 (its increment), and IdAllocator gives out the ids of the block from memory,
+-- so an insert neither scans for MAX(id) nor collides with another desk's insert.  Ids lost with
+-- an unfinished block leave gaps but are never handed out twice, also across restarts.
+-- Every sequence starts after the largest id already stored.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (6, 'id sequences');
+
+CREATE SEQUENCE customerIDSequence INCREMENT BY 100;
+CREATE SEQUENCE cmpIDSequence INCREMENT BY 100;
+CREATE SEQUENCE bookingIDSequence INCREMENT BY 100;
+CREATE SEQUENCE repairIDSequence INCREMENT BY 100;
+CREATE SEQUENCE requestIDSequence INCREMENT BY 100;
+
+SELECT setval('customerIDSequence', (SELECT COALESCE(MAX(customerID), 0) + 1 FROM Customer), false);
+SELECT setval('cmpIDSequence', (SELECT COALESCE(MAX(cmpID), 0) + 1 FROM MaintenanceCompany), false);
+SELECT setval('bookingIDSequence', (SELECT COALESCE(MAX(bID), 0) + 1 FROM Booking), false);
+SELECT setval('repairIDSequence', (SELECT COALESCE(MAX(rID), 0) + 1 FROM Repair), false);
+SELECT setval('requestIDSequence', (SELECT COALESCE(MAX(reqID), 0) + 1 FROM Request), false);
+
+COMMIT;
@@ -0,0 +1,36 @@
+-- Migration 007: change notifications for the reference tables
+-- Every statement that changes Hotel, Room or MaintenanceCompany sends a NOTIFY on the table's
+-- channel when it commits, so every DBProject listening drops its cached lookups of that table.
+-- The bundled 7.3 driver cannot read NOTIFY payloads, so a channel names the table and carries none.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (7, 'change notifications for the reference tables');
+
+-- Notifies the channel given as the trigger argument
+CREATE FUNCTION notifyReferenceChange() RETURNS TRIGGER AS $$
+BEGIN
+   PERFORM pg_notify(TG_ARGV[0], '');
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER hotelChangeTrigger
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Hotel
+FOR EACH STATEMENT EXECUTE PROCEDURE notifyReferenceChange('dbproject_hotel');
+
+CREATE TRIGGER roomChangeTrigger
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON Room
+FOR EACH STATEMENT EXECUTE PROCEDURE notifyReferenceChange('dbproject_room');
+
+CREATE TRIGGER maintenanceCompanyChangeTrigger
+AFTER INSERT OR UPDATE OR DELETE OR TRUNCATE ON MaintenanceCompany
+FOR EACH STATEMENT EXECUTE PROCEDURE notifyReferenceChange('dbproject_maintenancecompany');
+
+COMMIT;
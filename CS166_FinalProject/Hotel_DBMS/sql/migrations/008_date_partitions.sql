@@ -0,0 +1,197 @@
+-- Migration 008: Booking and Repair partitioned by year
+-- Rebuilds Booking and Repair as tables partitioned by range of bookingDate and repairDate, one
+-- partition per year and a default partition for dates without one.  Reports over a date range
+-- then only read the partitions of the range, and VACUUM and ANALYZE of the current year leave
+-- the cold years alone.
+--    ensureDatePartitions(table, from, to)   creates the missing yearly partitions between two
+--                                            dates, moving their rows out of the default one
+--    archiveDatePartitions(table, before)    detaches the yearly partitions that end before a
+--                                            date into the archive schema
+-- java PartitionMaintenance runs both, and DBProject keeps the next year's partitions created.
+-- A partitioned table can only be unique on columns including the partition key, so:
+--    the primary keys become (bID, bookingDate) and (rID, repairDate); new ids come from the
+--    sequences of migration 006, which never hand out an id twice
+--    Request.repairID is checked by a trigger instead of a foreign key, and requests may keep
+--    referring to archived repairs
+-- Needs PostgreSQL 11 or later.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (8, 'Booking and Repair partitioned by year');
+
+CREATE SCHEMA IF NOT EXISTS archive;
+
+-- Creates the yearly partitions of a table from the year of fromDate to the year of toDate
+-- that do not exist yet, and returns how many were created
+CREATE FUNCTION ensureDatePartitions(parent TEXT, fromDate DATE, toDate DATE) RETURNS INTEGER AS $$
+DECLARE
+   dateColumn TEXT;
+   yearStart DATE := date_trunc('year', fromDate);
+   yearEnd DATE;
+   yearPartition TEXT;
+   created INTEGER := 0;
+BEGIN
+   SELECT a.attname INTO dateColumn
+   FROM pg_partitioned_table p, pg_attribute a
+   WHERE p.partrelid = CAST(lower(parent) AS regclass) AND a.attrelid = p.partrelid AND a.attnum = p.partattrs[0];
+   WHILE yearStart <= toDate LOOP
+      yearEnd := yearStart + INTERVAL '1 year';
+      yearPartition := lower(parent) || '_y' || EXTRACT(YEAR FROM yearStart);
+      IF to_regclass(yearPartition) IS NULL THEN
+         -- the year's rows in the default partition would fail the ATTACH; they are taken out
+         -- and put back through the parent, so row triggers see a delete and an insert
+         EXECUTE format('CREATE TEMPORARY TABLE partitionRows ON COMMIT DROP AS ' ||
+                        'WITH moved AS (DELETE FROM %I WHERE %I >= %L AND %I < %L RETURNING *) SELECT * FROM moved',
+                        lower(parent) || '_default', dateColumn, yearStart, dateColumn, yearEnd);
+         EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS)', yearPartition, lower(parent));
+         EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                        lower(parent), yearPartition, yearStart, yearEnd);
+         EXECUTE format('INSERT INTO %I SELECT * FROM partitionRows', lower(parent));
+         DROP TABLE partitionRows;
+         created := created + 1;
+      END IF;
+      yearStart := yearEnd;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches the yearly partitions of a table that end on or before beforeDate into the archive
+-- schema, and returns how many were archived
+CREATE FUNCTION archiveDatePartitions(parent TEXT, beforeDate DATE) RETURNS INTEGER AS $$
+DECLARE
+   yearPartition TEXT;
+   archived INTEGER := 0;
+BEGIN
+   FOR yearPartition IN
+      SELECT c.relname
+      FROM pg_inherits i, pg_class c
+      WHERE i.inhparent = CAST(lower(parent) AS regclass) AND c.oid = i.inhrelid
+        AND c.relname ~ '_y[0-9]{4}$'
+        AND make_date(CAST(substring(c.relname FROM '[0-9]{4}$') AS INTEGER) + 1, 1, 1) <= beforeDate
+      ORDER BY c.relname
+   LOOP
+      -- a detach deletes no rows, so the repair counts of migration 002 are taken down here
+      IF lower(parent) = 'repair' THEN
+         EXECUTE format('UPDATE CompanyRepairCount c SET repairCount = c.repairCount - a.n ' ||
+                        'FROM (SELECT mCompany, COUNT(*) AS n FROM %I GROUP BY mCompany) a WHERE c.cmpID = a.mCompany',
+                        yearPartition);
+      END IF;
+      EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', lower(parent), yearPartition);
+      EXECUTE format('ALTER TABLE %I SET SCHEMA archive', yearPartition);
+      archived := archived + 1;
+   END LOOP;
+   RETURN archived;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Refuses a request for a repair that does not exist, in place of the foreign key
+CREATE FUNCTION checkRequestRepair() RETURNS TRIGGER AS $$
+BEGIN
+   IF NOT EXISTS (SELECT 1 FROM Repair r WHERE r.rID = NEW.repairID) THEN
+      RAISE EXCEPTION 'Repair % does not exist', NEW.repairID USING ERRCODE = 'foreign_key_violation';
+   END IF;
+   RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER TABLE Request DROP CONSTRAINT requestRepairConstraint;
+
+-- The below sql statements rebuild Booking
+ALTER TABLE Booking RENAME TO BookingUnpartitioned;
+
+CREATE TABLE Booking( bID BIGINT NOT NULL,
+                      customer INTEGER NOT NULL DEFAULT 0,
+                      hotelID INTEGER NOT NULL DEFAULT 0,
+                      roomNo INTEGER NOT NULL DEFAULT 0,
+                      bookingDate Date NOT NULL,
+                      noOfPeople Numeric,
+                      price Numeric(6,2) NOT NULL)
+PARTITION BY RANGE (bookingDate);
+
+CREATE TABLE booking_default PARTITION OF Booking DEFAULT;
+
+SELECT ensureDatePartitions('Booking', (SELECT COALESCE(MIN(bookingDate), CURRENT_DATE) FROM BookingUnpartitioned),
+                            CAST(CURRENT_DATE + INTERVAL '1 year' AS DATE));
+
+INSERT INTO Booking SELECT * FROM BookingUnpartitioned;
+
+DROP TABLE BookingUnpartitioned;
+
+-- The below sql statements rebuild Repair; its repair count trigger is added after the copy
+ALTER TABLE Repair RENAME TO RepairUnpartitioned;
+
+CREATE TABLE Repair( rID BIGINT NOT NULL,
+                     hotelID INTEGER NOT NULL DEFAULT 0,
+                     roomNo INTEGER NOT NULL DEFAULT 0,
+                     mCompany INTEGER NOT NULL DEFAULT 0,
+                     repairDate Date NOT NULL,
+                     description TEXT,
+                     repairType CHAR(10))
+PARTITION BY RANGE (repairDate);
+
+CREATE TABLE repair_default PARTITION OF Repair DEFAULT;
+
+SELECT ensureDatePartitions('Repair', (SELECT COALESCE(MIN(repairDate), CURRENT_DATE) FROM RepairUnpartitioned),
+                            CAST(CURRENT_DATE + INTERVAL '1 year' AS DATE));
+
+INSERT INTO Repair SELECT * FROM RepairUnpartitioned;
+
+DROP TABLE RepairUnpartitioned;
+
+CREATE TRIGGER repairCountTrigger
+AFTER INSERT OR DELETE OR UPDATE OF mCompany ON Repair
+FOR EACH ROW EXECUTE PROCEDURE countRepairs();
+
+CREATE TRIGGER requestRepairTrigger
+BEFORE INSERT OR UPDATE OF repairID ON Request
+FOR EACH ROW EXECUTE PROCEDURE checkRequestRepair();
+
+-- The below sql statements re-create the keys and indexes, on every partition at once
+ALTER TABLE Booking ADD PRIMARY KEY(bID, bookingDate);
+ALTER TABLE Repair ADD PRIMARY KEY(rID, repairDate);
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomDateConstraint
+UNIQUE(hotelID, roomNo, bookingDate);
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingCustomerConstraint
+FOREIGN KEY(customer)
+REFERENCES Customer(customerID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Booking
+ADD CONSTRAINT bookingRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairMcmpConstraint
+FOREIGN KEY(mCompany)
+REFERENCES MaintenanceCompany(cmpID)
+ON DELETE SET DEFAULT;
+
+ALTER TABLE Repair
+ADD CONSTRAINT repairRoomConstraint
+FOREIGN KEY(hotelID, roomNo)
+REFERENCES Room(hotelID, roomNo)
+ON DELETE SET DEFAULT;
+
+CREATE INDEX bookingHotelDateIndex ON Booking(hotelID, bookingDate);
+CREATE INDEX bookingCustomerPriceIndex ON Booking(customer, price);
+CREATE INDEX bookingPriceIndex ON Booking(price DESC, bookingDate);
+CREATE INDEX repairRoomDateIndex ON Repair(hotelID, roomNo, repairDate);
+CREATE INDEX repairCompanyRoomIndex ON Repair(mCompany, hotelID, roomNo, rID);
+
+COMMIT;
+
+ANALYZE Booking;
+ANALYZE Repair;
@@ -0,0 +1,31 @@
+-- Migration 009: shard map
+-- Lists which database, or shard, holds the rows of every range of hotelIDs.  Apply it to the
+-- database DBProject is started on, the directory; the shards need migrations 001-008 and 012.
+--    shard    host:port/dbname of the shard, NULL for the directory itself
+--    moving   set by ShardRebalancer while it copies the range to another shard; writes to
+--             the range are refused until it is cleared
+-- Ranges may not overlap.  The single range below keeps every hotel on the directory, as before
+-- the map existed; run java ShardRebalancer to move ranges to other shards.  DBProject only
+-- reads the map with -Ddbproject.shards=true.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (9, 'Shard map');
+
+CREATE TABLE ShardMap( firstHotel INTEGER NOT NULL,
+                       lastHotel INTEGER NOT NULL,
+                       shard TEXT,
+                       moving BOOLEAN NOT NULL DEFAULT FALSE,
+                       PRIMARY KEY(firstHotel),
+                       CHECK(firstHotel <= lastHotel),
+                       EXCLUDE USING gist (int8range(firstHotel, lastHotel, '[]') WITH &&));
+
+INSERT INTO ShardMap(firstHotel, lastHotel, shard) VALUES (-2147483648, 2147483647, NULL);
+
+COMMIT;
@@ -0,0 +1,33 @@
+-- Migration 010: customer name key
+-- Indexes customers by a normalized name key, customerNameKey(fName, lName): both names trimmed
+-- of the CHAR(30) padding, lower-cased and joined by a space.  CustomerNames resolves the names
+-- typed for topKHighestPriceBookingsForACustomer and totalCostForCustomer through it:
+--    customerNameKeyIndex        exact lookups, and prefix lookups with LIKE 'john sm%'
+--    customerNameTrigramIndex    the names nearest a misspelt one, with % and <-> of pg_trgm
+-- The key is an expression, so Customer is not rewritten and inserts need no trigger.
+-- Needs the pg_trgm extension (postgresql-contrib).
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (10, 'Customer name key');
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+CREATE OR REPLACE FUNCTION customerNameKey(fName TEXT, lName TEXT) RETURNS TEXT AS $$
+   SELECT lower(btrim(fName)) || ' ' || lower(btrim(lName));
+$$ LANGUAGE SQL IMMUTABLE;
+
+-- text_pattern_ops compares byte by byte, so LIKE with a fixed prefix is a range scan in any locale
+CREATE INDEX customerNameKeyIndex ON Customer(customerNameKey(fName, lName) text_pattern_ops);
+-- GiST rather than GIN, as only GiST returns the nearest names first
+CREATE INDEX customerNameTrigramIndex ON Customer USING gist (customerNameKey(fName, lName) gist_trgm_ops);
+
+COMMIT;
+
+ANALYZE Customer;
@@ -0,0 +1,17 @@
+-- Migration 011: no change notifications for Hotel
+-- repairRequest looks the manager of a hotel up inside its INSERT, so DBProject no longer caches
+-- hotels and nothing listens on the dbproject_hotel channel of migration 007.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (11, 'no change notifications for Hotel');
+
+DROP TRIGGER IF EXISTS hotelChangeTrigger ON Hotel;
+
+COMMIT;
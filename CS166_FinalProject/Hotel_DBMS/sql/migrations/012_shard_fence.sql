@@ -0,0 +1,95 @@
+-- Migration 012: shard fence
+-- Lists the ranges of hotelIDs a database no longer takes writes for, because ShardRebalancer is
+-- moving them away or has moved them away.  Apply it to the directory and every shard.
+--    firstHotel, lastHotel   the fenced range
+-- A write to the hotel tables of a fenced hotel fails, whichever shard map the writer has read.
+-- Every write takes the fence lock shared, and ShardRebalancer takes it exclusively to add a
+-- fence, so a write that began before the fence has committed once the fence is in place and one
+-- that begins after it sees the fence.  ShardRebalancer copies and deletes fenced rows with
+-- dbproject.shard_move set for its transaction.  Needs PostgreSQL 11 or later, like migration 008.
+
+CREATE TABLE IF NOT EXISTS SchemaVersion( version INTEGER NOT NULL,
+                                          description TEXT,
+                                          appliedOn TIMESTAMP NOT NULL DEFAULT now(),
+                                          PRIMARY KEY(version));
+
+BEGIN;
+
+INSERT INTO SchemaVersion(version, description)
+VALUES (12, 'Shard fence');
+
+CREATE TABLE ShardFence( firstHotel INTEGER NOT NULL,
+                         lastHotel INTEGER NOT NULL,
+                         PRIMARY KEY(firstHotel),
+                         CHECK(firstHotel <= lastHotel));
+
+-- Refuses a write to a hotel of a fenced range
+CREATE FUNCTION checkShardFence(hotel INTEGER) RETURNS VOID AS $$
+BEGIN
+   IF hotel IS NULL OR current_setting('dbproject.shard_move', TRUE) = 'on' THEN
+      RETURN;
+   END IF;
+   PERFORM pg_advisory_xact_lock_shared(hashtext('ShardFence'));
+   IF EXISTS (SELECT 1 FROM ShardFence f WHERE hotel BETWEEN f.firstHotel AND f.lastHotel) THEN
+      RAISE EXCEPTION 'Hotel % is not on this shard any more, try again shortly...', hotel
+         USING ERRCODE = 'object_not_in_prerequisite_state';
+   END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Checks the old and new row against the fence; the trigger argument names the hotelID column.
+-- AFTER triggers, as partitioned tables have no BEFORE row triggers before PostgreSQL 13
+CREATE FUNCTION shardFenceTrigger() RETURNS TRIGGER AS $$
+BEGIN
+   IF TG_OP <> 'INSERT' THEN
+      PERFORM checkShardFence(CAST(to_jsonb(OLD) ->> TG_ARGV[0] AS INTEGER));
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM checkShardFence(CAST(to_jsonb(NEW) ->> TG_ARGV[0] AS INTEGER));
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Request has no hotelID of its own; its repair has
+CREATE FUNCTION requestShardFenceTrigger() RETURNS TRIGGER AS $$
+BEGIN
+   IF TG_OP <> 'INSERT' THEN
+      PERFORM checkShardFence((SELECT r.hotelID FROM Repair r WHERE r.rID = OLD.repairID LIMIT 1));
+   END IF;
+   IF TG_OP <> 'DELETE' THEN
+      PERFORM checkShardFence((SELECT r.hotelID FROM Repair r WHERE r.rID = NEW.repairID LIMIT 1));
+   END IF;
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER hotelShardFenceTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Hotel
+FOR EACH ROW EXECUTE PROCEDURE shardFenceTrigger('hotelid');
+
+CREATE TRIGGER staffShardFenceTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Staff
+FOR EACH ROW EXECUTE PROCEDURE shardFenceTrigger('employerid');
+
+CREATE TRIGGER roomShardFenceTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Room
+FOR EACH ROW EXECUTE PROCEDURE shardFenceTrigger('hotelid');
+
+CREATE TRIGGER bookingShardFenceTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Booking
+FOR EACH ROW EXECUTE PROCEDURE shardFenceTrigger('hotelid');
+
+CREATE TRIGGER repairShardFenceTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Repair
+FOR EACH ROW EXECUTE PROCEDURE shardFenceTrigger('hotelid');
+
+CREATE TRIGGER requestShardFenceTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Request
+FOR EACH ROW EXECUTE PROCEDURE requestShardFenceTrigger();
+
+CREATE TRIGGER assignedShardFenceTrigger
+AFTER INSERT OR UPDATE OR DELETE ON Assigned
+FOR EACH ROW EXECUTE PROCEDURE shardFenceTrigger('hotelid');
+
+COMMIT;